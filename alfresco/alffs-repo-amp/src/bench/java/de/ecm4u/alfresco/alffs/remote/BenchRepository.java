@@ -0,0 +1,690 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.query.PagingRequest;
+import org.alfresco.query.PagingResults;
+import org.alfresco.repo.content.filestore.FileContentReader;
+import org.alfresco.repo.content.filestore.FileContentWriter;
+import org.alfresco.repo.policy.BehaviourFilter;
+import org.alfresco.repo.policy.PolicyComponent;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.dictionary.DictionaryService;
+import org.alfresco.service.cmr.model.FileFolderService;
+import org.alfresco.service.cmr.model.FileInfo;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.SearchService;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.alfresco.service.cmr.security.OwnableService;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.cmr.site.SiteInfo;
+import org.alfresco.service.cmr.site.SiteService;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.Pair;
+
+/**
+ * In memory tree behind a faked {@link ServiceRegistry} for the benchmarks.
+ *
+ * The tree has a deep path, a wide folder, a large random file and a
+ * compressible text file. Company home is also the document library of the
+ * site {@link #SITE}, so every path resolves below both bases.
+ *
+ * Services are hand written fakes that answer the calls of the resources
+ * from the tree and return null, false or empty for all others. They are
+ * dispatched through jdk proxies by method name, the real services sit behind
+ * spring proxies as well. Contents are read and written by the file content
+ * reader and writer of the repository.
+ */
+public class BenchRepository {
+	public static final String BASE = BaseRegistry.COMPANY_HOME;
+	public static final String SITE = "bench";
+	public static final String SITE_BASE = "site:" + SITE;
+
+	private static final String CM_PREFIX = "cm";
+	private static final String SYS_PREFIX = "sys";
+	private static final String SYS_URI = "http://www.alfresco.org/model/system/1.0";
+	private static final String BINARY_MIMETYPE = "application/octet-stream";
+	private static final String TEXT_MIMETYPE = "text/plain";
+
+	private final Map<NodeRef, Node> nodes = new HashMap<NodeRef, Node>();
+	private final Map<String, Node> contents = new HashMap<String, Node>();
+	private final ServiceRegistry serviceRegistry;
+	private final BehaviourFilter behaviourFilter;
+	private final PolicyComponent policyComponent;
+	private final BaseRegistry baseRegistry;
+	private final NodeRef storeRoot;
+	private final NodeRef companyHome;
+	private final List<File> files = new ArrayList<File>();
+	// one unchanged transaction for every node, etags never change
+	private final NodeRef.Status status;
+
+	private String deepPath;
+	private NodeRef deepFile;
+	private String widePath;
+	private NodeRef wideFolder;
+	private String largePath;
+	private NodeRef largeFile;
+	private String textPath;
+	private File scratch;
+
+	private static class Node {
+		NodeRef nodeRef;
+		NodeRef parent;
+		QName type;
+		Map<QName, Serializable> props = new HashMap<QName, Serializable>();
+		Set<QName> aspects = new HashSet<QName>();
+		// sorted by name like the listing of the file folder service
+		TreeMap<String, NodeRef> children = new TreeMap<String, NodeRef>();
+		FileInfo fileInfo;
+		File file;
+	}
+
+	/**
+	 * Calls of a faked interface by method name. Calls it does not answer
+	 * return null, false, zero or an empty collection.
+	 */
+	abstract static class Fake implements InvocationHandler {
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+				throws Throwable {
+			if (method.getDeclaringClass() == Object.class) {
+				if ("equals".equals(method.getName())) {
+					return proxy == args[0];
+				}
+				if ("hashCode".equals(method.getName())) {
+					return System.identityHashCode(proxy);
+				}
+				return getClass().getName();
+			}
+			Object result = call(method.getName(), args);
+			return result != null ? result : empty(method.getReturnType());
+		}
+
+		protected abstract Object call(String method, Object[] args)
+				throws Throwable;
+
+		private static Object empty(Class<?> type) {
+			if (type == boolean.class) {
+				return Boolean.FALSE;
+			}
+			if (type == int.class) {
+				return 0;
+			}
+			if (type == long.class) {
+				return 0L;
+			}
+			if (type == List.class) {
+				return Collections.emptyList();
+			}
+			if (type == Set.class) {
+				return Collections.emptySet();
+			}
+			if (type == Map.class) {
+				return Collections.emptyMap();
+			}
+			return null;
+		}
+	}
+
+	static <T> T fake(Class<T> type, Fake fake) {
+		return type.cast(Proxy.newProxyInstance(
+				BenchRepository.class.getClassLoader(), new Class<?>[] { type },
+				fake));
+	}
+
+	/**
+	 * @param depth
+	 *            folders above the file of the deep path
+	 * @param width
+	 *            files in the wide folder
+	 * @param largeSize
+	 *            bytes of the large file and the text file
+	 */
+	public BenchRepository(int depth, int width, long largeSize)
+			throws IOException {
+		serviceRegistry = fake(ServiceRegistry.class, new Services());
+		behaviourFilter = fake(BehaviourFilter.class, new Fake() {
+			@Override
+			protected Object call(String method, Object[] args) {
+				return null;
+			}
+		});
+		policyComponent = fake(PolicyComponent.class, new Fake() {
+			@Override
+			protected Object call(String method, Object[] args) {
+				return null;
+			}
+		});
+
+		storeRoot = createNode(null, "", ContentModel.TYPE_STOREROOT, null,
+				null);
+		companyHome = createNode(storeRoot, "Company Home",
+				ContentModel.TYPE_FOLDER, null, null);
+		status = new NodeRef.Status(1L, companyHome, "1", 1L, false);
+
+		StringBuilder path = new StringBuilder();
+		NodeRef parent = createNode(companyHome, "deep",
+				ContentModel.TYPE_FOLDER, null, null);
+		path.append("/deep");
+		for (int i = 0; i < depth; i++) {
+			String name = "level-" + i;
+			parent = createNode(parent, name, ContentModel.TYPE_FOLDER, null,
+					null);
+			path.append('/').append(name);
+		}
+		deepFile = createNode(parent, "file.txt", ContentModel.TYPE_CONTENT,
+				createFile(4096), BINARY_MIMETYPE);
+		deepPath = path.append("/file.txt").toString();
+
+		wideFolder = createNode(companyHome, "wide", ContentModel.TYPE_FOLDER,
+				null, null);
+		widePath = "/wide";
+		File small = createFile(1024);
+		for (int i = 0; i < width; i++) {
+			createNode(wideFolder, String.format("file-%06d.txt", i),
+					ContentModel.TYPE_CONTENT, small, BINARY_MIMETYPE);
+		}
+
+		largeFile = createNode(companyHome, "large.bin",
+				ContentModel.TYPE_CONTENT, createFile(largeSize),
+				BINARY_MIMETYPE);
+		largePath = "/large.bin";
+		createNode(companyHome, "text.txt", ContentModel.TYPE_CONTENT,
+				createTextFile(largeSize), TEXT_MIMETYPE);
+		textPath = "/text.txt";
+
+		scratch = File.createTempFile("alffs-bench-", ".bin");
+		files.add(scratch);
+
+		SiteBaseResolver siteResolver = new SiteBaseResolver();
+		siteResolver.setServiceRegistry(serviceRegistry);
+		StoreBaseResolver storeResolver = new StoreBaseResolver();
+		storeResolver.setServiceRegistry(serviceRegistry);
+		baseRegistry = new BaseRegistry();
+		baseRegistry.setServiceRegistry(serviceRegistry);
+		baseRegistry.setResolvers(Arrays.<BaseResolver> asList(siteResolver,
+				storeResolver));
+	}
+
+	/**
+	 * Wires the faked services and the base registry into a resource.
+	 */
+	public <T extends AbstractIOResource> T wire(T resource, boolean cached) {
+		resource.setServiceRegistry(serviceRegistry);
+		resource.setBehaviourFilter(behaviourFilter);
+		resource.setBaseRegistry(baseRegistry);
+		resource.companyHomeRef = companyHome;
+		if (cached) {
+			PathCache pathCache = new PathCache();
+			pathCache.setServiceRegistry(serviceRegistry);
+			pathCache.setPolicyComponent(policyComponent);
+			pathCache.init();
+			resource.setPathCache(pathCache);
+		}
+		return resource;
+	}
+
+	public ServiceRegistry getServiceRegistry() {
+		return serviceRegistry;
+	}
+
+	public void destroy() {
+		for (File file : files) {
+			file.delete();
+		}
+	}
+
+	public String getDeepPath() {
+		return deepPath;
+	}
+
+	public NodeRef getDeepFile() {
+		return deepFile;
+	}
+
+	public String getWidePath() {
+		return widePath;
+	}
+
+	public NodeRef getWideFolder() {
+		return wideFolder;
+	}
+
+	public String getLargePath() {
+		return largePath;
+	}
+
+	public NodeRef getLargeFile() {
+		return largeFile;
+	}
+
+	public long getLargeSize() {
+		return nodes.get(largeFile).file.length();
+	}
+
+	public String getTextPath() {
+		return textPath;
+	}
+
+	private File createFile(long size) throws IOException {
+		File file = File.createTempFile("alffs-bench-", ".bin");
+		files.add(file);
+		// random data, so nothing along the way can compress it
+		Random random = new Random(size);
+		byte[] chunk = new byte[64 * 1024];
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			long written = 0;
+			while (written < size) {
+				random.nextBytes(chunk);
+				int length = (int) Math.min(chunk.length, size - written);
+				raf.write(chunk, 0, length);
+				written += length;
+			}
+		} finally {
+			raf.close();
+		}
+		return file;
+	}
+
+	private File createTextFile(long size) throws IOException {
+		File file = File.createTempFile("alffs-bench-", ".txt");
+		files.add(file);
+		// numbered lines, compress to about a fifth like source code or logs
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; sb.length() < 64 * 1024; i++) {
+			sb.append(i).append(": the quick brown fox jumps over the lazy dog ")
+					.append(Integer.toHexString(i * 31)).append('\n');
+		}
+		byte[] chunk = sb.toString().getBytes("US-ASCII");
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			long written = 0;
+			while (written < size) {
+				int length = (int) Math.min(chunk.length, size - written);
+				raf.write(chunk, 0, length);
+				written += length;
+			}
+		} finally {
+			raf.close();
+		}
+		return file;
+	}
+
+	private NodeRef createNode(NodeRef parent, String name, QName type,
+			File file, String mimetype) {
+		Node node = new Node();
+		node.nodeRef = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE,
+				UUID.randomUUID().toString());
+		node.parent = parent;
+		node.type = type;
+		node.file = file;
+		Date now = new Date();
+		node.props.put(ContentModel.PROP_NAME, name);
+		node.props.put(ContentModel.PROP_CREATED, now);
+		node.props.put(ContentModel.PROP_MODIFIED, now);
+		node.props.put(ContentModel.PROP_CREATOR, "admin");
+		node.props.put(ContentModel.PROP_MODIFIER, "admin");
+		node.props.put(ContentModel.PROP_NODE_UUID, node.nodeRef.getId());
+		node.aspects.add(ContentModel.ASPECT_AUDITABLE);
+		if (file != null) {
+			ContentData cdata = new ContentData("store://bench/"
+					+ node.nodeRef.getId() + ".bin", mimetype, file.length(),
+					"UTF-8", null);
+			node.props.put(ContentModel.PROP_CONTENT, cdata);
+			contents.put(cdata.getContentUrl(), node);
+		}
+		node.fileInfo = createFileInfo(node);
+		nodes.put(node.nodeRef, node);
+		if (parent != null) {
+			nodes.get(parent).children.put(name, node.nodeRef);
+		}
+		return node.nodeRef;
+	}
+
+	private FileInfo createFileInfo(final Node node) {
+		final boolean folder = ContentModel.TYPE_FOLDER.equals(node.type);
+		return fake(FileInfo.class, new Fake() {
+			@Override
+			protected Object call(String method, Object[] args) {
+				switch (method) {
+				case "getNodeRef":
+					return node.nodeRef;
+				case "getName":
+					return node.props.get(ContentModel.PROP_NAME);
+				case "isFolder":
+					return folder;
+				case "getType":
+					return node.type;
+				case "getProperties":
+					return node.props;
+				case "getContentData":
+					return node.props.get(ContentModel.PROP_CONTENT);
+				case "getCreatedDate":
+					return node.props.get(ContentModel.PROP_CREATED);
+				case "getModifiedDate":
+					return node.props.get(ContentModel.PROP_MODIFIED);
+				default:
+					return null;
+				}
+			}
+		});
+	}
+
+	/**
+	 * A new reader per call like the content service.
+	 */
+	private ContentReader newReader(Node node) {
+		if (node == null || node.file == null) {
+			return null;
+		}
+		ContentData cdata = (ContentData) node.props
+				.get(ContentModel.PROP_CONTENT);
+		FileContentReader reader = new FileContentReader(node.file,
+				cdata.getContentUrl());
+		reader.setMimetype(cdata.getMimetype());
+		reader.setEncoding(cdata.getEncoding());
+		return reader;
+	}
+
+	private Node node(Object nodeRef) {
+		return nodes.get(nodeRef);
+	}
+
+	private ChildAssociationRef primaryParent(Node node) {
+		return new ChildAssociationRef(ContentModel.ASSOC_CONTAINS,
+				node.parent, ContentModel.PROP_NAME, node.nodeRef);
+	}
+
+	private PagingResults<FileInfo> list(Node folder, PagingRequest paging) {
+		List<NodeRef> children = new ArrayList<NodeRef>(
+				folder.children.values());
+		int from = Math.min(paging.getSkipCount(), children.size());
+		int to = (int) Math.min((long) from + paging.getMaxItems(),
+				children.size());
+		List<FileInfo> page = new ArrayList<FileInfo>(to - from);
+		for (NodeRef child : children.subList(from, to)) {
+			page.add(nodes.get(child).fileInfo);
+		}
+		final List<FileInfo> result = page;
+		final boolean hasMore = to < children.size();
+		final int total = children.size();
+		return new PagingResults<FileInfo>() {
+			@Override
+			public List<FileInfo> getPage() {
+				return result;
+			}
+
+			@Override
+			public boolean hasMoreItems() {
+				return hasMore;
+			}
+
+			@Override
+			public Pair<Integer, Integer> getTotalResultCount() {
+				return new Pair<Integer, Integer>(total, total);
+			}
+
+			@Override
+			public String getQueryExecutionId() {
+				return null;
+			}
+		};
+	}
+
+	private class Services extends Fake {
+		private final NodeService nodeService = fake(NodeService.class,
+				new Fake() {
+					@Override
+					protected Object call(String method, Object[] args) {
+						switch (method) {
+						case "exists":
+							return args[0] instanceof StoreRef
+									|| node(args[0]) != null;
+						case "getType":
+							return node(args[0]).type;
+						case "getProperties":
+							// a copy like the real node service
+							return new HashMap<QName, Serializable>(
+									node(args[0]).props);
+						case "getProperty":
+							return node(args[0]).props.get(args[1]);
+						case "getAspects":
+							return new HashSet<QName>(node(args[0]).aspects);
+						case "hasAspect":
+							return node(args[0]).aspects.contains(args[1]);
+						case "getNodeStatus":
+							return status;
+						case "getRootNode":
+							return storeRoot;
+						case "getPrimaryParent":
+							return primaryParent(node(args[0]));
+						case "getParentAssocs":
+							return Collections
+									.singletonList(primaryParent(node(args[0])));
+						case "countChildAssocs":
+							return node(args[0]).children.size();
+						default:
+							return null;
+						}
+					}
+				});
+
+		private final FileFolderService fileFolderService = fake(
+				FileFolderService.class, new Fake() {
+					@Override
+					protected Object call(String method, Object[] args) {
+						switch (method) {
+						case "getFileInfo":
+							Node node = node(args[0]);
+							return node != null ? node.fileInfo : null;
+						case "searchSimple":
+							return node(args[0]).children.get(args[1]);
+						case "resolveNamePath":
+							node = node(args[0]);
+							for (Object name : (List<?>) args[1]) {
+								NodeRef child = node.children.get(name);
+								if (child == null) {
+									return null;
+								}
+								node = nodes.get(child);
+							}
+							return node.fileInfo;
+						case "list":
+							if (args.length == 6) {
+								return list(node(args[0]),
+										(PagingRequest) args[5]);
+							}
+							return null;
+						default:
+							return null;
+						}
+					}
+				});
+
+		private final ContentService contentService = fake(
+				ContentService.class, new Fake() {
+					@Override
+					protected Object call(String method, Object[] args) {
+						switch (method) {
+						case "getReader":
+							return newReader(node(args[0]));
+						case "getRawReader":
+							return newReader(contents.get(args[0]));
+						case "getWriter":
+							// writes go to one scratch file, nothing is copied
+							return new FileContentWriter(scratch,
+									"store://bench/scratch.bin", null);
+						default:
+							return null;
+						}
+					}
+				});
+
+		private final DictionaryService dictionaryService = fake(
+				DictionaryService.class, new Fake() {
+					@Override
+					protected Object call(String method, Object[] args) {
+						if ("isSubClass".equals(method)) {
+							return args[0].equals(args[1]);
+						}
+						return null;
+					}
+				});
+
+		private final NamespaceService namespaceService = fake(
+				NamespaceService.class, new Fake() {
+					private final List<String> sys = Collections
+							.singletonList(SYS_PREFIX);
+					private final List<String> cm = Collections
+							.singletonList(CM_PREFIX);
+
+					@Override
+					protected Object call(String method, Object[] args) {
+						switch (method) {
+						case "getPrefixes":
+							return SYS_URI.equals(args[0]) ? sys : cm;
+						case "getNamespaceURI":
+							return SYS_PREFIX.equals(args[0]) ? SYS_URI
+									: NamespaceService.CONTENT_MODEL_1_0_URI;
+						default:
+							return null;
+						}
+					}
+				});
+
+		private final OwnableService ownableService = fake(
+				OwnableService.class, new Fake() {
+					@Override
+					protected Object call(String method, Object[] args) {
+						return "getOwner".equals(method) ? "admin" : null;
+					}
+				});
+
+		private final PermissionService permissionService = fake(
+				PermissionService.class, new Fake() {
+					@Override
+					protected Object call(String method, Object[] args) {
+						return "hasPermission".equals(method) ? AccessStatus.ALLOWED
+								: null;
+					}
+				});
+
+		private final SiteService siteService = fake(SiteService.class,
+				new Fake() {
+					private final SiteInfo site = fake(SiteInfo.class,
+							new Fake() {
+								@Override
+								protected Object call(String method,
+										Object[] args) {
+									return "getShortName".equals(method) ? SITE
+											: null;
+								}
+							});
+
+					@Override
+					protected Object call(String method, Object[] args) {
+						if (!SITE.equals(args[0])) {
+							return null;
+						}
+						switch (method) {
+						case "getSite":
+							return site;
+						case "getContainer":
+							return companyHome;
+						default:
+							return null;
+						}
+					}
+				});
+
+		private final SearchService searchService = fake(SearchService.class,
+				new Fake() {
+					@Override
+					protected Object call(String method, Object[] args) {
+						// the only xpath of the benchmarks is company home
+						return "selectNodes".equals(method) ? Collections
+								.singletonList(companyHome) : null;
+					}
+				});
+
+		private final RetryingTransactionHelper txnHelper = new RetryingTransactionHelper() {
+			@Override
+			public <R> R doInTransaction(RetryingTransactionCallback<R> cb,
+					boolean readOnly, boolean requiresNew) {
+				try {
+					return cb.execute();
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Throwable e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+
+		private final TransactionService transactionService = fake(
+				TransactionService.class, new Fake() {
+					@Override
+					protected Object call(String method, Object[] args) {
+						return "getRetryingTransactionHelper".equals(method) ? txnHelper
+								: null;
+					}
+				});
+
+		@Override
+		protected Object call(String method, Object[] args) {
+			switch (method) {
+			case "getNodeService":
+				return nodeService;
+			case "getFileFolderService":
+				return fileFolderService;
+			case "getContentService":
+				return contentService;
+			case "getDictionaryService":
+				return dictionaryService;
+			case "getNamespaceService":
+				return namespaceService;
+			case "getOwnableService":
+				return ownableService;
+			case "getPermissionService":
+				return permissionService;
+			case "getSiteService":
+				return siteService;
+			case "getSearchService":
+				return searchService;
+			case "getTransactionService":
+				return transactionService;
+			default:
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.extensions.surf.util.Content;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+/**
+ * Requests and responses for driving the resources without a web script
+ * container. Responses count the written chars and bytes, the count is fed to
+ * the blackhole so the output can not be optimized away.
+ */
+public class BenchWebScript {
+	private final Map<String, String> params = new HashMap<String, String>();
+	private final Map<String, String> headers = new HashMap<String, String>();
+	private byte[] body = new byte[0];
+
+	private final WebScriptRequest request;
+	private final WebScriptResponse response;
+	private long count;
+
+	public BenchWebScript() {
+		final Content content = BenchRepository.fake(Content.class,
+				new BenchRepository.Fake() {
+					@Override
+					protected Object call(String method, Object[] args) {
+						return "getInputStream".equals(method) ? new ByteArrayInputStream(
+								body) : null;
+					}
+				});
+		request = BenchRepository.fake(WebScriptRequest.class,
+				new BenchRepository.Fake() {
+					@Override
+					protected Object call(String method, Object[] args) {
+						switch (method) {
+						case "getParameter":
+							return params.get(args[0]);
+						case "getHeader":
+							return headers.get(args[0]);
+						case "getContent":
+							return content;
+						default:
+							return null;
+						}
+					}
+				});
+
+		final Writer writer = new Writer() {
+			@Override
+			public void write(char[] cbuf, int off, int len) {
+				count += len;
+			}
+
+			@Override
+			public void write(String str, int off, int len) {
+				count += len;
+			}
+
+			@Override
+			public void write(int c) {
+				count++;
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		final OutputStream out = new OutputStream() {
+			@Override
+			public void write(byte[] b, int off, int len) {
+				count += len;
+			}
+
+			@Override
+			public void write(int b) {
+				count++;
+			}
+		};
+		response = BenchRepository.fake(WebScriptResponse.class,
+				new BenchRepository.Fake() {
+					@Override
+					protected Object call(String method, Object[] args) {
+						switch (method) {
+						case "getWriter":
+							return writer;
+						case "getOutputStream":
+							return out;
+						default:
+							return null;
+						}
+					}
+				});
+	}
+
+	public BenchWebScript param(String name, String value) {
+		params.put(name, value);
+		return this;
+	}
+
+	public BenchWebScript header(String name, String value) {
+		headers.put(name, value);
+		return this;
+	}
+
+	public BenchWebScript body(byte[] body) {
+		this.body = body;
+		return this;
+	}
+
+	public WebScriptRequest getRequest() {
+		return request;
+	}
+
+	public WebScriptResponse getResponse() {
+		return response;
+	}
+
+	/**
+	 * Chars and bytes written since the last call.
+	 */
+	public long drain() {
+		long written = count;
+		count = 0;
+		return written;
+	}
+}
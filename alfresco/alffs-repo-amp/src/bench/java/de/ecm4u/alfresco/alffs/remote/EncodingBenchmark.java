@@ -0,0 +1,89 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * read of a compressible text file with and without a content encoding:
+ * whole from the cached compressed copy and by window compressed on the fly.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncodingBenchmark {
+	@Param({ "1048576" })
+	public long size;
+
+	@Param({ "131072" })
+	public int window;
+
+	@Param({ "identity", "gzip", "deflate" })
+	public String encoding;
+
+	private BenchRepository repository;
+	private ReadResource resource;
+	private ContentEncodingCache encodingCache;
+	private BenchWebScript full;
+	private BenchWebScript windowed;
+	private long offset;
+
+	@Setup
+	public void setup() throws IOException {
+		AuthenticationUtil.setFullyAuthenticatedUser("admin");
+		repository = new BenchRepository(1, 10, size);
+		resource = repository.wire(new ReadResource(), true);
+		encodingCache = new ContentEncodingCache();
+		encodingCache.init();
+		resource.setEncodingCache(encodingCache);
+		full = new BenchWebScript()
+				.param(AbstractIOResource.PARAM_BASE, BenchRepository.BASE)
+				.param(AbstractIOResource.PARAM_PATH, repository.getTextPath())
+				.header(AbstractIOResource.HEADER_ACCEPT_ENCODING, encoding);
+		windowed = new BenchWebScript()
+				.param(AbstractIOResource.PARAM_BASE, BenchRepository.BASE)
+				.param(AbstractIOResource.PARAM_PATH, repository.getTextPath())
+				.param(AbstractIOResource.PARAM_SIZE, Integer.toString(window))
+				.header(AbstractIOResource.HEADER_ACCEPT_ENCODING, encoding);
+	}
+
+	@TearDown
+	public void tearDown() {
+		encodingCache.destroy();
+		repository.destroy();
+	}
+
+	@Benchmark
+	public long readFull() throws IOException, JSONException {
+		resource.doGet(full.getRequest(), full.getResponse());
+		return full.drain();
+	}
+
+	@Benchmark
+	public long readWindow() throws IOException, JSONException {
+		offset += window;
+		if (offset + window > size) {
+			offset = 0;
+		}
+		windowed.param(AbstractIOResource.PARAM_OFFSET, Long.toString(offset));
+		resource.doGet(windowed.getRequest(), windowed.getResponse());
+		return windowed.drain();
+	}
+}
@@ -0,0 +1,112 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * read of a large file: whole, by offset and size window and by range header.
+ * Pooled reads go through the block cache like in the module context, the
+ * others through the plain transfer loop.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadBenchmark {
+	@Param({ "67108864" })
+	public long size;
+
+	@Param({ "131072" })
+	public int window;
+
+	@Param({ "false", "true" })
+	public boolean pooled;
+
+	private BenchRepository repository;
+	private ReadResource resource;
+	private ContentBlockCache blockCache;
+	private BenchWebScript full;
+	private BenchWebScript windowed;
+	private BenchWebScript ranged;
+	private long offset;
+
+	@Setup
+	public void setup() throws IOException {
+		AuthenticationUtil.setFullyAuthenticatedUser("admin");
+		repository = new BenchRepository(1, 10, size);
+		resource = repository.wire(new ReadResource(), true);
+		if (pooled) {
+			blockCache = new ContentBlockCache();
+			blockCache.setServiceRegistry(repository.getServiceRegistry());
+			blockCache.init();
+			resource.setBlockCache(blockCache);
+		}
+		full = new BenchWebScript().param(AbstractIOResource.PARAM_BASE,
+				BenchRepository.BASE).param(AbstractIOResource.PARAM_PATH,
+				repository.getLargePath());
+		windowed = new BenchWebScript()
+				.param(AbstractIOResource.PARAM_BASE, BenchRepository.BASE)
+				.param(AbstractIOResource.PARAM_PATH, repository.getLargePath())
+				.param(AbstractIOResource.PARAM_SIZE, Integer.toString(window));
+		ranged = new BenchWebScript().param(AbstractIOResource.PARAM_BASE,
+				BenchRepository.BASE).param(AbstractIOResource.PARAM_PATH,
+				repository.getLargePath());
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (pooled) {
+			blockCache.destroy();
+		}
+		repository.destroy();
+	}
+
+	private long nextOffset() {
+		// walk the file sequentially like a reading client
+		offset += window;
+		if (offset + window > size) {
+			offset = 0;
+		}
+		return offset;
+	}
+
+	@Benchmark
+	public long readFull() throws IOException, JSONException {
+		resource.doGet(full.getRequest(), full.getResponse());
+		return full.drain();
+	}
+
+	@Benchmark
+	public long readWindow() throws IOException, JSONException {
+		windowed.param(AbstractIOResource.PARAM_OFFSET,
+				Long.toString(nextOffset()));
+		resource.doGet(windowed.getRequest(), windowed.getResponse());
+		return windowed.drain();
+	}
+
+	@Benchmark
+	public long readRange() throws IOException, JSONException {
+		long start = nextOffset();
+		ranged.header(ReadResource.HEADER_RANGE, "bytes=" + start + "-"
+				+ (start + window - 1));
+		resource.doGet(ranged.getRequest(), ranged.getResponse());
+		return ranged.drain();
+	}
+}
@@ -0,0 +1,80 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * readdir of a wide folder, plain, plus and the first page of a paged listing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadDirBenchmark {
+	@Param({ "1000", "10000" })
+	public int width;
+
+	private BenchRepository repository;
+	private ReadDirResource resource;
+	private BenchWebScript plain;
+	private BenchWebScript plus;
+	private BenchWebScript paged;
+
+	@Setup
+	public void setup() throws IOException {
+		AuthenticationUtil.setFullyAuthenticatedUser("admin");
+		repository = new BenchRepository(1, width, 4096);
+		resource = repository.wire(new ReadDirResource(), true);
+		plain = new BenchWebScript().param(AbstractIOResource.PARAM_BASE,
+				BenchRepository.BASE).param(AbstractIOResource.PARAM_PATH,
+				repository.getWidePath());
+		plus = new BenchWebScript()
+				.param(AbstractIOResource.PARAM_BASE, BenchRepository.BASE)
+				.param(AbstractIOResource.PARAM_PATH, repository.getWidePath())
+				.param(AbstractIOResource.PARAM_MODE, AbstractIOResource.MODE_PLUS);
+		paged = new BenchWebScript()
+				.param(AbstractIOResource.PARAM_BASE, BenchRepository.BASE)
+				.param(AbstractIOResource.PARAM_PATH, repository.getWidePath())
+				.param(AbstractIOResource.PARAM_MAX, "100");
+	}
+
+	@TearDown
+	public void tearDown() {
+		repository.destroy();
+	}
+
+	@Benchmark
+	public long readdir() throws IOException, JSONException {
+		resource.doGet(plain.getRequest(), plain.getResponse());
+		return plain.drain();
+	}
+
+	@Benchmark
+	public long readdirPlus() throws IOException, JSONException {
+		resource.doGet(plus.getRequest(), plus.getResponse());
+		return plus.drain();
+	}
+
+	@Benchmark
+	public long readdirPage() throws IOException, JSONException {
+		resource.doGet(paged.getRequest(), paged.getResponse());
+		return paged.drain();
+	}
+}
@@ -0,0 +1,75 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * stat by path through a deep tree and by uuid handle, below company home
+ * and below a site.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StatBenchmark {
+	@Param({ "4", "32" })
+	public int depth;
+
+	@Param({ "false", "true" })
+	public boolean cached;
+
+	@Param({ BenchRepository.BASE, BenchRepository.SITE_BASE })
+	public String base;
+
+	private BenchRepository repository;
+	private StatResource resource;
+	private BenchWebScript byPath;
+	private BenchWebScript byUuid;
+
+	@Setup
+	public void setup() throws IOException {
+		AuthenticationUtil.setFullyAuthenticatedUser("admin");
+		repository = new BenchRepository(depth, 10, 4096);
+		resource = repository.wire(new StatResource(), cached);
+		byPath = new BenchWebScript().param(AbstractIOResource.PARAM_BASE,
+				base).param(AbstractIOResource.PARAM_PATH,
+				repository.getDeepPath());
+		byUuid = new BenchWebScript().param(AbstractIOResource.PARAM_BASE,
+				base).param(AbstractIOResource.PARAM_UUID,
+				repository.getDeepFile().getId());
+	}
+
+	@TearDown
+	public void tearDown() {
+		repository.destroy();
+	}
+
+	@Benchmark
+	public long statPath() throws IOException, JSONException {
+		resource.doGet(byPath.getRequest(), byPath.getResponse());
+		return byPath.drain();
+	}
+
+	@Benchmark
+	public long statUuid() throws IOException, JSONException {
+		resource.doGet(byUuid.getRequest(), byUuid.getResponse());
+		return byUuid.drain();
+	}
+}
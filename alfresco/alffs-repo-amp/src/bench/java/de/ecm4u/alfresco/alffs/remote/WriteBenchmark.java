@@ -0,0 +1,71 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * write of chunks at increasing offsets into a scratch file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteBenchmark {
+	@Param({ "4096", "131072" })
+	public int chunk;
+
+	private static final long MAX_OFFSET = 64L * 1024L * 1024L;
+
+	private BenchRepository repository;
+	private WriteResource resource;
+	private BenchWebScript write;
+	private long offset;
+
+	@Setup
+	public void setup() throws IOException {
+		AuthenticationUtil.setFullyAuthenticatedUser("admin");
+		repository = new BenchRepository(1, 10, 4096);
+		resource = repository.wire(new WriteResource(), true);
+		byte[] body = new byte[chunk];
+		new Random(chunk).nextBytes(body);
+		write = new BenchWebScript()
+				.param(AbstractIOResource.PARAM_BASE, BenchRepository.BASE)
+				.param(AbstractIOResource.PARAM_PATH, repository.getLargePath())
+				.param(AbstractIOResource.PARAM_SIZE, Integer.toString(chunk))
+				.body(body);
+	}
+
+	@TearDown
+	public void tearDown() {
+		repository.destroy();
+	}
+
+	@Benchmark
+	public long write() throws IOException, JSONException {
+		write.param(AbstractIOResource.PARAM_OFFSET, Long.toString(offset));
+		offset += chunk;
+		if (offset >= MAX_OFFSET) {
+			offset = 0;
+		}
+		resource.doPut(write.getRequest(), write.getResponse());
+		return write.drain();
+	}
+}
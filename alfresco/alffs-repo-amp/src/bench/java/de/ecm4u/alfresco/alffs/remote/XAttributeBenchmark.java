@@ -0,0 +1,85 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * xattr listing of a file with and without values and single lookups.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XAttributeBenchmark {
+	private BenchRepository repository;
+	private XAttributeResource resource;
+	private BenchWebScript list;
+	private BenchWebScript keys;
+	private BenchWebScript name;
+	private BenchWebScript modified;
+
+	@Setup
+	public void setup() throws IOException {
+		AuthenticationUtil.setFullyAuthenticatedUser("admin");
+		repository = new BenchRepository(8, 10, 4096);
+		resource = repository.wire(new XAttributeResource(), true);
+		list = request();
+		keys = request().param(AbstractIOResource.PARAM_MODE, "onlykeys");
+		name = request().param(AbstractIOResource.PARAM_KEY,
+				"alf.prop.cm:name");
+		modified = request().param(AbstractIOResource.PARAM_KEY,
+				"alf.prop.cm:modified");
+	}
+
+	private BenchWebScript request() {
+		return new BenchWebScript().param(AbstractIOResource.PARAM_BASE,
+				BenchRepository.BASE).param(AbstractIOResource.PARAM_PATH,
+				repository.getDeepPath());
+	}
+
+	@TearDown
+	public void tearDown() {
+		repository.destroy();
+	}
+
+	@Benchmark
+	public long listValues() throws IOException, JSONException {
+		resource.doGet(list.getRequest(), list.getResponse());
+		return list.drain();
+	}
+
+	@Benchmark
+	public long listKeys() throws IOException, JSONException {
+		resource.doGet(keys.getRequest(), keys.getResponse());
+		return keys.drain();
+	}
+
+	@Benchmark
+	public long getName() throws IOException, JSONException {
+		resource.doGet(name.getRequest(), name.getResponse());
+		return name.drain();
+	}
+
+	@Benchmark
+	public long getModified() throws IOException, JSONException {
+		resource.doGet(modified.getRequest(), modified.getResponse());
+		return modified.drain();
+	}
+}
@@ -1,30 +1,54 @@
 package de.ecm4u.alfresco.alffs.remote;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.TimeZone;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 import org.alfresco.model.ContentModel;
+import org.alfresco.repo.node.integrity.IntegrityException;
+import org.alfresco.repo.policy.BehaviourFilter;
+import org.alfresco.repo.security.permissions.AccessDeniedException;
 import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.dictionary.DataTypeDefinition;
+import org.alfresco.service.cmr.dictionary.PropertyDefinition;
+import org.alfresco.service.cmr.model.FileExistsException;
 import org.alfresco.service.cmr.model.FileInfo;
 import org.alfresco.service.cmr.model.FileNotFoundException;
 import org.alfresco.service.cmr.repository.ChildAssociationRef;
 import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.service.cmr.repository.DuplicateChildNodeNameException;
+import org.alfresco.service.cmr.repository.InvalidNodeRefException;
 import org.alfresco.service.cmr.repository.MLText;
 import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
 import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.namespace.InvalidQNameException;
+import org.alfresco.service.namespace.NamespaceException;
 import org.alfresco.service.namespace.QName;
+import org.alfresco.util.Pair;
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
 import org.json.JSONException;
 import org.json.simple.JSONValue;
@@ -36,12 +60,20 @@ import org.springframework.extensions.webscripts.WebScriptResponse;
 
 public abstract class AbstractIOResource extends AbstractWebScript {
 	protected ServiceRegistry serviceRegistry;
+	protected PathCache pathCache;
+	protected BehaviourFilter behaviourFilter;
+	protected JobRegistry jobRegistry;
+	protected IOMetrics ioMetrics;
+	protected BaseRegistry baseRegistry;
 	protected final static String JSON_MIMETYPE = "application/json";
 	protected final static String BIN_MIMETYPE = "application/json";
+	protected final static String CBOR_MIMETYPE = "application/cbor";
 
 	protected final static String DEFAULT_ENCODING = "UTF-8";
 	protected final static String PARAM_BASE = "base";
 	protected final static String PARAM_PATH = "path";
+	// node handle as returned by open and create, used instead of path
+	protected final static String PARAM_UUID = "uuid";
 	protected final static String PARAM_NEWPATH = "newpath";
 	protected final static String PARAM_TYPE = "type";
 	protected final static String PARAM_SIZE = "size";
@@ -55,6 +87,10 @@ public abstract class AbstractIOResource extends AbstractWebScript {
 	protected static final String PARAM_ATIME_NSEC = "atime_nsec";
 	protected static final String PARAM_MTIME_SEC = "mtime_sec";
 	protected static final String PARAM_MTIME_NSEC = "mtime_nsec";
+	protected static final String PARAM_MAX = "max";
+	protected static final String PARAM_CURSOR = "cursor";
+
+	protected static final String MODE_PLUS = "plus";
 
 	protected static final Pattern PAT_PROP = Pattern
 			.compile("^alf\\.prop\\.([^\\.]+)(\\..*)?$");
@@ -82,11 +118,32 @@ public abstract class AbstractIOResource extends AbstractWebScript {
 	protected static final String ERROR_NOTEMPTY = "ENOTEMPTY";
 	protected static final String ERROR_NOTDIR = "ENOTDIR";
 	protected static final String ERROR_ISDIR = "EISDIR";
+	protected static final String ERROR_STALE = "ESTALE";
+	protected static final String ERROR_ACCES = "EACCES";
+	protected static final String ERROR_INVAL = "EINVAL";
+	protected static final String ERROR_AGAIN = "EAGAIN";
 
 	protected static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+	protected static final String HEADER_ETAG = "ETag";
+	protected static final String HEADER_ACCEPT = "Accept";
+	protected static final String HEADER_VARY = "Vary";
+	protected static final String HEADER_CONTENT_LENGTH = "Content-Length";
+	protected static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+	protected static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
 
 	protected NodeRef companyHomeRef = null;
 
+	protected static final List<Pair<QName, Boolean>> SORT_BY_NAME = Collections
+			.singletonList(new Pair<QName, Boolean>(ContentModel.PROP_NAME,
+					true));
+
+	private static final int MAX_CACHED_QNAMES = 10000;
+	private final ConcurrentMap<QName, String> prefixStrings = new ConcurrentHashMap<QName, String>();
+	private final ConcurrentMap<QName, String> propertyKeys = new ConcurrentHashMap<QName, String>();
+
+	// short name of the resource in the metrics, e.g. stat.get
+	private String metricsName;
+
 	protected boolean isSet(long field, int bit) {
 		if ((field & bit) == bit) {
 			return true;
@@ -98,6 +155,11 @@ public abstract class AbstractIOResource extends AbstractWebScript {
 	public void execute(WebScriptRequest req, WebScriptResponse res)
 			throws IOException {
 		String method = getDescription().getMethod().toUpperCase();
+		IOMetrics.Sample sample = null;
+		if (ioMetrics != null) {
+			sample = ioMetrics.start(getMetricsName(), getContentLength(req));
+		}
+		boolean completed = false;
 		try {
 
 			if (method.equals("GET")) {
@@ -109,10 +171,66 @@ public abstract class AbstractIOResource extends AbstractWebScript {
 			} else if (method.equals("PUT")) {
 				doPut(req, res);
 			}
+			completed = true;
 		} catch (JSONException e) {
 			throw new WebScriptException("json error", e);
+		} finally {
+			if (sample != null) {
+				if (!completed) {
+					sample.setErrno(ERROR_IO);
+				}
+				ioMetrics.finish(sample);
+			}
+		}
+
+	}
+
+	private String getMetricsName() {
+		if (metricsName == null) {
+			String id = getDescription().getId();
+			metricsName = id.substring(id.lastIndexOf('/') + 1);
+		}
+		return metricsName;
+	}
+
+	private long getContentLength(WebScriptRequest req) {
+		String length = req.getHeader(HEADER_CONTENT_LENGTH);
+		if (length == null) {
+			return 0;
+		}
+		try {
+			return Long.parseLong(length);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private IOMetrics.Sample currentSample() {
+		return ioMetrics != null ? ioMetrics.current() : null;
+	}
+
+	/**
+	 * Counts content bytes sent by the current request.
+	 */
+	protected void addBytesOut(long bytes) {
+		IOMetrics.Sample sample = currentSample();
+		if (sample != null) {
+			sample.addBytesOut(bytes);
 		}
+	}
 
+	private void addLocateTime(long start) {
+		IOMetrics.Sample sample = currentSample();
+		if (sample != null) {
+			sample.addLocateNanos(System.nanoTime() - start);
+		}
+	}
+
+	private void addMarshalTime(long start) {
+		IOMetrics.Sample sample = currentSample();
+		if (sample != null) {
+			sample.addMarshalNanos(System.nanoTime() - start);
+		}
 	}
 
 	protected void doPut(WebScriptRequest req, WebScriptResponse res)
@@ -132,31 +250,152 @@ public abstract class AbstractIOResource extends AbstractWebScript {
 	}
 
 	protected NodeRef locateNode(String base, String path) {
-		// for now only company home
+		long start = System.nanoTime();
+		try {
+			return resolvePath(base, path);
+		} finally {
+			addLocateTime(start);
+		}
+	}
 
-		if (!"workspace://SpacesStore/app:company_home".equals(base)) {
-			throw new RuntimeException(
-					"only company home is currently supported as a base path");
+	private NodeRef resolvePath(String base, String path) {
+		NodeRef baseRef = resolveBase(base);
+		if (baseRef == null) {
+			return null;
 		}
-		NodeRef baseRef = getCompanyHome();
 		List<String> parts = new ArrayList<String>(Arrays.asList(StringUtils
 				.split(path, "/")));
 
 		if(StringUtils.isEmpty(path) || path.equals("/") || parts.isEmpty()) {
-			return getCompanyHome();
+			return baseRef;
 		}
-		
-		FileInfo resolveNamePath;
-		try {
-			resolveNamePath = serviceRegistry.getFileFolderService()
-					.resolveNamePath(baseRef, parts, true);
-		} catch (FileNotFoundException e) {
+
+		NodeRef nodeRef = null;
+		if (pathCache != null) {
+			nodeRef = pathCache.resolve(baseRef, parts);
+		} else {
+			try {
+				FileInfo resolveNamePath = serviceRegistry
+						.getFileFolderService().resolveNamePath(baseRef,
+								parts, true);
+				if (resolveNamePath != null) {
+					nodeRef = resolveNamePath.getNodeRef();
+				}
+			} catch (FileNotFoundException e) {
+				return null;
+			}
+		}
+		if (nodeRef != null && isHidden(nodeRef)) {
 			return null;
 		}
-		if (resolveNamePath != null) {
-			return resolveNamePath.getNodeRef();
+		return nodeRef;
+	}
+
+	/**
+	 * Locates a node by handle if one is given, otherwise by path. A handle
+	 * skips the path resolution, but must still be the base or below it.
+	 */
+	protected NodeRef locateNode(String base, String path, String uuid) {
+		if (StringUtils.isBlank(uuid)) {
+			return locateNode(base, path);
 		}
-		return null;
+		long start = System.nanoTime();
+		try {
+			NodeRef baseRef = resolveBase(base);
+			if (baseRef == null) {
+				return null;
+			}
+			// handles are only unique within the store of the base
+			NodeRef nodeRef = new NodeRef(baseRef.getStoreRef(), uuid);
+			if (!isInBase(baseRef, nodeRef) || isHidden(nodeRef)) {
+				return null;
+			}
+			return nodeRef;
+		} finally {
+			addLocateTime(start);
+		}
+	}
+
+	/**
+	 * True if the node exists and is the base or below it by its primary
+	 * parents. A node below a folder the user cannot read is not in the base.
+	 */
+	protected boolean isInBase(NodeRef baseRef, NodeRef nodeRef) {
+		NodeService nodeService = serviceRegistry.getNodeService();
+		if (!nodeService.exists(nodeRef)) {
+			return false;
+		}
+		try {
+			for (NodeRef ref = nodeRef; ref != null;) {
+				if (ref.equals(baseRef)) {
+					return true;
+				}
+				ChildAssociationRef parent = nodeService.getPrimaryParent(ref);
+				ref = parent != null ? parent.getParentRef() : null;
+			}
+		} catch (AccessDeniedException e) {
+			// an ancestor is not readable
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the root node of the base of a mount, null if it does not
+	 * exist. Without a {@link BaseRegistry} only company home is known.
+	 */
+	protected NodeRef resolveBase(String base) {
+		if (baseRegistry != null) {
+			return baseRegistry.resolve(base);
+		}
+		if (!BaseRegistry.COMPANY_HOME.equals(base)) {
+			throw new RuntimeException(
+					"only company home is currently supported as a base path");
+		}
+		return getCompanyHome();
+	}
+
+	/**
+	 * True if the node is in a subtree that is being deleted by a job. The
+	 * ancestors are only walked while such a job runs.
+	 */
+	protected boolean isHidden(NodeRef nodeRef) {
+		if (jobRegistry == null || !jobRegistry.hasHidden()) {
+			return false;
+		}
+		for (NodeRef ref = nodeRef; ref != null;) {
+			if (jobRegistry.isHidden(ref)) {
+				return true;
+			}
+			ChildAssociationRef parent = serviceRegistry.getNodeService()
+					.getPrimaryParent(ref);
+			ref = parent != null ? parent.getParentRef() : null;
+		}
+		return false;
+	}
+
+	/**
+	 * Number of nodes of the tree including its root, stops early when the
+	 * job is cancelled.
+	 */
+	protected long countTree(JobRegistry.Job job, NodeRef rootRef) {
+		long count = 1;
+		Deque<NodeRef> folders = new ArrayDeque<NodeRef>();
+		folders.add(rootRef);
+		while (!folders.isEmpty() && !job.isCancelled()) {
+			NodeRef folderRef = folders.poll();
+			if (!isDirectory(serviceRegistry.getNodeService().getType(
+					folderRef))) {
+				continue;
+			}
+			for (FileInfo child : serviceRegistry.getFileFolderService().list(
+					folderRef)) {
+				count++;
+				if (child.isFolder()) {
+					folders.add(child.getNodeRef());
+				}
+			}
+		}
+		return count;
 	}
 
 	protected NodeRef resolveNamePathFromCompanyHome(String path) {
@@ -181,6 +420,9 @@ public abstract class AbstractIOResource extends AbstractWebScript {
 		if (companyHomeRef != null) {
 			return companyHomeRef;
 		}
+		if (baseRegistry != null) {
+			return baseRegistry.resolve(BaseRegistry.COMPANY_HOME);
+		}
 
 		NodeRef rootNodeRef = serviceRegistry.getNodeService().getRootNode(
 				StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
@@ -196,8 +438,552 @@ public abstract class AbstractIOResource extends AbstractWebScript {
 		if (childs.size() > 1) {
 			throw new RuntimeException("company home noderef not found");
 		}
-		return childs.get(0).getChildRef();
+		companyHomeRef = childs.get(0).getChildRef();
+		return companyHomeRef;
+
+	}
+
+	/**
+	 * Opens the writer for a metadata response, CBOR if the client accepts
+	 * it and JSON otherwise. Errors are always sent as JSON.
+	 */
+	protected ResponseWriter openResponseWriter(WebScriptRequest req,
+			WebScriptResponse res) throws IOException {
+		res.setHeader(HEADER_VARY, HEADER_ACCEPT);
+		if (acceptsCbor(req)) {
+			res.setContentType(CBOR_MIMETYPE);
+			return new CborResponseWriter(new BufferedOutputStream(
+					res.getOutputStream(), 8192));
+		}
+		return new JsonResponseWriter(res.getWriter());
+	}
+
+	private boolean acceptsCbor(WebScriptRequest req) {
+		String accept = req.getHeader(HEADER_ACCEPT);
+		return accept != null && accept.contains(CBOR_MIMETYPE);
+	}
+
+	/**
+	 * True if the request body is sent in no or a known content encoding.
+	 */
+	protected boolean isSupportedContentEncoding(WebScriptRequest req) {
+		String encoding = req.getHeader(HEADER_CONTENT_ENCODING);
+		return StringUtils.isBlank(encoding)
+				|| "identity".equalsIgnoreCase(encoding.trim())
+				|| ContentEncodingCache.GZIP.equalsIgnoreCase(encoding.trim())
+				|| ContentEncodingCache.DEFLATE.equalsIgnoreCase(encoding
+						.trim());
+	}
+
+	/**
+	 * Opens the request body, decoded by its content encoding. Check it
+	 * with {@link #isSupportedContentEncoding} before.
+	 */
+	protected InputStream openContent(WebScriptRequest req)
+			throws IOException {
+		InputStream in = req.getContent().getInputStream();
+		String encoding = StringUtils.trimToEmpty(req
+				.getHeader(HEADER_CONTENT_ENCODING));
+		if (ContentEncodingCache.GZIP.equalsIgnoreCase(encoding)) {
+			return new GZIPInputStream(in, 64 * 1024);
+		}
+		if (ContentEncodingCache.DEFLATE.equalsIgnoreCase(encoding)) {
+			return new InflaterInputStream(in);
+		}
+		return in;
+	}
+
+	/**
+	 * Validator of a node, changes with every transaction that changes the
+	 * node, its properties or its aspects.
+	 */
+	protected String getNodeEtag(NodeRef nodeRef) {
+		NodeRef.Status status = serviceRegistry.getNodeService()
+				.getNodeStatus(nodeRef);
+		return nodeRef.getId() + "." + status.getDbTxnId();
+	}
+
+	/**
+	 * Sends the etag of a metadata response and answers 304 if the client
+	 * already has it. The etag names the format, CBOR and JSON responses of
+	 * the same node never share one.
+	 */
+	protected boolean isNotModified(WebScriptRequest req,
+			WebScriptResponse res, String etag) {
+		etag += acceptsCbor(req) ? ".cbor" : ".json";
+		res.setHeader(HEADER_VARY, HEADER_ACCEPT);
+		res.setHeader(HEADER_ETAG, "\"" + etag + "\"");
+		String header = req.getHeader(HEADER_IF_NONE_MATCH);
+		if (header == null) {
+			return false;
+		}
+		for (String candidate : StringUtils.split(header, ",")) {
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if ("*".equals(candidate)
+					|| etag.equals(StringUtils.strip(candidate, "\""))) {
+				res.setStatus(Status.STATUS_NOT_MODIFIED);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	protected void sendError(WebScriptResponse response,
+			IOResourceException e) {
+		sendError(response, e.getMessage(), e.getErrno(), e.getStatus());
+	}
+
+	protected XAttributeMode parseXAttributeMode(String mode) {
+		if ("create".equals(mode)) {
+			return XAttributeMode.CREATE;
+		} else if ("replace".equals(mode)) {
+			return XAttributeMode.REPLACE;
+		}
+		return XAttributeMode.CREATEORREPLACE;
+	}
+
+	/*
+	 * file system operations shared by the single resources and batches
+	 */
+
+	protected FileInfo createNode(String base, String path, String type)
+			throws IOResourceException {
+		String parentDir = FilenameUtils.getFullPathNoEndSeparator(path);
+		String name = FilenameUtils.getName(path);
+		NodeRef parentRef = locateNode(base, parentDir);
+		if (parentRef == null) {
+			throw new IOResourceException("parent directory does not exists",
+					ERROR_NOENT, Status.STATUS_NOT_FOUND);
+		}
+
+		try {
+			QName fqtn = QName.resolveToQName(
+					serviceRegistry.getNamespaceService(), type);
+			FileInfo finfo = serviceRegistry.getFileFolderService().create(
+					parentRef, name, fqtn);
+			if (!finfo.isFolder() && !finfo.isLink()) {
+				// create 0 byte content to have mimetype mapping from name
+				// there is also no no-content semantic on fs
+				ContentWriter writer = serviceRegistry.getContentService()
+						.getWriter(finfo.getNodeRef(),
+								ContentModel.PROP_CONTENT, true);
+				writer.guessMimetype(name);
+				writer.setEncoding("UTF-8");
+				writer.putContent("");
+			}
+			return finfo;
+		} catch (FileExistsException ex) {
+			throw new IOResourceException("file or directory already exists",
+					ERROR_EXIST, Status.STATUS_CONFLICT);
+		}
+	}
+
+	protected void renameNode(String base, NodeRef nodeRef, String newpath)
+			throws IOResourceException {
+		NodeRef targetRef = locateNode(base, newpath);
+		QName targetType = null;
+		if (targetRef != null) {
+			targetType = serviceRegistry.getNodeService().getType(targetRef);
+		}
+		String parentDirPath = FilenameUtils.getFullPathNoEndSeparator(newpath);
+		String newName = FilenameUtils.getName(newpath);
+		NodeRef targetParentRef = locateNode(base, parentDirPath);
+		if (targetParentRef == null) {
+			// target parent has to exist
+			throw new IOResourceException("no such file or directory",
+					ERROR_NOENT);
+		}
+		boolean sameDirRename = serviceRegistry.getNodeService()
+				.getPrimaryParent(nodeRef).getParentRef()
+				.equals(targetParentRef);
+
+		QName type = serviceRegistry.getNodeService().getType(nodeRef);
+		if (isDirectory(type)) {
+			// target does not exists or is empty dir
+			if (targetRef != null) {
+				if (!isDirectory(targetType)) {
+					throw new IOResourceException("not a directory",
+							ERROR_NOTDIR);
+				}
+				int noChild = serviceRegistry.getNodeService()
+						.countChildAssocs(targetRef, false);
+				if (noChild == 0) {
+					// atomic rename with alfresco :)
+					serviceRegistry.getNodeService().deleteNode(targetRef);
+				} else {
+					throw new IOResourceException("directory not empty",
+							ERROR_NOTEMPTY);
+				}
+			}
+
+			// there is a race here as the directory could have been created in
+			// the meantime
+			try {
+				serviceRegistry.getFileFolderService().move(nodeRef,
+						sameDirRename ? null : targetParentRef, newName);
+			} catch (FileExistsException e) {
+				throw new IOResourceException("directory exists", ERROR_EXIST);
+			} catch (FileNotFoundException e) {
+				throw new IOResourceException("no such file or directory",
+						ERROR_NOENT);
+			}
+		} else if (isFile(type)) {
+			if (targetRef != null) {
+				if (!isFile(targetType)) {
+					throw new IOResourceException("is a directory",
+							ERROR_ISDIR);
+				}
+
+				serviceRegistry.getNodeService().deleteNode(targetRef);
+			}
+			// there is a race here as the directory could have been created in
+			// the meantime
+			try {
+				serviceRegistry.getFileFolderService().move(nodeRef,
+						sameDirRename ? null : targetParentRef, newName);
+			} catch (FileExistsException e) {
+				throw new IOResourceException("file exists", ERROR_EXIST);
+			} catch (FileNotFoundException e) {
+				throw new IOResourceException("no such file or directory",
+						ERROR_NOENT);
+			}
+		} else {
+			throw new RuntimeException("unkown type");
+		}
+	}
 
+	protected void unlinkNode(NodeRef nodeRef) throws IOResourceException {
+		QName type = serviceRegistry.getNodeService().getType(nodeRef);
+		if (!serviceRegistry.getDictionaryService().isSubClass(type,
+				ContentModel.TYPE_CONTENT)) {
+			throw new IOResourceException("not a file or directory",
+					ERROR_ISDIR);
+		}
+		serviceRegistry.getNodeService().deleteNode(nodeRef);
+	}
+
+	protected void removeDirectory(NodeRef nodeRef) throws IOResourceException {
+		QName type = serviceRegistry.getNodeService().getType(nodeRef);
+		if (!serviceRegistry.getDictionaryService().isSubClass(type,
+				ContentModel.TYPE_FOLDER)) {
+			throw new IOResourceException("not a directory", ERROR_NOTDIR);
+		}
+		// check if empty
+		int childs = serviceRegistry.getNodeService().countChildAssocs(
+				nodeRef, true);
+		if (childs != 0) {
+			throw new IOResourceException("directory not empty",
+					ERROR_NOTEMPTY);
+		}
+		serviceRegistry.getNodeService().deleteNode(nodeRef);
+	}
+
+	/**
+	 * Converts a timespec given as seconds and nanoseconds to milliseconds.
+	 */
+	protected long parseTimespec(String sec, String nsec) {
+		long millis = 0;
+		if (StringUtils.isNotBlank(sec)) {
+			millis = Long.parseLong(sec) * 1000;
+		}
+		if (StringUtils.isNotBlank(nsec)) {
+			millis += Long.parseLong(nsec) / 1000000L;
+		}
+		return millis;
+	}
+
+	/**
+	 * Sets cm:modified without the auditable behaviour overwriting it.
+	 */
+	protected void setModified(NodeRef nodeRef, Date modDate) {
+		try {
+			behaviourFilter.disableBehaviour(nodeRef,
+					ContentModel.ASPECT_AUDITABLE);
+			serviceRegistry.getNodeService().setProperty(nodeRef,
+					ContentModel.PROP_MODIFIED, modDate);
+		} finally {
+			behaviourFilter.enableBehaviour(nodeRef,
+					ContentModel.ASPECT_AUDITABLE);
+		}
+	}
+
+	protected void setAttribute(NodeRef nodeRef, String key, String value,
+			XAttributeMode xattrmode) throws IOResourceException {
+		Matcher matcher = PAT_PROP.matcher(key);
+		if (matcher.matches()) {
+			// property or compound property
+			String shortqname = matcher.group(1);
+			String detail = matcher.group(2);
+			QName qname = resolveQName(shortqname);
+
+			Map<QName, Serializable> props = serviceRegistry.getNodeService()
+					.getProperties(nodeRef);
+
+			if (StringUtils.isNotBlank(detail)) {
+				serviceRegistry.getNodeService().setProperty(nodeRef, qname,
+						setContentPart(props.get(qname), detail, value));
+			} else {
+				if (xattrmode == XAttributeMode.CREATE) {
+					if (props.containsKey(qname)) {
+						throw new IOResourceException(
+								"attribute already exists", ERROR_EXIST);
+					}
+				} else if (xattrmode == XAttributeMode.REPLACE) {
+					if (!props.containsKey(qname)) {
+						throw new IOResourceException("no such attribute",
+								ERROR_NOATTR);
+					}
+				}
+				Serializable ser = unmarshalPropertyValue(qname, value);
+				if (qname.equals(ContentModel.PROP_MODIFIED)) {
+					setModified(nodeRef, (Date) ser);
+				} else {
+					serviceRegistry.getNodeService().setProperty(nodeRef,
+							qname, ser);
+				}
+			}
+
+		} else if (key.equals("alf.aspects")) {
+			setAspects(nodeRef, unmarshalAspects(value), xattrmode);
+		} else if (key.equals("alf.type")) {
+			serviceRegistry.getNodeService().setType(nodeRef,
+					unmarshalType(value));
+		} else {
+			throw new IOResourceException("garbage in garbage out",
+					ERROR_NOTSUP);
+		}
+	}
+
+	private void setAspects(NodeRef nodeRef, List<QName> aspects,
+			XAttributeMode xattrmode) {
+		// if create add aspect if not added
+		// if replace or createoreplace do repalce
+		if (xattrmode == XAttributeMode.CREATE) {
+			for (QName fqan : aspects) {
+				serviceRegistry.getNodeService().addAspect(nodeRef, fqan, null);
+			}
+		} else {
+			Set<QName> currentAspects = serviceRegistry.getNodeService()
+					.getAspects(nodeRef);
+			for (QName fqan : aspects) {
+				if (!currentAspects.contains(fqan)) {
+					serviceRegistry.getNodeService().addAspect(nodeRef, fqan,
+							null);
+				}
+				currentAspects.remove(fqan);
+			}
+			for (QName fqan : currentAspects) {
+				serviceRegistry.getNodeService().removeAspect(nodeRef, fqan);
+			}
+		}
+	}
+
+	/**
+	 * Returns the content property with the encoding or mimetype given by
+	 * detail changed. Parts of a missing content cannot be set.
+	 */
+	private ContentData setContentPart(Serializable current, String detail,
+			String value) throws IOResourceException {
+		if (!".encoding".equals(detail) && !".mimetype".equals(detail)) {
+			throw new IOResourceException("attribute not supported",
+					ERROR_NOTSUP);
+		}
+		if (current == null) {
+			throw new IOResourceException("no such attribute", ERROR_NOATTR);
+		}
+		if (!(current instanceof ContentData)) {
+			throw new IOResourceException("attribute not supported",
+					ERROR_NOTSUP);
+		}
+		ContentData cdata = (ContentData) current;
+		if (".encoding".equals(detail)) {
+			return ContentData.setEncoding(cdata, value);
+		}
+		return ContentData.setMimetype(cdata, value);
+	}
+
+	/**
+	 * Sets several attributes of a node with the semantics of
+	 * {@link #setAttribute}. All keys, values, aspects and the type are
+	 * checked before the first write, so a failing key leaves the node
+	 * untouched. The properties are written with one addProperties call.
+	 */
+	protected void setAttributes(NodeRef nodeRef, Map<String, String> attrs,
+			XAttributeMode xattrmode) throws IOResourceException {
+		NodeService nodeService = serviceRegistry.getNodeService();
+		Map<QName, Serializable> current = nodeService.getProperties(nodeRef);
+		Map<QName, Serializable> props = new HashMap<QName, Serializable>();
+		QName type = null;
+		List<QName> aspects = null;
+
+		for (Map.Entry<String, String> attr : attrs.entrySet()) {
+			String key = attr.getKey();
+			String value = attr.getValue();
+			Matcher matcher = PAT_PROP.matcher(key);
+			if (matcher.matches()) {
+				String detail = matcher.group(2);
+				QName qname = resolveQName(matcher.group(1));
+				if (StringUtils.isNotBlank(detail)) {
+					// several parts of one content property may be set
+					props.put(qname, setContentPart(
+							props.containsKey(qname) ? props.get(qname)
+									: current.get(qname), detail, value));
+				} else {
+					if (xattrmode == XAttributeMode.CREATE) {
+						if (current.containsKey(qname)) {
+							throw new IOResourceException(
+									"attribute already exists", ERROR_EXIST);
+						}
+					} else if (xattrmode == XAttributeMode.REPLACE) {
+						if (!current.containsKey(qname)) {
+							throw new IOResourceException("no such attribute",
+									ERROR_NOATTR);
+						}
+					}
+					props.put(qname, unmarshalPropertyValue(qname, value));
+				}
+			} else if (key.equals("alf.aspects")) {
+				aspects = unmarshalAspects(value);
+			} else if (key.equals("alf.type")) {
+				type = unmarshalType(value);
+			} else {
+				throw new IOResourceException("garbage in garbage out",
+						ERROR_NOTSUP);
+			}
+		}
+
+		if (type != null) {
+			nodeService.setType(nodeRef, type);
+		}
+		if (aspects != null) {
+			setAspects(nodeRef, aspects, xattrmode);
+		}
+		if (props.isEmpty()) {
+			return;
+		}
+		boolean modified = props.containsKey(ContentModel.PROP_MODIFIED);
+		try {
+			if (modified) {
+				behaviourFilter.disableBehaviour(nodeRef,
+						ContentModel.ASPECT_AUDITABLE);
+			}
+			nodeService.addProperties(nodeRef, props);
+		} finally {
+			if (modified) {
+				behaviourFilter.enableBehaviour(nodeRef,
+						ContentModel.ASPECT_AUDITABLE);
+			}
+		}
+	}
+
+	/**
+	 * Resolves a prefixed attribute name, EINVAL for an unknown prefix.
+	 */
+	private QName resolveQName(String prefixed) throws IOResourceException {
+		try {
+			return QName.resolveToQName(serviceRegistry.getNamespaceService(),
+					prefixed);
+		} catch (NamespaceException e) {
+			throw new IOResourceException("invalid name " + prefixed,
+					ERROR_INVAL);
+		} catch (InvalidQNameException e) {
+			throw new IOResourceException("invalid name " + prefixed,
+					ERROR_INVAL);
+		}
+	}
+
+	private QName unmarshalType(String value) throws IOResourceException {
+		QName type = resolveQName(value);
+		if (serviceRegistry.getDictionaryService().getType(type) == null) {
+			throw new IOResourceException("no such type " + value, ERROR_INVAL);
+		}
+		return type;
+	}
+
+	protected Serializable unmarshalPropertyValue(QName qname, String value)
+			throws IOResourceException {
+		PropertyDefinition pdef = serviceRegistry.getDictionaryService()
+				.getProperty(qname);
+		if (pdef == null) {
+			throw new IOResourceException("no such attribute", ERROR_NOATTR);
+		}
+		DataTypeDefinition ddef = pdef.getDataType();
+		Serializable ser = null;
+		QName dtype = ddef.getName();
+		try {
+			if (value == null) {
+				// null is fine
+			} else if (dtype.equals(DataTypeDefinition.TEXT)
+					|| dtype.equals(DataTypeDefinition.MLTEXT)) {
+				// TODO: handle MLTEXT
+				// todo mltext exposure
+				// MLPropertyInterceptor.setMLAware();
+				ser = value;
+			} else if (dtype.equals(DataTypeDefinition.BOOLEAN)) {
+				ser = Boolean.parseBoolean(value);
+			} else if (dtype.equals(DataTypeDefinition.INT)) {
+				ser = Integer.parseInt(value);
+			} else if (dtype.equals(DataTypeDefinition.LONG)) {
+				ser = Long.parseLong(value);
+			} else if (dtype.equals(DataTypeDefinition.DOUBLE)) {
+				ser = Double.parseDouble(value);
+			} else if (dtype.equals(DataTypeDefinition.FLOAT)) {
+				ser = Float.parseFloat(value);
+			} else if (dtype.equals(DataTypeDefinition.QNAME)) {
+				ser = resolveQName(value);
+			} else if (dtype.equals(DataTypeDefinition.DATE)) {
+				// cm:created und cm:modified setzen
+				ser = unmarshalDate(value);
+			} else if (dtype.equals(DataTypeDefinition.DATETIME)) {
+				ser = unmarshalDateTime(value);
+			} else if (dtype.equals(DataTypeDefinition.LOCALE)) {
+				String[] parts = StringUtils.split(value, "_");
+				if (parts.length == 1) {
+					ser = new Locale(parts[0]);
+				} else if (parts.length == 2) {
+					ser = new Locale(parts[0], parts[1]);
+				} else if (parts.length == 3) {
+					ser = new Locale(parts[0], parts[1], parts[2]);
+				} else {
+					throw new IOResourceException("invalid locale",
+							ERROR_INVAL);
+				}
+			} else {
+				throw new IOResourceException("property type not supported",
+						ERROR_NOTSUP);
+			}
+		} catch (RuntimeException e) {
+			// malformed numbers and dates
+			throw new IOResourceException("invalid value for "
+					+ marshalQName(qname), ERROR_INVAL);
+		}
+		return ser;
+	}
+
+	/**
+	 * The errno of a repository failure.
+	 */
+	protected String toErrno(RuntimeException e) {
+		if (e instanceof AccessDeniedException) {
+			return ERROR_ACCES;
+		}
+		if (e instanceof FileExistsException
+				|| e instanceof DuplicateChildNodeNameException) {
+			return ERROR_EXIST;
+		}
+		if (e instanceof InvalidNodeRefException) {
+			return ERROR_NOENT;
+		}
+		if (e instanceof IntegrityException
+				|| e instanceof NamespaceException
+				|| e instanceof InvalidQNameException
+				|| e instanceof IllegalArgumentException) {
+			return ERROR_INVAL;
+		}
+		return ERROR_IO;
 	}
 
 	protected void sendError(WebScriptResponse response, String message,
@@ -207,6 +993,10 @@ public abstract class AbstractIOResource extends AbstractWebScript {
 
 	protected void sendError(WebScriptResponse response, String message,
 			String code, int httpstatus) {
+		IOMetrics.Sample sample = currentSample();
+		if (sample != null) {
+			sample.setErrno(code);
+		}
 		response.setStatus(httpstatus);
 		Map<String, Object> jsonResponse = new HashMap<String, Object>();
 		jsonResponse.put("message", message);
@@ -230,94 +1020,324 @@ public abstract class AbstractIOResource extends AbstractWebScript {
 		return S_IFREG;
 	}
 
+	/**
+	 * Builds the stat record of a node. Used by stat and by readdir in plus
+	 * mode, timestamps are taken from the properties already loaded into the
+	 * {@link FileInfo}.
+	 */
+	protected Map<String, Object> marshalStat(FileInfo finfo) {
+		long start = System.nanoTime();
+		try {
+			return buildStat(finfo);
+		} finally {
+			addMarshalTime(start);
+		}
+	}
+
+	private Map<String, Object> buildStat(FileInfo finfo) {
+		NodeRef nodeRef = finfo.getNodeRef();
+		Map<QName, Serializable> props = finfo.getProperties();
+		// sized for the up to 17 members without a rehash
+		Map<String, Object> stat = new HashMap<String, Object>(32);
+		stat.put("st_dev", "dev");
+		stat.put("st_ino", nodeRef.toString());
+
+		/*
+		 * S_IFMT 0170000 bit mask for the file type bit fields S_IFSOCK 0140000
+		 * socket S_IFLNK 0120000 symbolic link S_IFREG 0100000 regular file
+		 * S_IFBLK 0060000 block device S_IFDIR 0040000 directory S_IFCHR
+		 * 0020000 character device S_IFIFO 0010000 FIFO S_ISUID 0004000 set UID
+		 * bit S_ISGID 0002000 set-group-ID bit (see below) S_ISVTX 0001000
+		 * sticky bit (see below) S_IRWXU 00700 mask for file owner permissions
+		 * S_IRUSR 00400 owner has read permission S_IWUSR 00200 owner has write
+		 * permission S_IXUSR 00100 owner has execute permission S_IRWXG 00070
+		 * mask for group permissions S_IRGRP 00040 group has read permission
+		 * S_IWGRP 00020 group has write permission S_IXGRP 00010 group has
+		 * execute permission S_IRWXO 00007 mask for permissions for others (not
+		 * in group) S_IROTH 00004 others have read permission S_IWOTH 00002
+		 * others have write permission S_IXOTH 00001 others have execute
+		 * permission
+		 */
+
+		int flags = 0;
+		int mode = 0;
+		if (finfo.isLink()) {
+			flags = S_IFLNK;
+			mode = 0644;
+			stat.put("st_nlink", 1);
+		} else if (finfo.isFolder()) {
+			flags = S_IFDIR;
+			mode = 0755;
+			// at least 2, each subdir will add 1
+			stat.put("st_nlink", 2);
+		} else {
+			flags = S_IFREG;
+			mode = 0644;
+			stat.put("st_nlink", serviceRegistry.getNodeService()
+					.getParentAssocs(nodeRef).size());
+		}
+
+		stat.put("st_mode", flags | mode);
+		stat.put("st_uid", serviceRegistry.getOwnableService()
+				.getOwner(nodeRef));
+		// no st_gid in alfresco
+		long blocks = 0;
+		if (flags == S_IFREG) {
+			ContentData cdata = finfo.getContentData();
+			long size = 0;
+
+			if (cdata != null) {
+				size = cdata.getSize();
+				if (cdata.getContentUrl() != null) {
+					stat.put("etag", encodeContentEtag(cdata.getContentUrl()));
+				}
+			}
+			stat.put("st_size", size);
+			blocks = 1 + (size / 512L);
+		}
+		Date atime = (Date) props.get(ContentModel.PROP_ACCESSED);
+		if (atime != null) {
+			stat.put("st_atime", formatIsoUTC(atime));
+			stat.put("st_atime_epoch_sec", Long.toString(atime.getTime() / 1000L));
+		}
+		Date mtime = (Date) props.get(ContentModel.PROP_MODIFIED);
+		if (mtime != null) {
+			stat.put("st_mtime", formatIsoUTC(mtime));
+			stat.put("st_mtime_epoch_sec", Long.toString(mtime.getTime() / 1000L));
+		}
+		//linux ctime is not create time - it is the inode change time
+		//there is maybe a birthtime or crtime in stat calls
+		Date ctime = (Date) props.get(ContentModel.PROP_CREATED);
+		if (ctime != null) {
+			stat.put("st_ctime", formatIsoUTC(ctime));
+			stat.put("st_ctime_epoch_sec", Long.toString(ctime.getTime() / 1000L));
+		}
+
+		// preferred io block size
+		stat.put("st_blksize", 4096);
+		stat.put("st_blocks", blocks);
+		return stat;
+	}
+
 	protected String formatIsoUTC(Date timestamp) {
-		SimpleDateFormat format = new SimpleDateFormat(ISO_TIME);
-		format.getCalendar().setTimeZone(TimeZone.getTimeZone("UTC"));
-		return format.format(timestamp);
+		return UtcDateFormat.format(timestamp);
+	}
+
+	/**
+	 * Receives the extended attributes of a node, either collected into a map
+	 * or streamed to a response.
+	 */
+	private abstract static class AttributeSink {
+		boolean accepts(String key) {
+			return true;
+		}
+
+		abstract void put(String key, String value) throws IOException;
 	}
 
 	protected Map<String, String> marshalNode(NodeRef nodeRef) {
 		Map<QName, Serializable> props = serviceRegistry.getNodeService()
 				.getProperties(nodeRef);
-		Map<String, String> attrs = new HashMap<String, String>(
-				props.size() + 5);
-		QName type = serviceRegistry.getNodeService().getType(nodeRef);
-		for (QName key : props.keySet()) {
-			String prefixQName = key.toPrefixString(serviceRegistry
-					.getNamespaceService());
-			Serializable value = props.get(key);
+		// content properties expand to five attributes
+		final Map<String, String> attrs = new HashMap<String, String>(
+				(props.size() + 12) * 4 / 3);
+		try {
+			marshalNode(nodeRef, props, new AttributeSink() {
+				@Override
+				void put(String key, String value) {
+					attrs.put(key, value);
+				}
+			});
+		} catch (IOException e) {
+			// not thrown by a map
+			throw new IllegalStateException(e);
+		}
+		return attrs;
+	}
+
+	/**
+	 * Streams the extended attributes of a node as an object, or only their
+	 * names as an array.
+	 */
+	protected void writeNode(NodeRef nodeRef, ResponseWriter out,
+			boolean onlyKeys) throws IOException {
+		writeNode(nodeRef, out, onlyKeys, null);
+	}
+
+	/**
+	 * Like {@link #writeNode(NodeRef, ResponseWriter, boolean)} but only
+	 * with the given attributes, a content property name selects all of its
+	 * parts. Attributes that are not selected are not computed at all.
+	 */
+	protected void writeNode(NodeRef nodeRef, final ResponseWriter out,
+			final boolean onlyKeys, final Set<String> keys) throws IOException {
+		Map<QName, Serializable> props = serviceRegistry.getNodeService()
+				.getProperties(nodeRef);
+		if (onlyKeys) {
+			out.beginArray();
+		} else {
+			out.beginObject();
+		}
+		marshalNode(nodeRef, props, new AttributeSink() {
+			@Override
+			boolean accepts(String key) {
+				if (keys == null || keys.contains(key)) {
+					return true;
+				}
+				int dot = key.lastIndexOf('.');
+				return dot > 0 && keys.contains(key.substring(0, dot));
+			}
+
+			@Override
+			void put(String key, String value) throws IOException {
+				if (onlyKeys) {
+					out.value(key);
+				} else {
+					out.member(key, value);
+				}
+			}
+		});
+		out.end();
+	}
+
+	private void marshalNode(NodeRef nodeRef, Map<QName, Serializable> props,
+			AttributeSink attrs) throws IOException {
+		long start = System.nanoTime();
+		try {
+			marshalAttributes(nodeRef, props, attrs);
+		} finally {
+			addMarshalTime(start);
+		}
+	}
+
+	private void marshalAttributes(NodeRef nodeRef,
+			Map<QName, Serializable> props, AttributeSink attrs)
+			throws IOException {
+		for (Map.Entry<QName, Serializable> entry : props.entrySet()) {
+			Serializable value = entry.getValue();
 			if (value instanceof ContentData) {
-				marshalContentProperty(key, (ContentData) value, attrs);
+				marshalContentProperty(entry.getKey(), (ContentData) value,
+						attrs);
 			} else {
-				String jsonVal = marshalProperty(value);
-				attrs.put("alf.prop." + prefixQName, jsonVal);
+				String key = marshalPropertyKey(entry.getKey());
+				if (attrs.accepts(key)) {
+					attrs.put(key, marshalProperty(value));
+				}
 			}
-
 		}
-		attrs.put("alf.aspects", marshalAspects(nodeRef));
-		attrs.put("alf.type", marshalQName(type));
-		attrs.put("alf.nodeRef", nodeRef.toString());
-		return attrs;
+		if (attrs.accepts("alf.aspects")) {
+			attrs.put("alf.aspects", marshalAspects(nodeRef));
+		}
+		if (attrs.accepts("alf.type")) {
+			attrs.put("alf.type", marshalQName(serviceRegistry
+					.getNodeService().getType(nodeRef)));
+		}
+		if (attrs.accepts("alf.nodeRef")) {
+			attrs.put("alf.nodeRef", nodeRef.toString());
+		}
 	}
 
 	private void marshalMLTextProperty(QName key, MLText mltext,
-			Map<String, String> attrs) {
-		String prefixQName = key.toPrefixString(serviceRegistry
-				.getNamespaceService());
+			AttributeSink attrs) throws IOException {
+		String propertyKey = marshalPropertyKey(key);
 
 		if (mltext == null) {
-			attrs.put("alf.prop." + prefixQName, null);
+			attrs.put(propertyKey, null);
 			return;
 		}
 
 		for (Locale loc : mltext.keySet()) {
 			String locName = loc.toString();
-			attrs.put("alf.prop." + prefixQName + "." + locName,
-					mltext.get(loc));
+			attrs.put(propertyKey + "." + locName, mltext.get(loc));
 		}
 	}
 
 	private void marshalContentProperty(QName key, ContentData value,
-			Map<String, String> attrs) {
-		String prefixQName = key.toPrefixString(serviceRegistry
-				.getNamespaceService());
+			AttributeSink attrs) throws IOException {
+		String propertyKey = marshalPropertyKey(key);
 		if (value == null) {
-			attrs.put("alf.prop." + prefixQName, null);
+			if (attrs.accepts(propertyKey)) {
+				attrs.put(propertyKey, null);
+			}
 			return;
 		}
 		// dont add in listings because content will be returned on getxattr
-		// attrs.put("alf.prop." + prefixQName, value.toString());
-		attrs.put("alf.prop." + prefixQName + ".encoding", value.getEncoding());
-		attrs.put("alf.prop." + prefixQName + ".mimetype", value.getMimetype());
-		attrs.put("alf.prop." + prefixQName + ".locale",
+		// attrs.put(propertyKey, value.toString());
+		putPart(attrs, propertyKey + ".encoding", value.getEncoding());
+		putPart(attrs, propertyKey + ".mimetype", value.getMimetype());
+		putPart(attrs, propertyKey + ".locale",
 				value.getLocale() != null ? value.getLocale().toString() : null);
-		attrs.put("alf.prop." + prefixQName + ".size",
-				Long.toString(value.getSize()));
-		attrs.put("alf.prop." + prefixQName + ".contentUrl",
-				value.getContentUrl());
+		putPart(attrs, propertyKey + ".size", Long.toString(value.getSize()));
+		putPart(attrs, propertyKey + ".contentUrl", value.getContentUrl());
 	}
 
+	private void putPart(AttributeSink attrs, String key, String value)
+			throws IOException {
+		if (attrs.accepts(key)) {
+			attrs.put(key, value);
+		}
+	}
+
+	/**
+	 * The prefixed name of a qname, cached because the namespace service
+	 * lookup and string building showed up on every stat and xattr call.
+	 */
 	protected String marshalQName(QName qname) {
-		return qname.toPrefixString(serviceRegistry.getNamespaceService());
+		String prefixed = prefixStrings.get(qname);
+		if (prefixed == null) {
+			if (prefixStrings.size() > MAX_CACHED_QNAMES) {
+				// models may be redeployed, start over instead of growing
+				prefixStrings.clear();
+				propertyKeys.clear();
+			}
+			prefixed = qname.toPrefixString(serviceRegistry
+					.getNamespaceService());
+			prefixStrings.put(qname, prefixed);
+		}
+		return prefixed;
+	}
+
+	/**
+	 * The extended attribute name of a property, alf.prop.prefix:name.
+	 */
+	protected String marshalPropertyKey(QName qname) {
+		String key = propertyKeys.get(qname);
+		if (key == null) {
+			key = "alf.prop." + marshalQName(qname);
+			propertyKeys.put(qname, key);
+		}
+		return key;
 	}
 
 	protected String marshalAspects(NodeRef nodeRef) {
-		List<String> aspects = new ArrayList<String>();
+		StringBuilder aspects = new StringBuilder(256);
 		for (QName aspectQName : serviceRegistry.getNodeService().getAspects(
 				nodeRef)) {
-
-			aspects.add(aspectQName.toPrefixString(serviceRegistry
-					.getNamespaceService()));
+			if (aspects.length() > 0) {
+				aspects.append(',');
+			}
+			aspects.append(marshalQName(aspectQName));
 		}
-		return marshalList(aspects);
+		return aspects.toString();
 	}
 
-	protected List<QName> unmarshalAspects(String aspects) {
+	/**
+	 * Parses a comma separated list of aspects, EINVAL if one is not in the
+	 * dictionary.
+	 */
+	protected List<QName> unmarshalAspects(String aspects)
+			throws IOResourceException {
+		if (StringUtils.isBlank(aspects)) {
+			return new ArrayList<QName>();
+		}
 		String[] vals = StringUtils.split(aspects, ",");
 		List<QName> list = new ArrayList<QName>(vals.length);
 		for (String aspect : vals) {
-			QName fqan = QName.resolveToQName(
-					serviceRegistry.getNamespaceService(), aspect);
+			QName fqan = resolveQName(aspect);
+			if (serviceRegistry.getDictionaryService().getAspect(fqan) == null) {
+				throw new IOResourceException("no such aspect " + aspect,
+						ERROR_INVAL);
+			}
 			list.add(fqan);
 		}
 		return list;
@@ -389,4 +1409,28 @@ public abstract class AbstractIOResource extends AbstractWebScript {
 		this.serviceRegistry = serviceRegistry;
 	}
 
+	public void setPathCache(PathCache pathCache) {
+		this.pathCache = pathCache;
+	}
+
+	public BehaviourFilter getBehaviourFilter() {
+		return behaviourFilter;
+	}
+
+	public void setBehaviourFilter(BehaviourFilter behaviourFilter) {
+		this.behaviourFilter = behaviourFilter;
+	}
+
+	public void setJobRegistry(JobRegistry jobRegistry) {
+		this.jobRegistry = jobRegistry;
+	}
+
+	public void setBaseRegistry(BaseRegistry baseRegistry) {
+		this.baseRegistry = baseRegistry;
+	}
+
+	public void setIoMetrics(IOMetrics ioMetrics) {
+		this.ioMetrics = ioMetrics;
+	}
+
 }
@@ -0,0 +1,86 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.repo.tenant.TenantUtil;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.repository.NodeRef;
+
+/**
+ * Resolves the base of a mount to its root node through the first
+ * {@link BaseResolver} that supports its syntax. Bases are resolved once as
+ * system and cached per tenant, those of per user resolvers also per user.
+ * The permissions of the user apply to the nodes below the base as usual.
+ */
+public class BaseRegistry {
+	public static final String COMPANY_HOME = "workspace://SpacesStore/app:company_home";
+
+	private ServiceRegistry serviceRegistry;
+	private List<BaseResolver> resolvers;
+	private int maxSize = 1000;
+
+	private final ConcurrentMap<String, NodeRef> bases = new ConcurrentHashMap<String, NodeRef>();
+
+	/**
+	 * Returns the root node of the base or null if the base is unknown or
+	 * does not exist (anymore).
+	 */
+	public NodeRef resolve(final String base) {
+		if (base == null) {
+			return null;
+		}
+		final BaseResolver resolver = findResolver(base);
+		if (resolver == null) {
+			return null;
+		}
+		final String user = AuthenticationUtil.getFullyAuthenticatedUser();
+		String key = TenantUtil.getCurrentDomain() + "|"
+				+ (resolver.isPerUser() ? user : "") + "|" + base;
+
+		NodeRef baseRef = bases.get(key);
+		if (baseRef != null
+				&& serviceRegistry.getNodeService().exists(baseRef)) {
+			return baseRef;
+		}
+		baseRef = AuthenticationUtil.runAsSystem(new RunAsWork<NodeRef>() {
+			@Override
+			public NodeRef doWork() throws Exception {
+				return resolver.resolve(base, user);
+			}
+		});
+		if (baseRef == null) {
+			bases.remove(key);
+			return null;
+		}
+		if (bases.size() >= maxSize) {
+			bases.clear();
+		}
+		bases.put(key, baseRef);
+		return baseRef;
+	}
+
+	private BaseResolver findResolver(String base) {
+		for (BaseResolver resolver : resolvers) {
+			if (resolver.supports(base)) {
+				return resolver;
+			}
+		}
+		return null;
+	}
+
+	public void setServiceRegistry(ServiceRegistry serviceRegistry) {
+		this.serviceRegistry = serviceRegistry;
+	}
+
+	public void setResolvers(List<BaseResolver> resolvers) {
+		this.resolvers = resolvers;
+	}
+
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+}
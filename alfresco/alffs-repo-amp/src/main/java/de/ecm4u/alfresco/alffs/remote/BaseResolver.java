@@ -0,0 +1,23 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+
+/**
+ * Resolves one syntax of the base parameter of a mount to its root node, see
+ * {@link BaseRegistry}.
+ */
+public interface BaseResolver {
+	boolean supports(String base);
+
+	/**
+	 * Returns the root node of the base or null if it does not exist. Called
+	 * as system, user is the user of the request.
+	 */
+	NodeRef resolve(String base, String user);
+
+	/**
+	 * True if the base resolves to a different node for every user, e.g. the
+	 * user home. Those are cached per user.
+	 */
+	boolean isPerUser();
+}
@@ -0,0 +1,204 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.model.FileInfo;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.util.ISO8601DateFormat;
+import org.apache.commons.lang.StringUtils;
+import org.json.JSONException;
+import org.json.simple.JSONValue;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+/**
+ * Runs an ordered list of metadata operations in one transaction. Each
+ * operation gets its own result, failed operations report their errno and do
+ * not stop the batch.
+ *
+ * An operation that fails with a repository exception spoils the shared
+ * transaction. The batch is then rolled back and every operation runs again
+ * in a transaction of its own, so the results still show which one failed.
+ */
+public class BatchResource extends AbstractIOResource {
+	protected static final String PARAM_OPS = "ops";
+	protected static final String PARAM_OP = "op";
+
+	protected static final String OP_STAT = "stat";
+	protected static final String OP_CREATE = "create";
+	protected static final String OP_UTIMENS = "utimens";
+	protected static final String OP_SETXATTR = "setxattr";
+	protected static final String OP_RENAME = "rename";
+	protected static final String OP_UNLINK = "unlink";
+	protected static final String OP_RMDIR = "rmdir";
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void doPost(WebScriptRequest req, WebScriptResponse res)
+			throws IOException, JSONException {
+		res.setContentType(JSON_MIMETYPE);
+		res.setContentEncoding(DEFAULT_ENCODING);
+		res.setStatus(Status.STATUS_OK);
+
+		// the body must be an object with a base and a list of op objects
+		Object json = JSONValue.parse(req.getContent().getContent());
+		if (!(json instanceof Map)) {
+			sendError(res, "invalid batch", ERROR_INVAL);
+			return;
+		}
+		Map<String, Object> jsonParam = (Map<String, Object>) json;
+		Object baseParam = jsonParam.get(PARAM_BASE);
+		Object opsParam = jsonParam.get(PARAM_OPS);
+		if (!(baseParam instanceof String) || !(opsParam instanceof List)) {
+			sendError(res, "invalid batch", ERROR_INVAL);
+			return;
+		}
+		for (Object op : (List<Object>) opsParam) {
+			if (!(op instanceof Map)) {
+				sendError(res, "invalid batch op", ERROR_INVAL);
+				return;
+			}
+		}
+
+		final String base = (String) baseParam;
+		final List<Map<String, Object>> ops = (List<Map<String, Object>>) opsParam;
+
+		if (StringUtils.isBlank(base)) {
+			sendError(res, "garbage in garbage out", ERROR_IO);
+			return;
+		}
+
+		List<Map<String, Object>> results;
+		try {
+			results = serviceRegistry.getTransactionService()
+					.getRetryingTransactionHelper().doInTransaction(
+							new RetryingTransactionCallback<List<Map<String, Object>>>() {
+								@Override
+								public List<Map<String, Object>> execute()
+										throws Throwable {
+									List<Map<String, Object>> results = new ArrayList<Map<String, Object>>(
+											ops.size());
+									for (Map<String, Object> op : ops) {
+										results.add(executeOp(base, op));
+									}
+									return results;
+								}
+							}, false, true);
+		} catch (RuntimeException e) {
+			results = new ArrayList<Map<String, Object>>(ops.size());
+			for (Map<String, Object> op : ops) {
+				results.add(executeAlone(base, op));
+			}
+		}
+
+		// written after commit, so a retried transaction is not seen twice
+		Map<String, Object> jsonResponse = new HashMap<String, Object>();
+		jsonResponse.put("results", results);
+		JSONValue.writeJSONString(jsonResponse, res.getWriter());
+	}
+
+	/**
+	 * Runs the operation in its own transaction and maps a repository
+	 * exception of it or its commit to an errno.
+	 */
+	private Map<String, Object> executeAlone(final String base,
+			final Map<String, Object> op) {
+		try {
+			return serviceRegistry.getTransactionService()
+					.getRetryingTransactionHelper().doInTransaction(
+							new RetryingTransactionCallback<Map<String, Object>>() {
+								@Override
+								public Map<String, Object> execute()
+										throws Throwable {
+									return executeOp(base, op);
+								}
+							}, false, true);
+		} catch (RuntimeException e) {
+			Map<String, Object> result = new HashMap<String, Object>();
+			result.put(PARAM_OP, getString(op, PARAM_OP));
+			result.put("errno", toErrno(e));
+			result.put("message", e.getMessage());
+			return result;
+		}
+	}
+
+	private Map<String, Object> executeOp(String base, Map<String, Object> op) {
+		Map<String, Object> result = new HashMap<String, Object>();
+		String name = getString(op, PARAM_OP);
+		String path = getString(op, PARAM_PATH);
+		String uuid = getString(op, PARAM_UUID);
+		result.put(PARAM_OP, name);
+
+		try {
+			if (StringUtils.isBlank(path) && StringUtils.isBlank(uuid)) {
+				throw new IOResourceException("garbage in garbage out",
+						ERROR_IO);
+			}
+
+			if (OP_CREATE.equals(name)) {
+				FileInfo finfo = createNode(base, path,
+						getString(op, PARAM_TYPE));
+				result.put("nodeRef", finfo.getNodeRef().toString());
+				result.put("uuid", finfo.getNodeRef().getId());
+				return result;
+			}
+
+			NodeRef nodeRef = locateNode(base, path, uuid);
+			if (nodeRef == null) {
+				throw new IOResourceException("no such file or directory",
+						ERROR_NOENT, Status.STATUS_NOT_FOUND);
+			}
+
+			if (OP_STAT.equals(name)) {
+				result.put("stat", marshalStat(serviceRegistry
+						.getFileFolderService().getFileInfo(nodeRef)));
+			} else if (OP_UTIMENS.equals(name)) {
+				long mtime = parseTimespec(getString(op, PARAM_MTIME_SEC),
+						getString(op, PARAM_MTIME_NSEC));
+				if (mtime > 0) {
+					Date modDate = new Date(mtime);
+					setModified(nodeRef, modDate);
+					result.put("cm:modified", ISO8601DateFormat.format(modDate));
+				}
+			} else if (OP_SETXATTR.equals(name)) {
+				String key = getString(op, PARAM_KEY);
+				if (StringUtils.isBlank(key)) {
+					throw new IOResourceException("garbage in garbage out",
+							ERROR_IO);
+				}
+				setAttribute(nodeRef, key, getString(op, PARAM_VALUE),
+						parseXAttributeMode(getString(op, PARAM_MODE)));
+			} else if (OP_RENAME.equals(name)) {
+				String newpath = getString(op, PARAM_NEWPATH);
+				if (StringUtils.isBlank(newpath)) {
+					throw new IOResourceException("garbage in garbage out",
+							ERROR_IO);
+				}
+				renameNode(base, nodeRef, newpath);
+			} else if (OP_UNLINK.equals(name)) {
+				unlinkNode(nodeRef);
+			} else if (OP_RMDIR.equals(name)) {
+				removeDirectory(nodeRef);
+			} else {
+				throw new IOResourceException("operation not supported",
+						ERROR_NOTSUP);
+			}
+		} catch (IOResourceException e) {
+			result.put("errno", e.getErrno());
+			result.put("message", e.getMessage());
+		}
+		return result;
+	}
+
+	private String getString(Map<String, Object> op, String key) {
+		Object value = op.get(key);
+		return value != null ? value.toString() : null;
+	}
+}
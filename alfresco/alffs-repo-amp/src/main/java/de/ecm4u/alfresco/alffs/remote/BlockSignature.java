@@ -0,0 +1,118 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * rsync style block signatures of a content: a rolling weak checksum and a
+ * strong md5 digest for every block. The last block may be shorter.
+ */
+public class BlockSignature {
+	private static final int DIGEST_LENGTH = 16;
+
+	private final int blockSize;
+	private final long size;
+	private final int blockCount;
+	private final int[] weak;
+	// the md5 digests of all blocks one after the other
+	private final byte[] strong;
+
+	private BlockSignature(int blockSize, long size, int blockCount,
+			int[] weak, byte[] strong) {
+		this.blockSize = blockSize;
+		this.size = size;
+		this.blockCount = blockCount;
+		this.weak = weak;
+		this.strong = strong;
+	}
+
+	/**
+	 * Computes the signature of the channel, expectedSize sizes the arrays
+	 * and they only grow if the content is longer.
+	 */
+	public static BlockSignature compute(ReadableByteChannel channel,
+			int blockSize, long expectedSize) throws IOException {
+		MessageDigest md5;
+		try {
+			md5 = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		int capacity = (int) Math.max(1, Math.min(Integer.MAX_VALUE
+				/ DIGEST_LENGTH, (expectedSize + blockSize - 1) / blockSize));
+		int[] weak = new int[capacity];
+		byte[] strong = new byte[capacity * DIGEST_LENGTH];
+		int blockCount = 0;
+		ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+		long size = 0;
+		boolean eof = false;
+		while (!eof) {
+			buffer.clear();
+			// fill a whole block unless the content ends
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					eof = true;
+					break;
+				}
+			}
+			int length = buffer.position();
+			if (length == 0) {
+				break;
+			}
+			if (blockCount == weak.length) {
+				weak = Arrays.copyOf(weak, blockCount * 2);
+				strong = Arrays.copyOf(strong, blockCount * 2 * DIGEST_LENGTH);
+			}
+			size += length;
+			weak[blockCount] = weakChecksum(buffer.array(), 0, length);
+			md5.update(buffer.array(), 0, length);
+			try {
+				md5.digest(strong, blockCount * DIGEST_LENGTH, DIGEST_LENGTH);
+			} catch (DigestException e) {
+				throw new RuntimeException(e);
+			}
+			blockCount++;
+		}
+		return new BlockSignature(blockSize, size, blockCount, weak, strong);
+	}
+
+	/**
+	 * The rsync rolling checksum, a in the low and b in the high 16 bits.
+	 */
+	public static int weakChecksum(byte[] data, int offset, int length) {
+		int a = 0;
+		int b = 0;
+		for (int i = 0; i < length; i++) {
+			int value = data[offset + i] & 0xff;
+			a += value;
+			b += (length - i) * value;
+		}
+		return (a & 0xffff) | ((b & 0xffff) << 16);
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public int getBlockCount() {
+		return blockCount;
+	}
+
+	public int getWeak(int block) {
+		return weak[block];
+	}
+
+	public byte[] getStrong(int block) {
+		return Arrays.copyOfRange(strong, block * DIGEST_LENGTH, (block + 1)
+				* DIGEST_LENGTH);
+	}
+}
@@ -0,0 +1,146 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * CBOR (RFC 7049) output. Objects and arrays opened by the writer have
+ * indefinite length, maps and collections given as values are written with
+ * their length.
+ */
+public class CborResponseWriter extends ResponseWriter {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int MAJOR_UNSIGNED = 0;
+	private static final int MAJOR_NEGATIVE = 1;
+	private static final int MAJOR_TEXT = 3;
+	private static final int MAJOR_ARRAY = 4;
+	private static final int MAJOR_MAP = 5;
+
+	private static final int INDEFINITE = 31;
+	private static final int FALSE = 0xf4;
+	private static final int TRUE = 0xf5;
+	private static final int NULL = 0xf6;
+	private static final int DOUBLE = 0xfb;
+	private static final int BREAK = 0xff;
+
+	private final OutputStream out;
+	private final byte[] buffer = new byte[9];
+
+	public CborResponseWriter(OutputStream out) {
+		this.out = out;
+	}
+
+	@Override
+	public ResponseWriter beginObject() throws IOException {
+		out.write((MAJOR_MAP << 5) | INDEFINITE);
+		return this;
+	}
+
+	@Override
+	public ResponseWriter beginArray() throws IOException {
+		out.write((MAJOR_ARRAY << 5) | INDEFINITE);
+		return this;
+	}
+
+	@Override
+	public ResponseWriter end() throws IOException {
+		out.write(BREAK);
+		return this;
+	}
+
+	@Override
+	public ResponseWriter name(String name) throws IOException {
+		writeText(name);
+		return this;
+	}
+
+	@Override
+	public ResponseWriter value(Object value) throws IOException {
+		if (value == null) {
+			out.write(NULL);
+		} else if (value instanceof String) {
+			writeText((String) value);
+		} else if (value instanceof Boolean) {
+			out.write(((Boolean) value).booleanValue() ? TRUE : FALSE);
+		} else if (value instanceof Double || value instanceof Float) {
+			writeDouble(((Number) value).doubleValue());
+		} else if (value instanceof Number) {
+			long number = ((Number) value).longValue();
+			if (number >= 0) {
+				writeHeader(MAJOR_UNSIGNED, number);
+			} else {
+				writeHeader(MAJOR_NEGATIVE, -1 - number);
+			}
+		} else if (value instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			writeHeader(MAJOR_MAP, map.size());
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				writeText(String.valueOf(entry.getKey()));
+				value(entry.getValue());
+			}
+		} else if (value instanceof Collection) {
+			Collection<?> list = (Collection<?>) value;
+			writeHeader(MAJOR_ARRAY, list.size());
+			for (Object item : list) {
+				value(item);
+			}
+		} else {
+			writeText(value.toString());
+		}
+		return this;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	private void writeText(String text) throws IOException {
+		byte[] bytes = text.getBytes(UTF8);
+		writeHeader(MAJOR_TEXT, bytes.length);
+		out.write(bytes);
+	}
+
+	private void writeDouble(double value) throws IOException {
+		buffer[0] = (byte) DOUBLE;
+		writeLong(Double.doubleToLongBits(value), 1, 8);
+		out.write(buffer, 0, 9);
+	}
+
+	/**
+	 * Initial byte and argument in the shortest form.
+	 */
+	private void writeHeader(int major, long argument) throws IOException {
+		int type = major << 5;
+		if (argument < 24) {
+			out.write(type | (int) argument);
+		} else if (argument <= 0xffL) {
+			buffer[0] = (byte) (type | 24);
+			writeLong(argument, 1, 1);
+			out.write(buffer, 0, 2);
+		} else if (argument <= 0xffffL) {
+			buffer[0] = (byte) (type | 25);
+			writeLong(argument, 1, 2);
+			out.write(buffer, 0, 3);
+		} else if (argument <= 0xffffffffL) {
+			buffer[0] = (byte) (type | 26);
+			writeLong(argument, 1, 4);
+			out.write(buffer, 0, 5);
+		} else {
+			buffer[0] = (byte) (type | 27);
+			writeLong(argument, 1, 8);
+			out.write(buffer, 0, 9);
+		}
+	}
+
+	private void writeLong(long value, int offset, int length) {
+		for (int i = length - 1; i >= 0; i--) {
+			buffer[offset + i] = (byte) value;
+			value >>>= 8;
+		}
+	}
+}
@@ -0,0 +1,357 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.content.ContentServicePolicies.OnContentUpdatePolicy;
+import org.alfresco.repo.node.NodeServicePolicies.BeforeDeleteNodePolicy;
+import org.alfresco.repo.node.NodeServicePolicies.OnCreateNodePolicy;
+import org.alfresco.repo.node.NodeServicePolicies.OnMoveNodePolicy;
+import org.alfresco.repo.node.NodeServicePolicies.OnUpdatePropertiesPolicy;
+import org.alfresco.repo.policy.Behaviour.NotificationFrequency;
+import org.alfresco.repo.policy.JavaBehaviour;
+import org.alfresco.repo.policy.PolicyComponent;
+import org.alfresco.repo.tenant.TenantUtil;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.namespace.QName;
+
+/**
+ * Node changes of this server in a bounded ring buffer. Events are collected
+ * by node policies and published with increasing sequence numbers when their
+ * transaction commits, so a client can resume from the last seen sequence.
+ *
+ * Every event carries the ids of the primary ancestors of the node at the time
+ * of the change (and of the old location for moves), which is enough to filter
+ * a subtree without touching the repository. The feed only sees changes made
+ * on this server, clients of a cluster have to follow every node.
+ *
+ * A recursive create or delete, like a copy or delete of a tree, is published
+ * as one event of the subtree root: events below a node created or deleted
+ * in the same transaction are dropped.
+ *
+ * Sequences start at 1 again with every start of the server. They are only
+ * meaningful together with the epoch, a random id of the start, and a client
+ * with a sequence of another epoch has to forget everything it cached.
+ */
+public class ChangeFeed implements OnCreateNodePolicy, BeforeDeleteNodePolicy,
+		OnMoveNodePolicy, OnContentUpdatePolicy, OnUpdatePropertiesPolicy {
+	public static final String TYPE_CREATED = "created";
+	public static final String TYPE_DELETED = "deleted";
+	public static final String TYPE_MOVED = "moved";
+	public static final String TYPE_CONTENT = "content";
+	public static final String TYPE_PROPERTIES = "properties";
+
+	private static final String RESOURCE_KEY = ChangeFeed.class.getName();
+
+	private ServiceRegistry serviceRegistry;
+	private PolicyComponent policyComponent;
+	private int capacity = 10000;
+
+	private Event[] ring;
+	private String epoch;
+	// sequence of the next published event, the first event gets 1
+	private long nextSeq = 1;
+	private final Object lock = new Object();
+
+	public static class Event {
+		private long seq;
+		private final String type;
+		private final String tenant;
+		private final NodeRef nodeRef;
+		private final NodeRef parentRef;
+		private final NodeRef oldParentRef;
+		private final String name;
+		private final Collection<String> ancestors;
+		private final long time;
+
+		Event(String type, NodeRef nodeRef, NodeRef parentRef,
+				NodeRef oldParentRef, String name, Collection<String> ancestors) {
+			this.type = type;
+			this.tenant = TenantUtil.getCurrentDomain();
+			this.nodeRef = nodeRef;
+			this.parentRef = parentRef;
+			this.oldParentRef = oldParentRef;
+			this.name = name;
+			this.ancestors = ancestors;
+			this.time = System.currentTimeMillis();
+		}
+
+		public long getSeq() {
+			return seq;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public String getTenant() {
+			return tenant;
+		}
+
+		public NodeRef getNodeRef() {
+			return nodeRef;
+		}
+
+		public NodeRef getParentRef() {
+			return parentRef;
+		}
+
+		public NodeRef getOldParentRef() {
+			return oldParentRef;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * True if the node is the root or below the root, by node id.
+		 */
+		public boolean isBelow(String rootId) {
+			return ancestors.contains(rootId);
+		}
+	}
+
+	/**
+	 * Events of one transaction, published after commit.
+	 */
+	private class PendingEvents extends TransactionListenerAdapter {
+		// one event per node and type, the last one wins
+		private final Map<String, Event> events = new LinkedHashMap<String, Event>();
+		// ids of the nodes created or deleted by the transaction
+		private final Set<String> subtreeRoots = new HashSet<String>();
+		// ancestor ids by node, shared by the events below the same folder
+		private final Map<NodeRef, List<String>> chains = new HashMap<NodeRef, List<String>>();
+
+		void add(Event event) {
+			String key = event.getType() + "|" + event.getNodeRef();
+			events.remove(key);
+			events.put(key, event);
+			if (TYPE_CREATED.equals(event.getType())
+					|| TYPE_DELETED.equals(event.getType())) {
+				subtreeRoots.add(event.getNodeRef().getId());
+			}
+		}
+
+		/**
+		 * True if an ancestor of the node is created or deleted by the
+		 * transaction, its event covers the node.
+		 */
+		boolean isCovered(List<String> ancestors) {
+			for (int i = 1; i < ancestors.size(); i++) {
+				if (subtreeRoots.contains(ancestors.get(i))) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public void afterCommit() {
+			publish(events.values());
+		}
+	}
+
+	public void init() {
+		ring = new Event[capacity];
+		epoch = UUID.randomUUID().toString();
+		policyComponent.bindClassBehaviour(OnCreateNodePolicy.QNAME,
+				ContentModel.TYPE_CMOBJECT, new JavaBehaviour(this,
+						"onCreateNode", NotificationFrequency.EVERY_EVENT));
+		policyComponent.bindClassBehaviour(BeforeDeleteNodePolicy.QNAME,
+				ContentModel.TYPE_CMOBJECT, new JavaBehaviour(this,
+						"beforeDeleteNode", NotificationFrequency.EVERY_EVENT));
+		policyComponent.bindClassBehaviour(OnMoveNodePolicy.QNAME,
+				ContentModel.TYPE_CMOBJECT, new JavaBehaviour(this,
+						"onMoveNode", NotificationFrequency.EVERY_EVENT));
+		policyComponent.bindClassBehaviour(OnContentUpdatePolicy.QNAME,
+				ContentModel.TYPE_CMOBJECT, new JavaBehaviour(this,
+						"onContentUpdate", NotificationFrequency.EVERY_EVENT));
+		policyComponent.bindClassBehaviour(OnUpdatePropertiesPolicy.QNAME,
+				ContentModel.TYPE_CMOBJECT, new JavaBehaviour(this,
+						"onUpdateProperties", NotificationFrequency.EVERY_EVENT));
+	}
+
+	/**
+	 * Id of this start of the server, sequences of other epochs are void.
+	 */
+	public String getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * Sequence of the last published event, 0 if there is none.
+	 */
+	public long getHeadSeq() {
+		synchronized (lock) {
+			return nextSeq - 1;
+		}
+	}
+
+	/**
+	 * Returns the events after since, waiting up to timeoutMillis for the
+	 * first one. Returns null if since is of another epoch, ahead of the head
+	 * or events after it were already dropped from the ring, the client has
+	 * to forget everything it cached.
+	 */
+	public List<Event> await(String sinceEpoch, long since,
+			long timeoutMillis, int max) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (lock) {
+			if (!epoch.equals(sinceEpoch) || since > nextSeq - 1) {
+				return null;
+			}
+			while (nextSeq - 1 <= since) {
+				long wait = deadline - System.currentTimeMillis();
+				if (wait <= 0) {
+					return Collections.emptyList();
+				}
+				lock.wait(wait);
+			}
+			long oldest = Math.max(1, nextSeq - capacity);
+			if (since + 1 < oldest) {
+				return null;
+			}
+			int count = (int) Math.min(max, nextSeq - 1 - since);
+			List<Event> events = new ArrayList<Event>(count);
+			for (long seq = since + 1; seq < since + 1 + count; seq++) {
+				events.add(ring[(int) (seq % capacity)]);
+			}
+			return events;
+		}
+	}
+
+	private void publish(Collection<Event> events) {
+		synchronized (lock) {
+			for (Event event : events) {
+				event.seq = nextSeq;
+				ring[(int) (nextSeq % capacity)] = event;
+				nextSeq++;
+			}
+			lock.notifyAll();
+		}
+	}
+
+	private void record(String type, NodeRef nodeRef, NodeRef parentRef,
+			NodeRef oldParentRef) {
+		PendingEvents pending = (PendingEvents) AlfrescoTransactionSupport
+				.getResource(RESOURCE_KEY);
+		if (pending == null) {
+			pending = new PendingEvents();
+			AlfrescoTransactionSupport.bindResource(RESOURCE_KEY, pending);
+			AlfrescoTransactionSupport.bindListener(pending);
+		}
+		if (TYPE_MOVED.equals(type)) {
+			// the chains below the moved node are stale now
+			pending.chains.clear();
+		}
+
+		List<String> ancestors = new ArrayList<String>();
+		ancestors.add(nodeRef.getId());
+		addAncestors(ancestors, parentRef, pending.chains);
+		if (pending.isCovered(ancestors)) {
+			return;
+		}
+		if (oldParentRef != null) {
+			addAncestors(ancestors, oldParentRef, pending.chains);
+		}
+		String name = (String) serviceRegistry.getNodeService().getProperty(
+				nodeRef, ContentModel.PROP_NAME);
+		pending.add(new Event(type, nodeRef, parentRef, oldParentRef, name,
+				ancestors));
+	}
+
+	/**
+	 * Adds the ids of the node and its primary ancestors. Chains already
+	 * walked in the transaction are reused.
+	 */
+	private void addAncestors(List<String> ancestors, NodeRef nodeRef,
+			Map<NodeRef, List<String>> chains) {
+		if (nodeRef == null) {
+			return;
+		}
+		List<String> chain = chains.get(nodeRef);
+		if (chain == null) {
+			chain = new ArrayList<String>();
+			chain.add(nodeRef.getId());
+			ChildAssociationRef parent = serviceRegistry.getNodeService()
+					.getPrimaryParent(nodeRef);
+			if (parent != null) {
+				addAncestors(chain, parent.getParentRef(), chains);
+			}
+			chains.put(nodeRef, chain);
+		}
+		ancestors.addAll(chain);
+	}
+
+	private NodeRef getParent(NodeRef nodeRef) {
+		ChildAssociationRef parent = serviceRegistry.getNodeService()
+				.getPrimaryParent(nodeRef);
+		return parent != null ? parent.getParentRef() : null;
+	}
+
+	@Override
+	public void onCreateNode(ChildAssociationRef childAssocRef) {
+		record(TYPE_CREATED, childAssocRef.getChildRef(),
+				childAssocRef.getParentRef(), null);
+	}
+
+	@Override
+	public void beforeDeleteNode(NodeRef nodeRef) {
+		record(TYPE_DELETED, nodeRef, getParent(nodeRef), null);
+	}
+
+	@Override
+	public void onMoveNode(ChildAssociationRef oldChildAssocRef,
+			ChildAssociationRef newChildAssocRef) {
+		record(TYPE_MOVED, newChildAssocRef.getChildRef(),
+				newChildAssocRef.getParentRef(),
+				oldChildAssocRef.getParentRef());
+	}
+
+	@Override
+	public void onContentUpdate(NodeRef nodeRef, boolean newContent) {
+		if (serviceRegistry.getNodeService().exists(nodeRef)) {
+			record(TYPE_CONTENT, nodeRef, getParent(nodeRef), null);
+		}
+	}
+
+	@Override
+	public void onUpdateProperties(NodeRef nodeRef,
+			Map<QName, Serializable> before, Map<QName, Serializable> after) {
+		// properties of a new node are part of its created event
+		if (!before.isEmpty() && serviceRegistry.getNodeService().exists(nodeRef)) {
+			record(TYPE_PROPERTIES, nodeRef, getParent(nodeRef), null);
+		}
+	}
+
+	public void setServiceRegistry(ServiceRegistry serviceRegistry) {
+		this.serviceRegistry = serviceRegistry;
+	}
+
+	public void setPolicyComponent(PolicyComponent policyComponent) {
+		this.policyComponent = policyComponent;
+	}
+
+	public void setCapacity(int capacity) {
+		this.capacity = capacity;
+	}
+}
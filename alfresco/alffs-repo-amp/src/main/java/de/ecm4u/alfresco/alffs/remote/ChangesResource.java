@@ -0,0 +1,272 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.alfresco.repo.tenant.TenantUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.apache.commons.lang.StringUtils;
+import org.json.JSONException;
+import org.json.simple.JSONValue;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+/**
+ * Change events of a subtree from the {@link ChangeFeed}. Without since only
+ * the current epoch and sequence are returned. With since and the epoch it
+ * was returned with the request waits up to timeout seconds for events (long
+ * poll), or streams them as server sent events when the client accepts
+ * text/event-stream. A since of another epoch, like one from before a
+ * restart, is answered with a reset.
+ *
+ * Runs without a transaction, the repository is only touched in short read
+ * only transactions around the wait.
+ *
+ * A waiting request holds a request thread of the servlet container for up
+ * to timeout seconds. At most maxWaiters requests wait at the same time,
+ * further waiting requests get EAGAIN with 503 and should poll later.
+ */
+public class ChangesResource extends AbstractIOResource {
+	protected static final String PARAM_SINCE = "since";
+	protected static final String PARAM_EPOCH = "epoch";
+	protected static final String PARAM_TIMEOUT = "timeout";
+
+	protected static final String EVENT_STREAM_MIMETYPE = "text/event-stream";
+
+	private static final long MAX_TIMEOUT_SEC = 60;
+	private static final int DEFAULT_MAX = 1000;
+	// comment line sent on an idle event stream
+	private static final long KEEPALIVE_MILLIS = 30L * 1000L;
+
+	private ChangeFeed changeFeed;
+	private int maxWaiters = 50;
+	private final AtomicInteger waiters = new AtomicInteger();
+
+	@Override
+	public void doGet(final WebScriptRequest req, WebScriptResponse res)
+			throws IOException, JSONException {
+		res.setContentType(JSON_MIMETYPE);
+		res.setContentEncoding(DEFAULT_ENCODING);
+		res.setStatus(Status.STATUS_OK);
+
+		final String base = req.getParameter(PARAM_BASE);
+		final String path = req.getParameter(PARAM_PATH);
+		final String uuid = req.getParameter(PARAM_UUID);
+		String sinceStr = req.getParameter(PARAM_SINCE);
+		String epoch = req.getParameter(PARAM_EPOCH);
+		String timeoutStr = req.getParameter(PARAM_TIMEOUT);
+		String maxStr = req.getParameter(PARAM_MAX);
+		String accept = req.getHeader(HEADER_ACCEPT);
+
+		// without path and uuid all changes of the tenant are returned
+		NodeRef root = null;
+		if (StringUtils.isNotBlank(path) || StringUtils.isNotBlank(uuid)) {
+			if (StringUtils.isBlank(base)) {
+				sendError(res, "garbage in garbage out", ERROR_IO);
+				return;
+			}
+			root = serviceRegistry.getTransactionService()
+					.getRetryingTransactionHelper().doInTransaction(
+							new RetryingTransactionCallback<NodeRef>() {
+								@Override
+								public NodeRef execute() throws Throwable {
+									return locateNode(base, path, uuid);
+								}
+							}, true);
+			if (root == null) {
+				sendError(res, "no such file or directory", ERROR_NOENT,
+						Status.STATUS_NOT_FOUND);
+				return;
+			}
+		}
+
+		if (StringUtils.isBlank(sinceStr)) {
+			Map<String, Object> jsonResponse = new HashMap<String, Object>();
+			jsonResponse.put("epoch", changeFeed.getEpoch());
+			jsonResponse.put("seq", Long.valueOf(changeFeed.getHeadSeq()));
+			JSONValue.writeJSONString(jsonResponse, res.getWriter());
+			return;
+		}
+
+		long since;
+		long timeoutSec = 0;
+		int max = DEFAULT_MAX;
+		try {
+			since = Long.parseLong(sinceStr);
+			if (StringUtils.isNotBlank(timeoutStr)) {
+				timeoutSec = Math.max(0,
+						Math.min(MAX_TIMEOUT_SEC, Long.parseLong(timeoutStr)));
+			}
+			if (StringUtils.isNotBlank(maxStr)) {
+				max = Math.max(1, Integer.parseInt(maxStr));
+			}
+		} catch (NumberFormatException e) {
+			sendError(res, "invalid since, timeout or max", ERROR_INVAL);
+			return;
+		}
+		long deadline = System.currentTimeMillis() + timeoutSec * 1000L;
+
+		boolean waiting = timeoutSec > 0;
+		if (waiting && waiters.incrementAndGet() > maxWaiters) {
+			waiters.decrementAndGet();
+			sendError(res, "too many waiting requests", ERROR_AGAIN,
+					Status.STATUS_SERVICE_UNAVAILABLE);
+			return;
+		}
+		try {
+			if (accept != null && accept.contains(EVENT_STREAM_MIMETYPE)) {
+				res.setContentType(EVENT_STREAM_MIMETYPE);
+				stream(res, root, epoch, since, max, deadline);
+			} else {
+				poll(res, root, epoch, since, max, deadline);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (waiting) {
+				waiters.decrementAndGet();
+			}
+		}
+	}
+
+	private void poll(WebScriptResponse res, NodeRef root, String epoch,
+			long since, int max, long deadline) throws IOException,
+			InterruptedException {
+		Map<String, Object> jsonResponse = new HashMap<String, Object>();
+		List<Map<String, Object>> events = new ArrayList<Map<String, Object>>();
+		// events of other subtrees or unreadable nodes move since forward
+		// but do not end the wait
+		do {
+			List<ChangeFeed.Event> page = changeFeed.await(epoch, since,
+					Math.max(0, deadline - System.currentTimeMillis()), max);
+			if (page == null) {
+				jsonResponse.put("reset", Boolean.TRUE);
+				since = changeFeed.getHeadSeq();
+				break;
+			}
+			if (page.isEmpty()) {
+				break;
+			}
+			since = page.get(page.size() - 1).getSeq();
+			events.addAll(filter(page, root));
+		} while (events.isEmpty() && System.currentTimeMillis() < deadline);
+
+		jsonResponse.put("epoch", changeFeed.getEpoch());
+		jsonResponse.put("seq", Long.valueOf(since));
+		jsonResponse.put("events", events);
+		JSONValue.writeJSONString(jsonResponse, res.getWriter());
+	}
+
+	private void stream(WebScriptResponse res, NodeRef root, String epoch,
+			long since, int max, long deadline) throws IOException,
+			InterruptedException {
+		Writer out = res.getWriter();
+		long now;
+		while ((now = System.currentTimeMillis()) < deadline) {
+			List<ChangeFeed.Event> page = changeFeed.await(epoch, since,
+					Math.min(KEEPALIVE_MILLIS, deadline - now), max);
+			if (page == null) {
+				epoch = changeFeed.getEpoch();
+				since = changeFeed.getHeadSeq();
+				out.write("id: " + since + "\nevent: reset\ndata: ");
+				JSONValue.writeJSONString(
+						Collections.singletonMap("epoch", epoch), out);
+				out.write("\n\n");
+			} else if (page.isEmpty()) {
+				out.write(": keepalive\n\n");
+			} else {
+				since = page.get(page.size() - 1).getSeq();
+				for (Map<String, Object> event : filter(page, root)) {
+					out.write("id: " + event.get("seq") + "\nevent: "
+							+ event.get("type") + "\ndata: ");
+					JSONValue.writeJSONString(event, out);
+					out.write("\n\n");
+				}
+			}
+			out.flush();
+		}
+	}
+
+	/**
+	 * Drops events of other tenants and subtrees and of nodes the user can
+	 * not read. Deleted nodes are checked by their parent.
+	 */
+	private List<Map<String, Object>> filter(final List<ChangeFeed.Event> page,
+			NodeRef root) {
+		final String tenant = TenantUtil.getCurrentDomain();
+		final List<ChangeFeed.Event> candidates = new ArrayList<ChangeFeed.Event>(
+				page.size());
+		for (ChangeFeed.Event event : page) {
+			if (tenant.equals(event.getTenant())
+					&& (root == null || event.isBelow(root.getId()))) {
+				candidates.add(event);
+			}
+		}
+		if (candidates.isEmpty()) {
+			return new ArrayList<Map<String, Object>>();
+		}
+		return serviceRegistry.getTransactionService()
+				.getRetryingTransactionHelper().doInTransaction(
+						new RetryingTransactionCallback<List<Map<String, Object>>>() {
+							@Override
+							public List<Map<String, Object>> execute()
+									throws Throwable {
+								List<Map<String, Object>> events = new ArrayList<Map<String, Object>>(
+										candidates.size());
+								for (ChangeFeed.Event event : candidates) {
+									if (canRead(event)) {
+										events.add(marshalEvent(event));
+									}
+								}
+								return events;
+							}
+						}, true);
+	}
+
+	private boolean canRead(ChangeFeed.Event event) {
+		NodeRef check = event.getNodeRef();
+		if (!serviceRegistry.getNodeService().exists(check)) {
+			check = event.getParentRef();
+		}
+		if (check == null || !serviceRegistry.getNodeService().exists(check)) {
+			return false;
+		}
+		return serviceRegistry.getPermissionService().hasPermission(check,
+				PermissionService.READ) == AccessStatus.ALLOWED;
+	}
+
+	private Map<String, Object> marshalEvent(ChangeFeed.Event event) {
+		Map<String, Object> ev = new HashMap<String, Object>();
+		ev.put("seq", Long.valueOf(event.getSeq()));
+		ev.put("type", event.getType());
+		ev.put("uuid", event.getNodeRef().getId());
+		ev.put("name", event.getName());
+		if (event.getParentRef() != null) {
+			ev.put("parent", event.getParentRef().getId());
+		}
+		if (event.getOldParentRef() != null) {
+			ev.put("oldParent", event.getOldParentRef().getId());
+		}
+		ev.put("time", formatIsoUTC(new Date(event.getTime())));
+		return ev;
+	}
+
+	public void setChangeFeed(ChangeFeed changeFeed) {
+		this.changeFeed = changeFeed;
+	}
+
+	public void setMaxWaiters(int maxWaiters) {
+		this.maxWaiters = maxWaiters;
+	}
+}
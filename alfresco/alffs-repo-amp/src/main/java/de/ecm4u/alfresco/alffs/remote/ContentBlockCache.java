@@ -0,0 +1,352 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.repository.ContentReader;
+
+/**
+ * Off heap cache of fixed size content blocks for small reads, keyed by
+ * content url. Content urls are never written twice, so blocks never get
+ * stale and are only dropped by the lru.
+ *
+ * The memory is a pool of direct buffers of blockSize each, allocated on
+ * demand up to maxBytes. The cached blocks and the buffers that reads are
+ * sent from both come from the pool, so no more than maxBytes are ever
+ * allocated. A read that finds no buffer, when all are in use by other
+ * reads, is not served by the cache. Blocks are copied out with the cache
+ * lock held, so a buffer is never reused while it is read.
+ *
+ * A read that starts where the last read of the same content by the same
+ * client ended counts as sequential and the next prefetchBlocks blocks are
+ * loaded in the background.
+ */
+public class ContentBlockCache {
+	private ServiceRegistry serviceRegistry;
+	private int blockSize = 128 * 1024;
+	private long maxBytes = 64L * 1024L * 1024L;
+	// larger windows are not worth caching and go to the content store
+	private int maxWindowBlocks = 4;
+	private int prefetchBlocks = 4;
+	private int prefetchThreads = 2;
+
+	private Blocks blocks;
+	private final Deque<ByteBuffer> free = new ArrayDeque<ByteBuffer>();
+	private int maxBlocks;
+	private int allocated;
+	// content url and client -> end of the last read, for sequential detection
+	private LruCache<String, Long> streams;
+	private final Set<String> loading = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private ExecutorService prefetcher;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong prefetched = new AtomicLong();
+
+	private static class Block {
+		private final ByteBuffer buffer;
+		private final int length;
+
+		Block(ByteBuffer buffer, int length) {
+			this.buffer = buffer;
+			this.length = length;
+		}
+	}
+
+	private class Blocks extends LruCache<String, Block> {
+		Blocks(int maxSize) {
+			super(maxSize);
+		}
+
+		@Override
+		protected void onEvict(String key, Block block) {
+			free.push(block.buffer);
+		}
+	}
+
+	public void init() {
+		maxBlocks = (int) Math.max(2, maxBytes / blockSize);
+		blocks = new Blocks(maxBlocks);
+		streams = new LruCache<String, Long>(maxBlocks);
+		prefetcher = Executors.newFixedThreadPool(prefetchThreads,
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "alffs-prefetch-"
+								+ count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * True if a window of this length is served through the cache.
+	 */
+	public boolean isCacheable(long length) {
+		return length <= (long) maxWindowBlocks * blockSize;
+	}
+
+	/**
+	 * Writes length bytes of the content from offset to out. The reader is
+	 * only opened if a block is missing. Returns false without writing
+	 * anything if no buffer is free. The client names the reader of a
+	 * stream, e.g. the user and the remote address.
+	 */
+	public boolean send(ContentReader reader, long offset, long length,
+			String client, WritableByteChannel out) throws IOException {
+		String contentUrl = reader.getContentUrl();
+		long size = reader.getSize();
+		long end = offset + length;
+
+		ByteBuffer buffer = takeBuffer();
+		if (buffer == null) {
+			return false;
+		}
+		FileChannel fch = null;
+		try {
+			for (long index = offset / blockSize; index * blockSize < end; index++) {
+				long blockStart = index * blockSize;
+				int from = (int) (Math.max(offset, blockStart) - blockStart);
+				int to = (int) (Math.min(end, blockStart + blockSize) - blockStart);
+				buffer.clear();
+				if (copyBlock(key(contentUrl, index), from, to, buffer)) {
+					hits.incrementAndGet();
+				} else {
+					misses.incrementAndGet();
+					if (fch == null) {
+						fch = reader.getFileChannel();
+					}
+					loadBlock(fch, contentUrl, index, size, buffer);
+					// a short content sends what there is
+					buffer.limit(Math.min(to, buffer.limit()));
+					buffer.position(Math.min(from, buffer.limit()));
+				}
+				while (buffer.hasRemaining()) {
+					out.write(buffer);
+				}
+			}
+		} finally {
+			releaseBuffer(buffer);
+			if (fch != null) {
+				fch.close();
+			}
+		}
+
+		String stream = contentUrl + "|" + client;
+		Long last = streams.get(stream);
+		streams.put(stream, end);
+		if (last != null && last.longValue() == offset && end < size) {
+			prefetch(contentUrl, end, size);
+		}
+		return true;
+	}
+
+	/**
+	 * Takes a buffer from the pool: a free one, a new one while there are
+	 * fewer than maxBlocks, or the one of the least recently used block.
+	 * Null if all buffers are in use by reads.
+	 */
+	private ByteBuffer takeBuffer() {
+		synchronized (blocks) {
+			ByteBuffer buffer = free.poll();
+			if (buffer == null && allocated < maxBlocks) {
+				buffer = ByteBuffer.allocateDirect(blockSize);
+				allocated++;
+			}
+			if (buffer == null) {
+				Block block = blocks.removeEldest();
+				if (block != null) {
+					buffer = block.buffer;
+				}
+			}
+			return buffer;
+		}
+	}
+
+	private void releaseBuffer(ByteBuffer buffer) {
+		synchronized (blocks) {
+			free.push(buffer);
+		}
+	}
+
+	/**
+	 * Copies the bytes from..to of the cached block into the buffer and
+	 * flips it, false if the block is not cached.
+	 */
+	private boolean copyBlock(String key, int from, int to, ByteBuffer buffer) {
+		synchronized (blocks) {
+			Block block = blocks.get(key);
+			if (block == null || block.length < to) {
+				return false;
+			}
+			ByteBuffer src = block.buffer.duplicate();
+			src.limit(to).position(from);
+			buffer.put(src);
+		}
+		buffer.flip();
+		return true;
+	}
+
+	/**
+	 * Reads a whole block from the channel into the buffer and caches it.
+	 */
+	private void loadBlock(FileChannel fch, String contentUrl, long index,
+			long size, ByteBuffer buffer) throws IOException {
+		long blockStart = index * blockSize;
+		int length = (int) Math.min(blockSize, size - blockStart);
+		buffer.clear().limit(length);
+		while (buffer.hasRemaining()) {
+			if (fch.read(buffer, blockStart + buffer.position()) < 0) {
+				break;
+			}
+		}
+		buffer.flip();
+		if (buffer.limit() < length) {
+			// content shorter than its size, do not cache a short block
+			return;
+		}
+		String key = key(contentUrl, index);
+		synchronized (blocks) {
+			if (blocks.containsKey(key)) {
+				return;
+			}
+			ByteBuffer target = takeBuffer();
+			if (target == null) {
+				return;
+			}
+			target.clear();
+			target.put(buffer.duplicate());
+			blocks.put(key, new Block(target, length));
+		}
+	}
+
+	private void prefetch(final String contentUrl, final long from,
+			final long size) {
+		long first = from / blockSize;
+		long last = Math.min((size - 1) / blockSize, first + prefetchBlocks
+				- 1);
+		for (long index = first; index <= last; index++) {
+			final long start = index;
+			final long stop = last;
+			final String key = key(contentUrl, index);
+			if (blocks.containsKey(key)) {
+				continue;
+			}
+			if (!loading.add(contentUrl)) {
+				// this content is already being prefetched
+				return;
+			}
+			prefetcher.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						AuthenticationUtil.runAsSystem(new RunAsWork<Void>() {
+							@Override
+							public Void doWork() throws Exception {
+								prefetchBlocks(contentUrl, start, stop, size);
+								return null;
+							}
+						});
+					} catch (Exception e) {
+						// the next read loads the block itself
+					} finally {
+						loading.remove(contentUrl);
+					}
+				}
+			});
+			return;
+		}
+	}
+
+	private void prefetchBlocks(String contentUrl, long first, long last,
+			long size) throws IOException {
+		ContentReader reader = serviceRegistry.getContentService()
+				.getRawReader(contentUrl);
+		if (reader == null || !reader.exists()) {
+			return;
+		}
+		ByteBuffer buffer = takeBuffer();
+		if (buffer == null) {
+			return;
+		}
+		FileChannel fch = reader.getFileChannel();
+		try {
+			for (long index = first; index <= last; index++) {
+				if (!blocks.containsKey(key(contentUrl, index))) {
+					loadBlock(fch, contentUrl, index, size, buffer);
+					prefetched.incrementAndGet();
+				}
+			}
+		} finally {
+			releaseBuffer(buffer);
+			fch.close();
+		}
+	}
+
+	private static String key(String contentUrl, long index) {
+		return contentUrl + "#" + index;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getPrefetched() {
+		return prefetched.get();
+	}
+
+	public void destroy() {
+		prefetcher.shutdownNow();
+		synchronized (blocks) {
+			blocks.clear();
+			free.clear();
+		}
+	}
+
+	public void setServiceRegistry(ServiceRegistry serviceRegistry) {
+		this.serviceRegistry = serviceRegistry;
+	}
+
+	public void setBlockSize(int blockSize) {
+		this.blockSize = blockSize;
+	}
+
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public void setMaxWindowBlocks(int maxWindowBlocks) {
+		this.maxWindowBlocks = maxWindowBlocks;
+	}
+
+	public void setPrefetchBlocks(int prefetchBlocks) {
+		this.prefetchBlocks = prefetchBlocks;
+	}
+
+	public void setPrefetchThreads(int prefetchThreads) {
+		this.prefetchThreads = prefetchThreads;
+	}
+}
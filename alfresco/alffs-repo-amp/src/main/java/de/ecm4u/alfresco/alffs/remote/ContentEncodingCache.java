@@ -0,0 +1,333 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.util.TempFileProvider;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Content encodings of read responses. Picks gzip or deflate from the
+ * Accept-Encoding of a request unless the mimetype is already compressed,
+ * and keeps compressed copies of whole contents as temp files by content url
+ * and encoding. Content urls are never rewritten, so copies never get stale.
+ * Contents that do not shrink are remembered and sent as they are.
+ *
+ * The copies live in a long life temp dir of their own, which is cleared on
+ * start for copies left by a crash. Should one be deleted anyway, e.g. by a
+ * temp file cleaner, its entry is dropped and the content compressed again.
+ * Copies are evicted by count and by their total size.
+ */
+public class ContentEncodingCache {
+	public static final String GZIP = "gzip";
+	public static final String DEFLATE = "deflate";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// a copy must save at least a tenth to be worth it
+	private static final double MAX_RATIO = 0.9;
+	private static final String DIRECTORY = "alffs-encoded";
+	private static final String FILE_PREFIX = "alffs-encoded-";
+	// magic, deflate, no flags, no mtime, no extra flags, unknown os
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0,
+			0, 0, 0, 0, (byte) 0xff };
+
+	private int maxEntries = 1000;
+	// total size of the copies on disk
+	private long maxBytes = 1024L * 1024L * 1024L;
+	// smaller contents are not worth compressing
+	private long minSize = 1024;
+	// larger whole contents are compressed on the fly instead of cached
+	private long maxCachedSize = 64L * 1024L * 1024L;
+	// mimetypes or mimetype prefixes ending in / or . that are sent as they are
+	private List<String> compressedMimetypes = Collections.emptyList();
+
+	private Entries entries;
+	private File directory;
+	// size of the copies of all entries, guarded by entries
+	private long bytes;
+
+	private static class Entry {
+		// null if the content does not compress
+		private final File file;
+		private final long length;
+
+		Entry(File file) {
+			this.file = file;
+			this.length = file != null ? file.length() : 0;
+		}
+	}
+
+	private class Entries extends LruCache<String, Entry> {
+		Entries(int maxSize) {
+			super(maxSize);
+		}
+
+		@Override
+		protected void onEvict(String key, Entry entry) {
+			onRemove(entry);
+		}
+	}
+
+	/**
+	 * Compressing stream of an encoding. The deflater holds native memory
+	 * until {@link #end()}, which the caller must call in a finally block.
+	 */
+	public static class EncodingOutputStream extends DeflaterOutputStream {
+		// null for deflate
+		private final CRC32 crc;
+
+		EncodingOutputStream(OutputStream out, boolean gzip)
+				throws IOException {
+			super(out, new Deflater(Deflater.DEFAULT_COMPRESSION, gzip),
+					BUFFER_SIZE);
+			if (gzip) {
+				crc = new CRC32();
+				out.write(GZIP_HEADER);
+			} else {
+				crc = null;
+			}
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len)
+				throws IOException {
+			super.write(b, off, len);
+			if (crc != null) {
+				crc.update(b, off, len);
+			}
+		}
+
+		@Override
+		public void finish() throws IOException {
+			if (def.finished()) {
+				return;
+			}
+			super.finish();
+			if (crc != null) {
+				writeInt(crc.getValue());
+				writeInt(def.getBytesRead());
+			}
+		}
+
+		private void writeInt(long value) throws IOException {
+			// gzip trailers are little endian, sizes modulo 2^32
+			out.write((int) value & 0xff);
+			out.write((int) (value >> 8) & 0xff);
+			out.write((int) (value >> 16) & 0xff);
+			out.write((int) (value >> 24) & 0xff);
+		}
+
+		/**
+		 * Releases the deflater, the stream cannot be written after.
+		 */
+		public void end() {
+			def.end();
+		}
+	}
+
+	public void init() {
+		entries = new Entries(maxEntries);
+		bytes = 0;
+		directory = TempFileProvider.getLongLifeTempDir(DIRECTORY);
+		// copies of an earlier run that ended without destroy
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isFile() && file.getName().startsWith(FILE_PREFIX)) {
+					file.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the encoding to send length bytes of the mimetype with, null
+	 * for none.
+	 */
+	public String negotiate(String acceptEncoding, String mimetype,
+			long length) {
+		if (StringUtils.isBlank(acceptEncoding) || length < minSize
+				|| isCompressed(mimetype)) {
+			return null;
+		}
+		boolean deflate = false;
+		for (String token : StringUtils.split(acceptEncoding, ",")) {
+			String[] parts = StringUtils.split(token, ";");
+			if (parts.length == 0) {
+				continue;
+			}
+			String coding = parts[0].trim().toLowerCase();
+			if (parts.length > 1 && parts[1].trim().matches("q=0(\\.0*)?")) {
+				continue;
+			}
+			if (GZIP.equals(coding)) {
+				return GZIP;
+			}
+			if (DEFLATE.equals(coding)) {
+				deflate = true;
+			}
+		}
+		return deflate ? DEFLATE : null;
+	}
+
+	private boolean isCompressed(String mimetype) {
+		if (mimetype == null) {
+			return false;
+		}
+		for (String compressed : compressedMimetypes) {
+			boolean prefix = compressed.endsWith("/")
+					|| compressed.endsWith(".");
+			if (prefix ? mimetype.startsWith(compressed) : mimetype
+					.equals(compressed)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public boolean isCacheable(long size) {
+		return size <= maxCachedSize;
+	}
+
+	/**
+	 * Opens the compressed copy of the whole content, compressing it first
+	 * if there is none. Returns null if the content does not compress. The
+	 * reader itself is left unused.
+	 */
+	public FileChannel openEncoded(ContentReader reader, String encoding)
+			throws IOException {
+		String key = reader.getContentUrl() + "|" + encoding;
+		FileChannel channel = open(key);
+		if (channel != null || entries.containsKey(key)) {
+			return channel;
+		}
+
+		File file = File.createTempFile(FILE_PREFIX, "." + encoding,
+				directory);
+		InputStream in = reader.getReader().getContentInputStream();
+		try {
+			EncodingOutputStream out = encode(new FileOutputStream(file),
+					encoding);
+			try {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					out.write(buffer, 0, read);
+				}
+			} finally {
+				try {
+					out.close();
+				} finally {
+					out.end();
+				}
+			}
+		} catch (IOException e) {
+			file.delete();
+			throw e;
+		} finally {
+			in.close();
+		}
+
+		if (file.length() > reader.getSize() * MAX_RATIO) {
+			file.delete();
+			file = null;
+		}
+		synchronized (entries) {
+			if (!entries.containsKey(key)) {
+				Entry entry = new Entry(file);
+				bytes += entry.length;
+				entries.put(key, entry);
+				// the new entry stays even if it alone is over the budget,
+				// it is smaller than maxCachedSize
+				while (bytes > maxBytes && entries.size() > 1) {
+					onRemove(entries.removeEldest());
+				}
+			} else if (file != null) {
+				// compressed concurrently, keep the first copy
+				file.delete();
+			}
+			return open(key);
+		}
+	}
+
+	/**
+	 * Opens the cached copy with the lock held, so that it is not deleted
+	 * by an eviction in between. An open file can still be read after. A
+	 * copy deleted from outside drops its entry, so that the content is
+	 * compressed again.
+	 */
+	private FileChannel open(String key) throws IOException {
+		synchronized (entries) {
+			Entry entry = entries.get(key);
+			if (entry == null || entry.file == null) {
+				return null;
+			}
+			try {
+				return new FileInputStream(entry.file).getChannel();
+			} catch (FileNotFoundException e) {
+				bytes -= entries.remove(key).length;
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Wraps the stream into a compressing stream of the encoding, which must
+	 * be finished and then ended by the caller.
+	 */
+	public EncodingOutputStream encode(OutputStream out, String encoding)
+			throws IOException {
+		return new EncodingOutputStream(out, GZIP.equals(encoding));
+	}
+
+	public void destroy() {
+		synchronized (entries) {
+			for (String key : entries.keys()) {
+				onRemove(entries.remove(key));
+			}
+		}
+	}
+
+	/**
+	 * Deletes the copy of an entry that left the cache, with the lock held.
+	 */
+	private void onRemove(Entry entry) {
+		if (entry != null && entry.file != null) {
+			bytes -= entry.length;
+			entry.file.delete();
+		}
+	}
+
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public void setMinSize(long minSize) {
+		this.minSize = minSize;
+	}
+
+	public void setMaxCachedSize(long maxCachedSize) {
+		this.maxCachedSize = maxCachedSize;
+	}
+
+	public void setCompressedMimetypes(List<String> compressedMimetypes) {
+		this.compressedMimetypes = new ArrayList<String>(compressedMimetypes);
+	}
+}
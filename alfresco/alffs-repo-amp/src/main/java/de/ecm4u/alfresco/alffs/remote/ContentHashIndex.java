@@ -0,0 +1,216 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.attributes.AttributeService.AttributeQueryCallback;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Persistent index of sha256 content hashes to content urls, kept in the
+ * attribute service. Entries are added by the server when it wrote a whole
+ * content, never from a hash claimed by a client.
+ *
+ * The index is scoped per user: a hash alone must not give access to the
+ * content of other users.
+ *
+ * Entries carry the time they were written. Entries older than maxAgeMillis
+ * are misses, by then the content store cleaner may have removed content no
+ * longer referenced. Every pruneInterval puts the entries of the writing user
+ * are pruned to the newest maxEntries younger than maxAgeMillis, so the index
+ * of a user stays bounded although most entries are never looked up.
+ */
+public class ContentHashIndex {
+	public static final String HASH_PREFIX = "sha256:";
+
+	private static final String ALGORITHM = "SHA-256";
+	private static final String ATTR_KEY = "ecm4u.alffs.contentHash";
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private ServiceRegistry serviceRegistry;
+	private AttributeService attributeService;
+	private long maxAgeMillis = 14L * 24L * 60L * 60L * 1000L;
+	private int maxEntries = 10000;
+	private int pruneInterval = 100;
+
+	private final AtomicInteger puts = new AtomicInteger();
+
+	public static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static String toHash(MessageDigest digest) {
+		return HASH_PREFIX + new String(Hex.encodeHex(digest.digest()));
+	}
+
+	public static String hash(File file) throws IOException {
+		MessageDigest digest = newDigest();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		InputStream in = new FileInputStream(file);
+		try {
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+		return toHash(digest);
+	}
+
+	/**
+	 * True for a well formed hash as sent by clients.
+	 */
+	public static boolean isHash(String hash) {
+		return hash != null && hash.matches(HASH_PREFIX + "[0-9a-f]{64}");
+	}
+
+	public void put(String hash, String contentUrl) {
+		String user = AuthenticationUtil.getFullyAuthenticatedUser();
+		// <written millis> <content url>, content urls have no blanks
+		attributeService.setAttribute(System.currentTimeMillis() + " "
+				+ contentUrl, ATTR_KEY, user, hash);
+		if (puts.incrementAndGet() % pruneInterval == 0) {
+			prune(user);
+		}
+	}
+
+	/**
+	 * Removes the expired entries of the user and the oldest ones above
+	 * maxEntries.
+	 */
+	private void prune(String user) {
+		final long expired = System.currentTimeMillis() - maxAgeMillis;
+		final List<String> remove = new ArrayList<String>();
+		final Map<String, Long> kept = new HashMap<String, Long>();
+		attributeService.getAttributes(new AttributeQueryCallback() {
+			@Override
+			public boolean handleAttribute(Long id, Serializable value,
+					Serializable[] keys) {
+				String hash = (String) keys[2];
+				long written = getWritten(value);
+				if (written < expired) {
+					remove.add(hash);
+				} else {
+					kept.put(hash, written);
+				}
+				return true;
+			}
+		}, ATTR_KEY, user);
+		if (kept.size() > maxEntries) {
+			List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(
+					kept.entrySet());
+			Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+				@Override
+				public int compare(Map.Entry<String, Long> a,
+						Map.Entry<String, Long> b) {
+					return a.getValue().compareTo(b.getValue());
+				}
+			});
+			for (int i = 0; i < entries.size() - maxEntries; i++) {
+				remove.add(entries.get(i).getKey());
+			}
+		}
+		for (String hash : remove) {
+			attributeService.removeAttribute(ATTR_KEY, user, hash);
+		}
+	}
+
+	private static long getWritten(Serializable value) {
+		String entry = (String) value;
+		int blank = entry.indexOf(' ');
+		if (blank < 0) {
+			// written before entries had a time
+			return 0;
+		}
+		try {
+			return Long.parseLong(entry.substring(0, blank));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static String getContentUrl(Serializable value) {
+		String entry = (String) value;
+		return entry.substring(entry.indexOf(' ') + 1);
+	}
+
+	/**
+	 * Returns the content with this hash and size written before by the
+	 * current user, null if there is none or it is gone from the content
+	 * store.
+	 */
+	public ContentData find(String hash, final long size) {
+		String user = AuthenticationUtil.getFullyAuthenticatedUser();
+		Serializable entry = attributeService.getAttribute(ATTR_KEY, user,
+				hash);
+		if (entry == null) {
+			return null;
+		}
+		if (getWritten(entry) < System.currentTimeMillis() - maxAgeMillis) {
+			attributeService.removeAttribute(ATTR_KEY, user, hash);
+			return null;
+		}
+		final String contentUrl = getContentUrl(entry);
+		// raw readers are for admins only
+		ContentData contentData = AuthenticationUtil
+				.runAsSystem(new RunAsWork<ContentData>() {
+					@Override
+					public ContentData doWork() throws Exception {
+						ContentReader reader = serviceRegistry
+								.getContentService().getRawReader(contentUrl);
+						if (reader == null || !reader.exists()
+								|| reader.getSize() != size) {
+							return null;
+						}
+						return reader.getContentData();
+					}
+				});
+		if (contentData == null) {
+			attributeService.removeAttribute(ATTR_KEY, user, hash);
+		}
+		return contentData;
+	}
+
+	public void setServiceRegistry(ServiceRegistry serviceRegistry) {
+		this.serviceRegistry = serviceRegistry;
+	}
+
+	public void setAttributeService(AttributeService attributeService) {
+		this.attributeService = attributeService;
+	}
+
+	public void setMaxAgeMillis(long maxAgeMillis) {
+		this.maxAgeMillis = maxAgeMillis;
+	}
+
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	public void setPruneInterval(int pruneInterval) {
+		this.pruneInterval = pruneInterval;
+	}
+}
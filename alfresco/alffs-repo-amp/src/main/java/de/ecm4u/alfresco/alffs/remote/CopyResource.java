@@ -0,0 +1,266 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.query.PagingRequest;
+import org.alfresco.query.PagingResults;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.model.FileExistsException;
+import org.alfresco.service.cmr.model.FileFolderService;
+import org.alfresco.service.cmr.model.FileInfo;
+import org.alfresco.service.cmr.model.FileNotFoundException;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.Pair;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.StringUtils;
+import org.json.JSONException;
+import org.json.simple.JSONValue;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+/**
+ * Copies a file or a directory tree inside the repository. Copies share the
+ * content urls of their sources, no content is read or written.
+ *
+ * Small trees are copied in the request transaction. With async the copy runs
+ * as a job of the {@link JobRegistry} in one transaction per batch of
+ * children, its progress is polled through the job resource.
+ */
+public class CopyResource extends AbstractIOResource {
+	protected static final String PARAM_ASYNC = "async";
+
+	protected static final String JOB_TYPE = "copy";
+
+	// children copied per transaction of a job
+	private static final int BATCH_SIZE = 200;
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void doPost(WebScriptRequest req, WebScriptResponse res)
+			throws IOException, JSONException {
+		res.setContentType(JSON_MIMETYPE);
+		res.setContentEncoding(DEFAULT_ENCODING);
+		res.setStatus(Status.STATUS_OK);
+
+		Map<String, Object> jsonParam = (Map<String, Object>) JSONValue
+				.parse(req.getContent().getContent());
+
+		String base = req.getParameter(PARAM_BASE);
+		String path = req.getParameter(PARAM_PATH);
+		String uuid = req.getParameter(PARAM_UUID);
+		String newpath = jsonParam != null ? (String) jsonParam
+				.get(PARAM_NEWPATH) : null;
+		boolean async = jsonParam != null
+				&& Boolean.TRUE.equals(jsonParam.get(PARAM_ASYNC));
+
+		if (StringUtils.isBlank(base)
+				|| (StringUtils.isBlank(path) && StringUtils.isBlank(uuid))
+				|| StringUtils.isBlank(newpath)) {
+			sendError(res, "garbage in garbage out", ERROR_IO);
+			return;
+		}
+
+		NodeRef nodeRef = locateNode(base, path, uuid);
+		if (nodeRef == null) {
+			sendError(res, "no such file or directory", ERROR_NOENT,
+					Status.STATUS_NOT_FOUND);
+			return;
+		}
+
+		try {
+			final NodeRef targetParentRef = checkTarget(base, nodeRef, newpath);
+			final String newName = FilenameUtils.getName(newpath);
+			Map<String, Object> jsonResponse = new HashMap<String, Object>();
+			if (async) {
+				final NodeRef sourceRef = nodeRef;
+				JobRegistry.Job job = jobRegistry.submit(JOB_TYPE,
+						AuthenticationUtil.getFullyAuthenticatedUser(),
+						new JobRegistry.Task() {
+							@Override
+							public void run(JobRegistry.Job job)
+									throws Exception {
+								copyTree(job, sourceRef, targetParentRef,
+										newName);
+							}
+						});
+				res.setStatus(Status.STATUS_ACCEPTED);
+				jsonResponse.put("job", job.getId());
+			} else {
+				FileInfo finfo = serviceRegistry.getFileFolderService().copy(
+						nodeRef, targetParentRef, newName);
+				jsonResponse.put("nodeRef", finfo.getNodeRef().toString());
+				jsonResponse.put("uuid", finfo.getNodeRef().getId());
+			}
+			JSONValue.writeJSONString(jsonResponse, res.getWriter());
+		} catch (FileExistsException e) {
+			sendError(res, "file or directory already exists", ERROR_EXIST,
+					Status.STATUS_CONFLICT);
+		} catch (FileNotFoundException e) {
+			sendError(res, "no such file or directory", ERROR_NOENT,
+					Status.STATUS_NOT_FOUND);
+		} catch (IOResourceException e) {
+			sendError(res, e);
+		}
+	}
+
+	/**
+	 * Returns the directory the copy is created in. The target must not
+	 * exist and a directory can not be copied below itself.
+	 */
+	private NodeRef checkTarget(String base, NodeRef nodeRef, String newpath)
+			throws IOResourceException {
+		NodeService nodeService = serviceRegistry.getNodeService();
+		NodeRef targetParentRef = locateNode(base,
+				FilenameUtils.getFullPathNoEndSeparator(newpath));
+		if (targetParentRef == null) {
+			throw new IOResourceException("no such file or directory",
+					ERROR_NOENT, Status.STATUS_NOT_FOUND);
+		}
+		if (!isDirectory(nodeService.getType(targetParentRef))) {
+			throw new IOResourceException("not a directory", ERROR_NOTDIR);
+		}
+		if (locateNode(base, newpath) != null) {
+			throw new IOResourceException("file or directory already exists",
+					ERROR_EXIST, Status.STATUS_CONFLICT);
+		}
+		if (isDirectory(nodeService.getType(nodeRef))) {
+			for (NodeRef ancestor = targetParentRef; ancestor != null;) {
+				if (ancestor.equals(nodeRef)) {
+					throw new IOResourceException(
+							"can not copy a directory into itself",
+							ERROR_INVAL);
+				}
+				ChildAssociationRef parent = nodeService
+						.getPrimaryParent(ancestor);
+				ancestor = parent != null ? parent.getParentRef() : null;
+			}
+		}
+		return targetParentRef;
+	}
+
+	/**
+	 * Copies the tree breadth first. Directories are copied without their
+	 * children, which are then copied page by page, each page in its own
+	 * transaction. A failure leaves the part copied so far.
+	 */
+	private void copyTree(final JobRegistry.Job job, final NodeRef sourceRef,
+			final NodeRef targetParentRef, final String newName)
+			throws Exception {
+		final RetryingTransactionHelper txnHelper = serviceRegistry
+				.getTransactionService().getRetryingTransactionHelper();
+		final FileFolderService fileFolderService = serviceRegistry
+				.getFileFolderService();
+
+		final boolean directory = txnHelper.doInTransaction(
+				new RetryingTransactionCallback<Boolean>() {
+					@Override
+					public Boolean execute() throws Throwable {
+						if (!isDirectory(serviceRegistry.getNodeService()
+								.getType(sourceRef))) {
+							return false;
+						}
+						job.setTotal(countTree(job, sourceRef));
+						return true;
+					}
+				}, true, true);
+		if (!directory) {
+			job.setTotal(1);
+		}
+
+		NodeRef rootCopy = txnHelper.doInTransaction(
+				new RetryingTransactionCallback<NodeRef>() {
+					@Override
+					public NodeRef execute() throws Throwable {
+						NodeService nodeService = serviceRegistry
+								.getNodeService();
+						if (!directory) {
+							return fileFolderService.copy(sourceRef,
+									targetParentRef, newName).getNodeRef();
+						}
+						NodeRef copy = serviceRegistry.getCopyService().copy(
+								sourceRef,
+								targetParentRef,
+								ContentModel.ASSOC_CONTAINS,
+								QName.createQName(
+										NamespaceService.CONTENT_MODEL_1_0_URI,
+										QName.createValidLocalName(newName)),
+								false);
+						nodeService.setProperty(copy, ContentModel.PROP_NAME,
+								newName);
+						return copy;
+					}
+				}, false, true);
+		job.setResult(rootCopy.getId());
+		job.addDone(1);
+
+		Deque<Pair<NodeRef, NodeRef>> folders = new ArrayDeque<Pair<NodeRef, NodeRef>>();
+		if (directory) {
+			folders.add(new Pair<NodeRef, NodeRef>(sourceRef, rootCopy));
+		}
+		// folders copied by the current page, refilled on a retry
+		final List<Pair<NodeRef, NodeRef>> copied = new ArrayList<Pair<NodeRef, NodeRef>>();
+
+		while (!folders.isEmpty() && !job.isCancelled()) {
+			final Pair<NodeRef, NodeRef> folder = folders.poll();
+			// the copies go to another folder, the source pages do not shift
+			int skip = 0;
+			boolean hasMore = true;
+			while (hasMore && !job.isCancelled()) {
+				final int pageSkip = skip;
+				PagingResults<FileInfo> page = txnHelper.doInTransaction(
+						new RetryingTransactionCallback<PagingResults<FileInfo>>() {
+							@Override
+							public PagingResults<FileInfo> execute()
+									throws Throwable {
+								copied.clear();
+								PagingResults<FileInfo> page = fileFolderService
+										.list(folder.getFirst(), true, true,
+												null, SORT_BY_NAME,
+												new PagingRequest(pageSkip,
+														BATCH_SIZE));
+								for (FileInfo child : page.getPage()) {
+									NodeRef copy = copyChild(child,
+											folder.getSecond());
+									if (child.isFolder()) {
+										copied.add(new Pair<NodeRef, NodeRef>(
+												child.getNodeRef(), copy));
+									}
+								}
+								return page;
+							}
+						}, false, true);
+				folders.addAll(copied);
+				skip += page.getPage().size();
+				job.addDone(page.getPage().size());
+				hasMore = page.hasMoreItems() && !page.getPage().isEmpty();
+			}
+		}
+	}
+
+	/**
+	 * Copies a child under its old name. Folders are copied without their
+	 * children, files with theirs (e.g. renditions).
+	 */
+	private NodeRef copyChild(FileInfo child, NodeRef targetRef) {
+		ChildAssociationRef assoc = serviceRegistry.getNodeService()
+				.getPrimaryParent(child.getNodeRef());
+		return serviceRegistry.getCopyService().copy(child.getNodeRef(),
+				targetRef, assoc.getTypeQName(), assoc.getQName(),
+				!child.isFolder());
+	}
+
+}
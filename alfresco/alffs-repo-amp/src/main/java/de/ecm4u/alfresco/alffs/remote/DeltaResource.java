@@ -0,0 +1,192 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.util.TempFileProvider;
+import org.apache.commons.lang.StringUtils;
+import org.json.JSONException;
+import org.json.simple.JSONValue;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+/**
+ * Applies a delta against the current content of a file. The body is a
+ * sequence of ops, each starting with one byte:
+ * <ul>
+ * <li>'C' offset (8 bytes) length (4 bytes): copy a range of the base</li>
+ * <li>'D' length (4 bytes) data: literal data</li>
+ * </ul>
+ * The etag of the base content must be given and still be current.
+ */
+public class DeltaResource extends AbstractIOResource {
+	protected static final String PARAM_ETAG = "etag";
+
+	private static final int OP_COPY = 'C';
+	private static final int OP_DATA = 'D';
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	@Override
+	public void doPost(WebScriptRequest req, WebScriptResponse res)
+			throws IOException, JSONException {
+		res.setContentType(JSON_MIMETYPE);
+		res.setContentEncoding(DEFAULT_ENCODING);
+		res.setStatus(Status.STATUS_OK);
+
+		String base = req.getParameter(PARAM_BASE);
+		String path = req.getParameter(PARAM_PATH);
+		String uuid = req.getParameter(PARAM_UUID);
+		String etag = req.getParameter(PARAM_ETAG);
+		String mtimeStr = req.getParameter(PARAM_MTIME_SEC);
+
+		if (StringUtils.isBlank(base) || (StringUtils.isBlank(path) && StringUtils.isBlank(uuid)) || StringUtils.isBlank(etag)) {
+			sendError(res, "garbage in garbage out", ERROR_IO);
+			return;
+		}
+
+		NodeRef nodeRef = locateNode(base, path, uuid);
+		if (nodeRef == null) {
+			sendError(res, "no such file or directory", ERROR_NOENT,
+					Status.STATUS_NOT_FOUND);
+			return;
+		}
+		if (!isFile(serviceRegistry.getNodeService().getType(nodeRef))) {
+			sendError(res, "is a directory", ERROR_ISDIR);
+			return;
+		}
+
+		ContentReader current = serviceRegistry.getContentService()
+				.getReader(nodeRef, ContentModel.PROP_CONTENT);
+		if (current == null || !current.exists()
+				|| !etag.equals(encodeContentEtag(current.getContentUrl()))) {
+			// the client has to fetch a fresh signature
+			sendError(res, "base content has changed", ERROR_STALE,
+					Status.STATUS_PRECONDITION_FAILED);
+			return;
+		}
+
+		// the delta is applied to a temp file first, a broken body must not
+		// leave a half written content on the node
+		File file = TempFileProvider.createTempFile("alffs-delta-", ".bin");
+		long transfered = 0;
+		try {
+			FileChannel baseChannel = current.getFileChannel();
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					req.getContent().getInputStream(), BUFFER_SIZE));
+			try {
+				transfered = applyDelta(in, baseChannel, raf.getChannel());
+			} catch (IOResourceException e) {
+				sendError(res, e);
+				return;
+			} finally {
+				in.close();
+				raf.close();
+				baseChannel.close();
+			}
+
+			ContentWriter writer = serviceRegistry.getContentService()
+					.getWriter(nodeRef, ContentModel.PROP_CONTENT, true);
+			writer.setMimetype(current.getMimetype());
+			writer.setEncoding(current.getEncoding());
+			try {
+				behaviourFilter.disableBehaviour(nodeRef,
+						ContentModel.ASPECT_AUDITABLE);
+				writer.putContent(file);
+				if (StringUtils.isNotBlank(mtimeStr)) {
+					long epochSec = Long.parseLong(mtimeStr);
+					Date modDate = new Date(epochSec * 1000L);
+					serviceRegistry.getNodeService().setProperty(nodeRef,
+							ContentModel.PROP_MODIFIED, modDate);
+				}
+			} finally {
+				behaviourFilter.enableBehaviour(nodeRef,
+						ContentModel.ASPECT_AUDITABLE);
+			}
+
+			Map<String, Object> jsonResponse = new HashMap<String, Object>();
+			jsonResponse.put("etag", encodeContentEtag(writer.getContentUrl()));
+			jsonResponse.put("size", Long.toString(writer.getSize()));
+			jsonResponse.put("transfered", Long.toString(transfered));
+			JSONValue.writeJSONString(jsonResponse, res.getWriter());
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Writes the ops of the delta to target and returns the number of literal
+	 * bytes that were sent.
+	 */
+	private long applyDelta(DataInputStream in, FileChannel baseChannel,
+			FileChannel target) throws IOException, IOResourceException {
+		long baseSize = baseChannel.size();
+		long transfered = 0;
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int op;
+		try {
+			while ((op = in.read()) != -1) {
+				if (op == OP_COPY) {
+					long offset = in.readLong();
+					int length = in.readInt();
+					if (offset < 0 || length < 0 || offset + length > baseSize) {
+						throw new IOResourceException("copy out of range", ERROR_IO);
+					}
+					long position = offset;
+					long end = offset + length;
+					while (position < end) {
+						long copied = baseChannel.transferTo(position, end
+								- position, target);
+						if (copied <= 0) {
+							throw new IOResourceException("short read of base",
+									ERROR_IO);
+						}
+						position += copied;
+					}
+				} else if (op == OP_DATA) {
+					int length = in.readInt();
+					if (length < 0) {
+						throw new IOResourceException("garbage in garbage out",
+								ERROR_IO);
+					}
+					int remaining = length;
+					while (remaining > 0) {
+						int read = in.read(buffer, 0,
+								Math.min(buffer.length, remaining));
+						if (read == -1) {
+							throw new IOResourceException("truncated delta",
+									ERROR_IO);
+						}
+						ByteBuffer src = ByteBuffer.wrap(buffer, 0, read);
+						while (src.hasRemaining()) {
+							target.write(src);
+						}
+						remaining -= read;
+					}
+					transfered += length;
+				} else {
+					throw new IOResourceException("unknown delta op", ERROR_IO);
+				}
+			}
+		} catch (EOFException e) {
+			// readLong or readInt of an op cut off
+			throw new IOResourceException("truncated delta", ERROR_IO);
+		}
+		return transfered;
+	}
+}
@@ -0,0 +1,164 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.node.NodeServicePolicies.OnCreateChildAssociationPolicy;
+import org.alfresco.repo.node.NodeServicePolicies.OnDeleteChildAssociationPolicy;
+import org.alfresco.repo.node.NodeServicePolicies.OnDeleteNodePolicy;
+import org.alfresco.repo.node.NodeServicePolicies.OnMoveNodePolicy;
+import org.alfresco.repo.node.NodeServicePolicies.OnUpdatePropertiesPolicy;
+import org.alfresco.repo.policy.Behaviour.NotificationFrequency;
+import org.alfresco.repo.policy.BehaviourFilter;
+import org.alfresco.repo.policy.JavaBehaviour;
+import org.alfresco.repo.policy.PolicyComponent;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.EqualsHelper;
+
+/**
+ * Sets the modification time of a folder whenever a child is added, removed,
+ * moved in or out or renamed, like the mtime of a posix directory. The folder
+ * is written once per transaction before it commits, so its transaction id
+ * changes with its list of children and readdir can use it as a validator
+ * without looking at the children.
+ *
+ * The folder is written with the unsecured node service and without its
+ * behaviours, adding a child needs no write permission on the folder and the
+ * write is not a change of its own. Transactions changing children of the
+ * same folder write the same node and are retried on a conflict.
+ */
+public class DirectoryMtime implements OnCreateChildAssociationPolicy,
+		OnDeleteChildAssociationPolicy, OnDeleteNodePolicy, OnMoveNodePolicy,
+		OnUpdatePropertiesPolicy {
+	private static final String RESOURCE_KEY = DirectoryMtime.class.getName();
+
+	private NodeService nodeService;
+	private PolicyComponent policyComponent;
+	private BehaviourFilter behaviourFilter;
+
+	/**
+	 * Folders whose children a transaction changed, written before commit.
+	 */
+	private class ChangedFolders extends TransactionListenerAdapter {
+		private final Set<NodeRef> folders = new LinkedHashSet<NodeRef>();
+
+		@Override
+		public void beforeCommit(boolean readOnly) {
+			Date now = new Date();
+			for (NodeRef folder : folders) {
+				// deleted by the same transaction
+				if (!nodeService.exists(folder)) {
+					continue;
+				}
+				behaviourFilter.disableBehaviour(folder);
+				try {
+					nodeService.setProperty(folder, ContentModel.PROP_MODIFIED,
+							now);
+				} finally {
+					behaviourFilter.enableBehaviour(folder);
+				}
+			}
+		}
+	}
+
+	public void init() {
+		policyComponent.bindAssociationBehaviour(
+				OnCreateChildAssociationPolicy.QNAME, ContentModel.TYPE_FOLDER,
+				ContentModel.ASSOC_CONTAINS, new JavaBehaviour(this,
+						"onCreateChildAssociation",
+						NotificationFrequency.EVERY_EVENT));
+		policyComponent.bindAssociationBehaviour(
+				OnDeleteChildAssociationPolicy.QNAME, ContentModel.TYPE_FOLDER,
+				ContentModel.ASSOC_CONTAINS, new JavaBehaviour(this,
+						"onDeleteChildAssociation",
+						NotificationFrequency.EVERY_EVENT));
+		policyComponent.bindClassBehaviour(OnDeleteNodePolicy.QNAME,
+				ContentModel.TYPE_CMOBJECT, new JavaBehaviour(this,
+						"onDeleteNode", NotificationFrequency.EVERY_EVENT));
+		policyComponent.bindClassBehaviour(OnMoveNodePolicy.QNAME,
+				ContentModel.TYPE_CMOBJECT, new JavaBehaviour(this,
+						"onMoveNode", NotificationFrequency.EVERY_EVENT));
+		policyComponent.bindClassBehaviour(OnUpdatePropertiesPolicy.QNAME,
+				ContentModel.TYPE_CMOBJECT, new JavaBehaviour(this,
+						"onUpdateProperties", NotificationFrequency.EVERY_EVENT));
+	}
+
+	private void touch(NodeRef folder) {
+		if (folder == null) {
+			return;
+		}
+		ChangedFolders changed = (ChangedFolders) AlfrescoTransactionSupport
+				.getResource(RESOURCE_KEY);
+		if (changed == null) {
+			changed = new ChangedFolders();
+			AlfrescoTransactionSupport.bindResource(RESOURCE_KEY, changed);
+			AlfrescoTransactionSupport.bindListener(changed);
+		}
+		changed.folders.add(folder);
+	}
+
+	private void touchParent(NodeRef nodeRef) {
+		ChildAssociationRef parent = nodeService.getPrimaryParent(nodeRef);
+		if (parent != null) {
+			touch(parent.getParentRef());
+		}
+	}
+
+	@Override
+	public void onCreateChildAssociation(ChildAssociationRef childAssocRef,
+			boolean isNewNode) {
+		touch(childAssocRef.getParentRef());
+	}
+
+	@Override
+	public void onDeleteChildAssociation(ChildAssociationRef childAssocRef) {
+		touch(childAssocRef.getParentRef());
+	}
+
+	@Override
+	public void onDeleteNode(ChildAssociationRef childAssocRef,
+			boolean isNodeArchived) {
+		touch(childAssocRef.getParentRef());
+	}
+
+	@Override
+	public void onMoveNode(ChildAssociationRef oldChildAssocRef,
+			ChildAssociationRef newChildAssocRef) {
+		touch(oldChildAssocRef.getParentRef());
+		touch(newChildAssocRef.getParentRef());
+	}
+
+	@Override
+	public void onUpdateProperties(NodeRef nodeRef,
+			Map<QName, Serializable> before, Map<QName, Serializable> after) {
+		// a rename changes the entry in the folder
+		if (!before.isEmpty()
+				&& !EqualsHelper.nullSafeEquals(
+						before.get(ContentModel.PROP_NAME),
+						after.get(ContentModel.PROP_NAME))
+				&& nodeService.exists(nodeRef)) {
+			touchParent(nodeRef);
+		}
+	}
+
+	public void setNodeService(NodeService nodeService) {
+		this.nodeService = nodeService;
+	}
+
+	public void setPolicyComponent(PolicyComponent policyComponent) {
+		this.policyComponent = policyComponent;
+	}
+
+	public void setBehaviourFilter(BehaviourFilter behaviourFilter) {
+		this.behaviourFilter = behaviourFilter;
+	}
+}
@@ -0,0 +1,413 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+
+/**
+ * Request metrics of the alffs resources of this server. Every resource gets
+ * counters, errors by errno and latency histograms of the whole request and
+ * of the time spent locating nodes, marshalling attributes and committing.
+ * Each resource is registered as an MBean when it is first called and the
+ * whole set is written in the prometheus text format by the metrics resource.
+ */
+public class IOMetrics {
+	public static final String DOMAIN = "de.ecm4u.alfresco.alffs";
+
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	private final ConcurrentMap<String, ResourceMetrics> resources = new ConcurrentHashMap<String, ResourceMetrics>();
+	private final ThreadLocal<Sample> current = new ThreadLocal<Sample>();
+
+	private MBeanServer mbeanServer;
+
+	/**
+	 * Jmx view of the metrics of one resource, latencies in milliseconds.
+	 */
+	public interface ResourceMetricsMBean {
+		long getRequests();
+
+		long getErrors();
+
+		long getBytesIn();
+
+		long getBytesOut();
+
+		Map<String, Long> getErrnos();
+
+		double getMeanMillis();
+
+		double getP50Millis();
+
+		double getP99Millis();
+
+		double getMaxMillis();
+
+		double getLocateP99Millis();
+
+		double getMarshalP99Millis();
+
+		double getCommitP99Millis();
+	}
+
+	public static class ResourceMetrics implements ResourceMetricsMBean {
+		private final String name;
+		private final AtomicLong requests = new AtomicLong();
+		private final AtomicLong errors = new AtomicLong();
+		private final AtomicLong bytesIn = new AtomicLong();
+		private final AtomicLong bytesOut = new AtomicLong();
+		private final ConcurrentMap<String, AtomicLong> errnos = new ConcurrentHashMap<String, AtomicLong>();
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final LatencyHistogram locate = new LatencyHistogram();
+		private final LatencyHistogram marshal = new LatencyHistogram();
+		private final LatencyHistogram commit = new LatencyHistogram();
+
+		ResourceMetrics(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public long getRequests() {
+			return requests.get();
+		}
+
+		@Override
+		public long getErrors() {
+			return errors.get();
+		}
+
+		@Override
+		public long getBytesIn() {
+			return bytesIn.get();
+		}
+
+		@Override
+		public long getBytesOut() {
+			return bytesOut.get();
+		}
+
+		@Override
+		public Map<String, Long> getErrnos() {
+			Map<String, Long> counts = new TreeMap<String, Long>();
+			for (Map.Entry<String, AtomicLong> entry : errnos.entrySet()) {
+				counts.put(entry.getKey(), entry.getValue().get());
+			}
+			return counts;
+		}
+
+		@Override
+		public double getMeanMillis() {
+			return latency.getMean() / 1000.0;
+		}
+
+		@Override
+		public double getP50Millis() {
+			return latency.getQuantile(0.5) / 1000.0;
+		}
+
+		@Override
+		public double getP99Millis() {
+			return latency.getQuantile(0.99) / 1000.0;
+		}
+
+		@Override
+		public double getMaxMillis() {
+			return latency.getMax() / 1000.0;
+		}
+
+		@Override
+		public double getLocateP99Millis() {
+			return locate.getQuantile(0.99) / 1000.0;
+		}
+
+		@Override
+		public double getMarshalP99Millis() {
+			return marshal.getQuantile(0.99) / 1000.0;
+		}
+
+		@Override
+		public double getCommitP99Millis() {
+			return commit.getQuantile(0.99) / 1000.0;
+		}
+	}
+
+	/**
+	 * The running request of a thread, sub timings are added up here and
+	 * recorded when the request ends.
+	 */
+	public static class Sample {
+		private final ResourceMetrics metrics;
+		private final long start = System.nanoTime();
+		private long locateNanos;
+		private long marshalNanos;
+		private long bytesOut;
+		private String errno;
+
+		Sample(ResourceMetrics metrics) {
+			this.metrics = metrics;
+		}
+
+		public void addLocateNanos(long nanos) {
+			locateNanos += nanos;
+		}
+
+		public void addMarshalNanos(long nanos) {
+			marshalNanos += nanos;
+		}
+
+		public void addBytesOut(long bytes) {
+			bytesOut += bytes;
+		}
+
+		/**
+		 * Marks the request as failed, the first errno counts.
+		 */
+		public void setErrno(String errno) {
+			if (this.errno == null) {
+				this.errno = errno;
+			}
+		}
+	}
+
+	/**
+	 * Times the commit of the request transaction, which happens after the
+	 * resource returned.
+	 */
+	private static class CommitTimer extends TransactionListenerAdapter {
+		private final LatencyHistogram commit;
+		private long start;
+
+		CommitTimer(LatencyHistogram commit) {
+			this.commit = commit;
+		}
+
+		@Override
+		public void beforeCommit(boolean readOnly) {
+			start = System.nanoTime();
+		}
+
+		@Override
+		public void afterCommit() {
+			commit.recordNanos(System.nanoTime() - start);
+		}
+	}
+
+	public void init() {
+		mbeanServer = ManagementFactory.getPlatformMBeanServer();
+	}
+
+	public Sample start(String resource, long bytesIn) {
+		ResourceMetrics metrics = resources.get(resource);
+		if (metrics == null) {
+			metrics = register(resource);
+		}
+		if (bytesIn > 0) {
+			metrics.bytesIn.addAndGet(bytesIn);
+		}
+		Sample sample = new Sample(metrics);
+		current.set(sample);
+		return sample;
+	}
+
+	/**
+	 * The sample of the request running on this thread or null.
+	 */
+	public Sample current() {
+		return current.get();
+	}
+
+	public void finish(Sample sample) {
+		current.remove();
+		ResourceMetrics metrics = sample.metrics;
+		metrics.requests.incrementAndGet();
+		metrics.latency.recordNanos(System.nanoTime() - sample.start);
+		if (sample.locateNanos > 0) {
+			metrics.locate.recordNanos(sample.locateNanos);
+		}
+		if (sample.marshalNanos > 0) {
+			metrics.marshal.recordNanos(sample.marshalNanos);
+		}
+		if (sample.bytesOut > 0) {
+			metrics.bytesOut.addAndGet(sample.bytesOut);
+		}
+		if (sample.errno != null) {
+			metrics.errors.incrementAndGet();
+			AtomicLong count = metrics.errnos.get(sample.errno);
+			if (count == null) {
+				AtomicLong created = new AtomicLong();
+				count = metrics.errnos.putIfAbsent(sample.errno, created);
+				if (count == null) {
+					count = created;
+				}
+			}
+			count.incrementAndGet();
+		}
+		if (AlfrescoTransactionSupport.getTransactionId() != null) {
+			AlfrescoTransactionSupport.bindListener(new CommitTimer(
+					metrics.commit));
+		}
+	}
+
+	private ResourceMetrics register(String resource) {
+		ResourceMetrics metrics = new ResourceMetrics(resource);
+		ResourceMetrics existing = resources.putIfAbsent(resource, metrics);
+		if (existing != null) {
+			return existing;
+		}
+		if (mbeanServer != null) {
+			try {
+				mbeanServer.registerMBean(metrics, objectName(resource));
+			} catch (JMException e) {
+				// metrics are still served by the metrics resource
+			}
+		}
+		return metrics;
+	}
+
+	private ObjectName objectName(String resource) throws JMException {
+		return new ObjectName(DOMAIN + ":type=IOMetrics,resource="
+				+ ObjectName.quote(resource));
+	}
+
+	/**
+	 * Writes all metrics in the prometheus text exposition format, latencies
+	 * as summaries in seconds.
+	 */
+	public void writePrometheus(Writer out) throws IOException {
+		Map<String, ResourceMetrics> sorted = new TreeMap<String, ResourceMetrics>(
+				resources);
+
+		header(out, "alffs_requests_total", "counter",
+				"Requests by resource.");
+		for (ResourceMetrics metrics : sorted.values()) {
+			sample(out, "alffs_requests_total", metrics.name, null,
+					metrics.getRequests());
+		}
+		header(out, "alffs_errors_total", "counter",
+				"Failed requests by resource and errno.");
+		for (ResourceMetrics metrics : sorted.values()) {
+			for (Map.Entry<String, Long> errno : metrics.getErrnos()
+					.entrySet()) {
+				sample(out, "alffs_errors_total", metrics.name, ",errno=\""
+						+ errno.getKey() + "\"", errno.getValue());
+			}
+		}
+		header(out, "alffs_bytes_in_total", "counter",
+				"Request body bytes by resource.");
+		for (ResourceMetrics metrics : sorted.values()) {
+			sample(out, "alffs_bytes_in_total", metrics.name, null,
+					metrics.getBytesIn());
+		}
+		header(out, "alffs_bytes_out_total", "counter",
+				"Content bytes sent by resource.");
+		for (ResourceMetrics metrics : sorted.values()) {
+			sample(out, "alffs_bytes_out_total", metrics.name, null,
+					metrics.getBytesOut());
+		}
+
+		summary(out, "alffs_request_seconds", "Request latency.", sorted,
+				new Selector() {
+					@Override
+					public LatencyHistogram select(ResourceMetrics metrics) {
+						return metrics.latency;
+					}
+				});
+		summary(out, "alffs_locate_seconds",
+				"Time per request spent locating nodes.", sorted,
+				new Selector() {
+					@Override
+					public LatencyHistogram select(ResourceMetrics metrics) {
+						return metrics.locate;
+					}
+				});
+		summary(out, "alffs_marshal_seconds",
+				"Time per request spent marshalling attributes.", sorted,
+				new Selector() {
+					@Override
+					public LatencyHistogram select(ResourceMetrics metrics) {
+						return metrics.marshal;
+					}
+				});
+		summary(out, "alffs_commit_seconds",
+				"Commit time of the request transaction.", sorted,
+				new Selector() {
+					@Override
+					public LatencyHistogram select(ResourceMetrics metrics) {
+						return metrics.commit;
+					}
+				});
+		out.flush();
+	}
+
+	private interface Selector {
+		LatencyHistogram select(ResourceMetrics metrics);
+	}
+
+	private void summary(Writer out, String name, String help,
+			Map<String, ResourceMetrics> sorted, Selector selector)
+			throws IOException {
+		header(out, name, "summary", help);
+		for (ResourceMetrics metrics : sorted.values()) {
+			LatencyHistogram histogram = selector.select(metrics);
+			long count = histogram.getCount();
+			if (count == 0) {
+				continue;
+			}
+			for (double quantile : QUANTILES) {
+				out.write(name + "{resource=\"" + metrics.name
+						+ "\",quantile=\"" + quantile + "\"} "
+						+ seconds(histogram.getQuantile(quantile)) + "\n");
+			}
+			out.write(name + "_sum{resource=\"" + metrics.name + "\"} "
+					+ seconds(histogram.getSum()) + "\n");
+			out.write(name + "_count{resource=\"" + metrics.name + "\"} "
+					+ count + "\n");
+		}
+	}
+
+	private void header(Writer out, String name, String type, String help)
+			throws IOException {
+		out.write("# HELP " + name + " " + help + "\n# TYPE " + name + " "
+				+ type + "\n");
+	}
+
+	private void sample(Writer out, String name, String resource,
+			String labels, long value) throws IOException {
+		out.write(name + "{resource=\"" + resource + "\""
+				+ (labels != null ? labels : "") + "} " + value + "\n");
+	}
+
+	private static double seconds(long micros) {
+		return micros / (double) TimeUnit.SECONDS.toMicros(1);
+	}
+
+	public void destroy() {
+		if (mbeanServer == null) {
+			return;
+		}
+		for (String resource : resources.keySet()) {
+			try {
+				mbeanServer.unregisterMBean(objectName(resource));
+			} catch (JMException e) {
+				// not registered
+			}
+		}
+	}
+}
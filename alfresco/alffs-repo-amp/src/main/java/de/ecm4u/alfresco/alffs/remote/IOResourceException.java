@@ -0,0 +1,32 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import org.springframework.extensions.webscripts.Status;
+
+/**
+ * Failure of a file system operation, carries the errno string and http
+ * status that is reported to the client.
+ */
+public class IOResourceException extends Exception {
+	private static final long serialVersionUID = 1L;
+
+	private final String errno;
+	private final int status;
+
+	public IOResourceException(String message, String errno) {
+		this(message, errno, Status.STATUS_BAD_REQUEST);
+	}
+
+	public IOResourceException(String message, String errno, int status) {
+		super(message);
+		this.errno = errno;
+		this.status = status;
+	}
+
+	public String getErrno() {
+		return errno;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+}
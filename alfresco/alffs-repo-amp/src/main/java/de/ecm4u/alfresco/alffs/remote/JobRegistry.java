@@ -0,0 +1,279 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.service.cmr.repository.NodeRef;
+
+/**
+ * Long running tree operations of this server. Jobs run on a small pool as
+ * the user that started them and report their progress until they are
+ * dropped some time after they finished.
+ */
+public class JobRegistry {
+	public static final String STATE_QUEUED = "queued";
+	public static final String STATE_RUNNING = "running";
+	public static final String STATE_DONE = "done";
+	public static final String STATE_FAILED = "failed";
+	public static final String STATE_CANCELLED = "cancelled";
+
+	private final Map<String, Job> jobs = new ConcurrentHashMap<String, Job>();
+	// roots of subtrees that are being deleted
+	private final Set<NodeRef> hidden = Collections
+			.newSetFromMap(new ConcurrentHashMap<NodeRef, Boolean>());
+	// counts changes of hidden, listings that hide children depend on it
+	private final AtomicLong hiddenVersion = new AtomicLong();
+
+	private int threads = 2;
+	// finished jobs are dropped when the next one is submitted
+	private long retentionMillis = 60L * 60L * 1000L;
+
+	private ExecutorService executor;
+
+	/**
+	 * Work of a job, checks {@link Job#isCancelled()} between its batches.
+	 */
+	public interface Task {
+		void run(Job job) throws Exception;
+	}
+
+	public static class Job {
+		private final String id;
+		private final String type;
+		private final String user;
+		private final long started = System.currentTimeMillis();
+		private final AtomicLong done = new AtomicLong();
+		private volatile long total = -1;
+		private volatile String state = STATE_QUEUED;
+		private volatile boolean cancelled;
+		private volatile String errno;
+		private volatile String message;
+		private volatile String result;
+		private volatile long finished;
+
+		Job(String id, String type, String user) {
+			this.id = id;
+			this.type = type;
+			this.user = user;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public String getUser() {
+			return user;
+		}
+
+		public String getState() {
+			return state;
+		}
+
+		public long getStarted() {
+			return started;
+		}
+
+		public long getFinished() {
+			return finished;
+		}
+
+		public long getDone() {
+			return done.get();
+		}
+
+		public void addDone(long count) {
+			done.addAndGet(count);
+		}
+
+		/**
+		 * Number of units of work or -1 while unknown.
+		 */
+		public long getTotal() {
+			return total;
+		}
+
+		public void setTotal(long total) {
+			this.total = total;
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		public String getErrno() {
+			return errno;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		/**
+		 * Node handle of the result, e.g. the root of a copied tree.
+		 */
+		public String getResult() {
+			return result;
+		}
+
+		public void setResult(String result) {
+			this.result = result;
+		}
+
+		boolean isFinished() {
+			return finished != 0;
+		}
+
+		void finish(String state, String errno, String message) {
+			this.errno = errno;
+			this.message = message;
+			this.state = state;
+			this.finished = System.currentTimeMillis();
+		}
+	}
+
+	public void init() {
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "alffs-job-"
+						+ count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public Job submit(String type, String user, final Task task) {
+		expire();
+		final Job job = new Job(UUID.randomUUID().toString(), type, user);
+		jobs.put(job.getId(), job);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (job.isCancelled()) {
+					job.finish(STATE_CANCELLED, null, null);
+					return;
+				}
+				job.state = STATE_RUNNING;
+				try {
+					AuthenticationUtil.runAs(new RunAsWork<Void>() {
+						@Override
+						public Void doWork() throws Exception {
+							task.run(job);
+							return null;
+						}
+					}, job.getUser());
+					job.finish(job.isCancelled() ? STATE_CANCELLED
+							: STATE_DONE, null, null);
+				} catch (Throwable e) {
+					Throwable cause = e;
+					while (cause.getCause() != null
+							&& !(cause instanceof IOResourceException)) {
+						cause = cause.getCause();
+					}
+					if (cause instanceof IOResourceException) {
+						job.finish(STATE_FAILED,
+								((IOResourceException) cause).getErrno(),
+								cause.getMessage());
+					} else {
+						job.finish(STATE_FAILED, AbstractIOResource.ERROR_IO,
+								String.valueOf(e.getMessage()));
+					}
+				}
+			}
+		});
+		return job;
+	}
+
+	/**
+	 * Returns the job if it exists and belongs to the user.
+	 */
+	public Job get(String id, String user) {
+		if (id == null) {
+			return null;
+		}
+		Job job = jobs.get(id);
+		if (job == null || !job.getUser().equals(user)) {
+			return null;
+		}
+		return job;
+	}
+
+	/**
+	 * Asks a job to stop after its current batch, a finished job is dropped.
+	 */
+	public void cancel(Job job) {
+		job.cancelled = true;
+		if (job.isFinished()) {
+			jobs.remove(job.getId());
+		}
+	}
+
+	/**
+	 * Hides a subtree from lookups and listings until {@link #unhide}.
+	 */
+	public void hide(NodeRef nodeRef) {
+		hidden.add(nodeRef);
+		hiddenVersion.incrementAndGet();
+	}
+
+	public void unhide(NodeRef nodeRef) {
+		hidden.remove(nodeRef);
+		hiddenVersion.incrementAndGet();
+	}
+
+	public boolean isHidden(NodeRef nodeRef) {
+		return hidden.contains(nodeRef);
+	}
+
+	public boolean hasHidden() {
+		return !hidden.isEmpty();
+	}
+
+	/**
+	 * Changes whenever a subtree is hidden or shown again.
+	 */
+	public long getHiddenVersion() {
+		return hiddenVersion.get();
+	}
+
+	private void expire() {
+		long now = System.currentTimeMillis();
+		for (Job job : jobs.values()) {
+			if (job.isFinished() && now - job.getFinished() > retentionMillis) {
+				jobs.remove(job.getId());
+			}
+		}
+	}
+
+	public void destroy() {
+		for (Job job : jobs.values()) {
+			job.cancelled = true;
+		}
+		executor.shutdownNow();
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public void setRetentionMillis(long retentionMillis) {
+		this.retentionMillis = retentionMillis;
+	}
+}
@@ -0,0 +1,78 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.json.JSONException;
+import org.json.simple.JSONValue;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+/**
+ * Progress of a job of the {@link JobRegistry}, delete cancels it. Only the
+ * user that started a job can see it.
+ */
+public class JobResource extends AbstractIOResource {
+	protected static final String PARAM_ID = "id";
+
+	@Override
+	public void doGet(WebScriptRequest req, WebScriptResponse res)
+			throws IOException, JSONException {
+		res.setContentType(JSON_MIMETYPE);
+		res.setContentEncoding(DEFAULT_ENCODING);
+		res.setStatus(Status.STATUS_OK);
+
+		JobRegistry.Job job = getJob(req, res);
+		if (job == null) {
+			return;
+		}
+
+		Map<String, Object> jsonResponse = new HashMap<String, Object>();
+		jsonResponse.put("id", job.getId());
+		jsonResponse.put("type", job.getType());
+		jsonResponse.put("state", job.getState());
+		jsonResponse.put("done", Long.valueOf(job.getDone()));
+		if (job.getTotal() >= 0) {
+			jsonResponse.put("total", Long.valueOf(job.getTotal()));
+		}
+		if (job.getResult() != null) {
+			jsonResponse.put("uuid", job.getResult());
+		}
+		if (job.getErrno() != null) {
+			jsonResponse.put("errno", job.getErrno());
+			jsonResponse.put("message", job.getMessage());
+		}
+		jsonResponse.put("started", formatIsoUTC(new Date(job.getStarted())));
+		if (job.getFinished() != 0) {
+			jsonResponse.put("finished",
+					formatIsoUTC(new Date(job.getFinished())));
+		}
+		JSONValue.writeJSONString(jsonResponse, res.getWriter());
+	}
+
+	@Override
+	public void doDelete(WebScriptRequest req, WebScriptResponse res)
+			throws IOException, JSONException {
+		res.setContentType(JSON_MIMETYPE);
+		res.setContentEncoding(DEFAULT_ENCODING);
+		res.setStatus(Status.STATUS_OK);
+
+		JobRegistry.Job job = getJob(req, res);
+		if (job != null) {
+			jobRegistry.cancel(job);
+		}
+	}
+
+	private JobRegistry.Job getJob(WebScriptRequest req, WebScriptResponse res) {
+		JobRegistry.Job job = jobRegistry.get(req.getParameter(PARAM_ID),
+				AuthenticationUtil.getFullyAuthenticatedUser());
+		if (job == null) {
+			sendError(res, "no such job", ERROR_NOENT, Status.STATUS_NOT_FOUND);
+		}
+		return job;
+	}
+}
@@ -0,0 +1,84 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.json.simple.JSONValue;
+
+/**
+ * JSON output, values are written by json-simple like before.
+ */
+public class JsonResponseWriter extends ResponseWriter {
+	private final Writer out;
+	// per open container, true until the first element is written
+	private final Deque<Boolean> first = new ArrayDeque<Boolean>();
+	private final Deque<Character> closers = new ArrayDeque<Character>();
+	private boolean afterName;
+
+	public JsonResponseWriter(Writer out) {
+		this.out = out;
+	}
+
+	private void separate() throws IOException {
+		if (afterName) {
+			afterName = false;
+			return;
+		}
+		if (!first.isEmpty()) {
+			if (first.pop().booleanValue()) {
+				first.push(Boolean.FALSE);
+			} else {
+				first.push(Boolean.FALSE);
+				out.write(',');
+			}
+		}
+	}
+
+	private ResponseWriter begin(char open, char close) throws IOException {
+		separate();
+		out.write(open);
+		first.push(Boolean.TRUE);
+		closers.push(Character.valueOf(close));
+		return this;
+	}
+
+	@Override
+	public ResponseWriter beginObject() throws IOException {
+		return begin('{', '}');
+	}
+
+	@Override
+	public ResponseWriter beginArray() throws IOException {
+		return begin('[', ']');
+	}
+
+	@Override
+	public ResponseWriter end() throws IOException {
+		first.pop();
+		out.write(closers.pop().charValue());
+		return this;
+	}
+
+	@Override
+	public ResponseWriter name(String name) throws IOException {
+		separate();
+		out.write(JSONValue.toJSONString(name));
+		out.write(':');
+		afterName = true;
+		return this;
+	}
+
+	@Override
+	public ResponseWriter value(Object value) throws IOException {
+		separate();
+		JSONValue.writeJSONString(value, out);
+		return this;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+}
@@ -0,0 +1,84 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Small synchronized LRU map used for the node local caches of this module.
+ */
+public class LruCache<K, V> {
+	private final int maxSize;
+	private final LinkedHashMap<K, V> map;
+
+	public LruCache(int maxSize) {
+		this.maxSize = maxSize;
+		// access order so that get() refreshes an entry
+		this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				if (size() > LruCache.this.maxSize) {
+					onEvict(eldest.getKey(), eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public synchronized V get(K key) {
+		return map.get(key);
+	}
+
+	public synchronized void put(K key, V value) {
+		map.put(key, value);
+	}
+
+	public synchronized V remove(K key) {
+		return map.remove(key);
+	}
+
+	public synchronized boolean containsKey(K key) {
+		return map.containsKey(key);
+	}
+
+	/**
+	 * Removes and returns the least recently used value, null if the cache
+	 * is empty. {@link #onEvict} is not called, the caller takes the value.
+	 */
+	public synchronized V removeEldest() {
+		Iterator<V> values = map.values().iterator();
+		if (!values.hasNext()) {
+			return null;
+		}
+		V value = values.next();
+		values.remove();
+		return value;
+	}
+
+	public synchronized List<K> keys() {
+		return new ArrayList<K>(map.keySet());
+	}
+
+	public synchronized int size() {
+		return map.size();
+	}
+
+	public synchronized void clear() {
+		map.clear();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Called with the lock held when the eldest entry is dropped.
+	 */
+	protected void onEvict(K key, V value) {
+	}
+}
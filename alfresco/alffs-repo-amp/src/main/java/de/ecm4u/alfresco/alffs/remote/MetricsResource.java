@@ -0,0 +1,25 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.IOException;
+
+import org.json.JSONException;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+/**
+ * The {@link IOMetrics} of this server in the prometheus text format.
+ */
+public class MetricsResource extends AbstractIOResource {
+	protected static final String PROMETHEUS_MIMETYPE = "text/plain; version=0.0.4";
+
+	@Override
+	public void doGet(WebScriptRequest req, WebScriptResponse res)
+			throws IOException, JSONException {
+		res.setContentType(PROMETHEUS_MIMETYPE);
+		res.setContentEncoding(DEFAULT_ENCODING);
+		res.setStatus(Status.STATUS_OK);
+
+		ioMetrics.writePrometheus(res.getWriter());
+	}
+}
@@ -0,0 +1,275 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.node.NodeServicePolicies.OnDeleteNodePolicy;
+import org.alfresco.repo.node.NodeServicePolicies.OnMoveNodePolicy;
+import org.alfresco.repo.node.NodeServicePolicies.OnUpdatePropertiesPolicy;
+import org.alfresco.repo.policy.Behaviour.NotificationFrequency;
+import org.alfresco.repo.policy.JavaBehaviour;
+import org.alfresco.repo.policy.PolicyComponent;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.tenant.TenantUtil;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.EqualsHelper;
+
+/**
+ * Bounded path to noderef cache for {@link AbstractIOResource#locateNode}.
+ *
+ * Paths are resolved one segment at a time so that every cached path knows
+ * the noderefs of all of its segments. A rename, move or delete of any of
+ * those nodes drops all paths running through it, once in the changing
+ * transaction and again after its commit, because a concurrent reader may
+ * have cached the old chain in between. A hit is checked against the name
+ * and primary parent of its last segment.
+ *
+ * The cache is local to this server and only sees changes made here. Keys are
+ * prefixed with the tenant domain and the user, a chain is only reused by the
+ * user who could resolve it.
+ */
+public class PathCache implements OnMoveNodePolicy, OnDeleteNodePolicy,
+		OnUpdatePropertiesPolicy {
+	private static final String SEP = "/";
+	private static final String RESOURCE_KEY = PathCache.class.getName()
+			+ ".touched";
+
+	private ServiceRegistry serviceRegistry;
+	private PolicyComponent policyComponent;
+	private int maxSize = 10000;
+
+	private Entries entries;
+	// node -> keys of all cached paths running through that node
+	private final Map<NodeRef, Set<String>> index = new HashMap<NodeRef, Set<String>>();
+
+	private class Entries extends LruCache<String, NodeRef[]> {
+		Entries(int maxSize) {
+			super(maxSize);
+		}
+
+		@Override
+		protected void onEvict(String key, NodeRef[] chain) {
+			unindex(key, chain);
+		}
+	}
+
+	/**
+	 * Nodes renamed, moved or deleted by a transaction, dropped again once it
+	 * committed.
+	 */
+	private class TouchedNodes extends TransactionListenerAdapter {
+		private final Set<NodeRef> nodeRefs = new HashSet<NodeRef>();
+
+		@Override
+		public void afterCommit() {
+			for (NodeRef nodeRef : nodeRefs) {
+				invalidate(nodeRef);
+			}
+		}
+	}
+
+	public void init() {
+		entries = new Entries(maxSize);
+		policyComponent.bindClassBehaviour(OnMoveNodePolicy.QNAME,
+				ContentModel.TYPE_CMOBJECT, new JavaBehaviour(this,
+						"onMoveNode", NotificationFrequency.EVERY_EVENT));
+		policyComponent.bindClassBehaviour(OnDeleteNodePolicy.QNAME,
+				ContentModel.TYPE_CMOBJECT, new JavaBehaviour(this,
+						"onDeleteNode", NotificationFrequency.EVERY_EVENT));
+		policyComponent.bindClassBehaviour(OnUpdatePropertiesPolicy.QNAME,
+				ContentModel.TYPE_CMOBJECT, new JavaBehaviour(this,
+						"onUpdateProperties", NotificationFrequency.EVERY_EVENT));
+	}
+
+	/**
+	 * Resolves the path segments below baseRef, reusing the longest cached
+	 * prefix. Returns null if the path does not exist.
+	 */
+	public NodeRef resolve(NodeRef baseRef, List<String> parts) {
+		// keyed by user and base node, a chain only holds for the user who
+		// could resolve it
+		String prefix = TenantUtil.getCurrentDomain() + "|"
+				+ AuthenticationUtil.getRunAsUser() + "|" + baseRef + "|";
+
+		String[] keys = new String[parts.size()];
+		StringBuilder sb = new StringBuilder(prefix);
+		for (int i = 0; i < parts.size(); i++) {
+			sb.append(SEP).append(parts.get(i));
+			keys[i] = sb.toString();
+		}
+
+		// longest cached prefix
+		int start = parts.size() - 1;
+		NodeRef[] chain = null;
+		for (; start >= 0; start--) {
+			chain = entries.get(keys[start]);
+			if (chain != null) {
+				// the node may be gone by a rolled back transaction or
+				// changed outside of this server
+				if (isCurrent(baseRef, chain, start, parts.get(start))) {
+					break;
+				}
+				invalidate(chain[start]);
+				chain = null;
+			}
+		}
+		if (start == parts.size() - 1) {
+			return chain[start];
+		}
+
+		NodeRef[] resolved = new NodeRef[parts.size()];
+		NodeRef current = baseRef;
+		if (chain != null) {
+			System.arraycopy(chain, 0, resolved, 0, start + 1);
+			current = chain[start];
+		}
+		for (int i = start + 1; i < parts.size(); i++) {
+			current = serviceRegistry.getFileFolderService().searchSimple(
+					current, parts.get(i));
+			if (current == null) {
+				return null;
+			}
+			resolved[i] = current;
+			NodeRef[] segmentChain = new NodeRef[i + 1];
+			System.arraycopy(resolved, 0, segmentChain, 0, i + 1);
+			put(keys[i], segmentChain);
+		}
+		return current;
+	}
+
+	/**
+	 * True if the segment still exists under its cached name and parent.
+	 */
+	private boolean isCurrent(NodeRef baseRef, NodeRef[] chain, int i,
+			String name) {
+		NodeService nodeService = serviceRegistry.getNodeService();
+		NodeRef nodeRef = chain[i];
+		if (!nodeService.exists(nodeRef)) {
+			return false;
+		}
+		// names are case insensitive like in searchSimple
+		Serializable current = nodeService.getProperty(nodeRef,
+				ContentModel.PROP_NAME);
+		if (current == null || !name.equalsIgnoreCase(current.toString())) {
+			return false;
+		}
+		ChildAssociationRef parent = nodeService.getPrimaryParent(nodeRef);
+		NodeRef expected = i == 0 ? baseRef : chain[i - 1];
+		return parent != null && expected.equals(parent.getParentRef());
+	}
+
+	/**
+	 * Drops the paths through the node now and again after the commit of
+	 * the current transaction.
+	 */
+	private void touch(NodeRef nodeRef) {
+		invalidate(nodeRef);
+		if (AlfrescoTransactionSupport.getTransactionId() == null) {
+			return;
+		}
+		TouchedNodes touched = (TouchedNodes) AlfrescoTransactionSupport
+				.getResource(RESOURCE_KEY);
+		if (touched == null) {
+			touched = new TouchedNodes();
+			AlfrescoTransactionSupport.bindResource(RESOURCE_KEY, touched);
+			AlfrescoTransactionSupport.bindListener(touched);
+		}
+		touched.nodeRefs.add(nodeRef);
+	}
+
+	public void invalidate(NodeRef nodeRef) {
+		synchronized (entries) {
+			Set<String> keys = index.remove(nodeRef);
+			if (keys == null) {
+				return;
+			}
+			for (String key : keys) {
+				NodeRef[] chain = entries.remove(key);
+				if (chain != null) {
+					unindex(key, chain);
+				}
+			}
+		}
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+			index.clear();
+		}
+	}
+
+	private void put(String key, NodeRef[] chain) {
+		synchronized (entries) {
+			NodeRef[] old = entries.remove(key);
+			if (old != null) {
+				unindex(key, old);
+			}
+			for (NodeRef ref : chain) {
+				Set<String> keys = index.get(ref);
+				if (keys == null) {
+					keys = new HashSet<String>();
+					index.put(ref, keys);
+				}
+				keys.add(key);
+			}
+			entries.put(key, chain);
+		}
+	}
+
+	private void unindex(String key, NodeRef[] chain) {
+		for (NodeRef ref : chain) {
+			Set<String> keys = index.get(ref);
+			if (keys != null) {
+				keys.remove(key);
+				if (keys.isEmpty()) {
+					index.remove(ref);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void onMoveNode(ChildAssociationRef oldChildAssocRef,
+			ChildAssociationRef newChildAssocRef) {
+		touch(oldChildAssocRef.getChildRef());
+	}
+
+	@Override
+	public void onDeleteNode(ChildAssociationRef childAssocRef,
+			boolean isNodeArchived) {
+		touch(childAssocRef.getChildRef());
+	}
+
+	@Override
+	public void onUpdateProperties(NodeRef nodeRef,
+			Map<QName, Serializable> before, Map<QName, Serializable> after) {
+		if (!EqualsHelper.nullSafeEquals(before.get(ContentModel.PROP_NAME),
+				after.get(ContentModel.PROP_NAME))) {
+			touch(nodeRef);
+		}
+	}
+
+	public void setServiceRegistry(ServiceRegistry serviceRegistry) {
+		this.serviceRegistry = serviceRegistry;
+	}
+
+	public void setPolicyComponent(PolicyComponent policyComponent) {
+		this.policyComponent = policyComponent;
+	}
+
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+}
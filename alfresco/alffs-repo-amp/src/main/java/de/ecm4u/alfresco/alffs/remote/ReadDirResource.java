@@ -1,11 +1,12 @@
 package de.ecm4u.alfresco.alffs.remote;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.alfresco.query.PagingRequest;
+import org.alfresco.query.PagingResults;
 import org.alfresco.service.cmr.model.FileInfo;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.apache.commons.lang.StringUtils;
@@ -16,6 +17,9 @@ import org.springframework.extensions.webscripts.WebScriptRequest;
 import org.springframework.extensions.webscripts.WebScriptResponse;
 
 public class ReadDirResource extends AbstractIOResource {
+	// children listed and flushed per query of an unpaged readdir
+	private static final int PAGE_SIZE = 1000;
+
 	@Override
 	public void doGet(WebScriptRequest req, WebScriptResponse res)
 			throws IOException, JSONException {
@@ -25,8 +29,14 @@ public class ReadDirResource extends AbstractIOResource {
 
 		String base = req.getParameter(PARAM_BASE);
 		String path = req.getParameter(PARAM_PATH);
+		String uuid = req.getParameter(PARAM_UUID);
+		// plus mode adds the full stat record to every dirent
+		boolean plus = MODE_PLUS.equals(req.getParameter(PARAM_MODE));
+		// optional paging, cursor is returned by the previous page
+		String maxStr = req.getParameter(PARAM_MAX);
+		String cursor = req.getParameter(PARAM_CURSOR);
 
-		if (StringUtils.isBlank(base) || StringUtils.isBlank(path)) {
+		if (StringUtils.isBlank(base) || (StringUtils.isBlank(path) && StringUtils.isBlank(uuid))) {
 			res.setStatus(Status.STATUS_BAD_REQUEST);
 			Map<String, Object> jsonResponse = new HashMap<String, Object>();
 			jsonResponse.put("message", "garbage in garbage out");
@@ -34,7 +44,31 @@ public class ReadDirResource extends AbstractIOResource {
 			return;
 		}
 
-		NodeRef nodeRef = locateNode(base, path);
+		int max = 0;
+		int skip = 0;
+		String queryExecutionId = null;
+		try {
+			if (StringUtils.isNotBlank(maxStr)) {
+				max = Integer.parseInt(maxStr);
+			}
+			if (StringUtils.isNotBlank(cursor)) {
+				// cursor is <skip>[_<queryExecutionId>]
+				String[] parts = StringUtils.split(cursor, "_", 2);
+				skip = Integer.parseInt(parts[0]);
+				if (parts.length > 1) {
+					queryExecutionId = parts[1];
+				}
+			}
+		} catch (NumberFormatException e) {
+			sendError(res, "invalid max or cursor", ERROR_INVAL);
+			return;
+		}
+		if (max < 0 || skip < 0) {
+			sendError(res, "invalid max or cursor", ERROR_INVAL);
+			return;
+		}
+
+		NodeRef nodeRef = locateNode(base, path, uuid);
 		if (nodeRef == null) {
 			res.setStatus(Status.STATUS_NOT_FOUND);
 			Map<String, Object> jsonResponse = new HashMap<String, Object>();
@@ -43,14 +77,68 @@ public class ReadDirResource extends AbstractIOResource {
 			return;
 		}
 
-		Map<String, Object> jsonResponse = new HashMap<String, Object>();
-		
-		
-		
-		List<FileInfo> list = serviceRegistry.getFileFolderService().list(nodeRef);
-		List<Map<String, Object>> dirents = new ArrayList<Map<String, Object>>(list.size());
-		for(FileInfo finfo: list) {
-			Map<String, Object> ent = new HashMap<String, Object>();
+		// the transaction id of the folder changes with its children, see
+		// DirectoryMtime, and is stored in the repository so changes made on
+		// other servers of a cluster are seen as well. the stats of a plus
+		// listing change without the folder, it is always sent in full
+		if (!plus) {
+			String etag = getNodeEtag(nodeRef) + ".names";
+			if (jobRegistry != null) {
+				etag += "." + jobRegistry.getHiddenVersion();
+			}
+			if (StringUtils.isNotBlank(maxStr)) {
+				etag += "." + maxStr + "." + StringUtils.defaultString(cursor);
+			}
+			if (isNotModified(req, res, etag)) {
+				return;
+			}
+		}
+
+		// the requested window, or without max the whole folder in pages of
+		// PAGE_SIZE, so that only one page of children is held at a time.
+		// every page runs the canned query again, children added or removed
+		// meanwhile may shift the following pages like with a paging client
+		int pageSize = max > 0 ? max : PAGE_SIZE;
+		ResponseWriter out = openResponseWriter(req, res);
+		out.beginObject().name("dirents").beginArray();
+		int total = 0;
+		boolean hasMore;
+		do {
+			PagingResults<FileInfo> page = serviceRegistry
+					.getFileFolderService().list(nodeRef, true, true, null,
+							SORT_BY_NAME,
+							new PagingRequest(skip, pageSize, queryExecutionId));
+			queryExecutionId = page.getQueryExecutionId();
+			hasMore = page.hasMoreItems();
+			total += writeDirents(page.getPage(), plus, out);
+			skip += page.getPage().size();
+			out.flush();
+		} while (max == 0 && hasMore);
+		out.end().member("total", total);
+		if (max > 0) {
+			out.member("hasMore", hasMore);
+			if (hasMore) {
+				String next = Integer.toString(skip);
+				if (queryExecutionId != null) {
+					next += "_" + queryExecutionId;
+				}
+				out.member("cursor", next);
+			}
+		}
+		out.end().flush();
+	}
+
+	/**
+	 * Writes the visible children of a page, returns how many.
+	 */
+	private int writeDirents(List<FileInfo> children, boolean plus,
+			ResponseWriter out) throws IOException {
+		int count = 0;
+		for (FileInfo finfo : children) {
+			if (jobRegistry != null && jobRegistry.isHidden(finfo.getNodeRef())) {
+				continue;
+			}
+			Map<String, Object> ent = new HashMap<String, Object>(8);
 			ent.put("name", finfo.getName());
 			if (finfo.isLink()) {
 				ent.put("type", S_IFLNK);
@@ -59,13 +147,13 @@ public class ReadDirResource extends AbstractIOResource {
 			} else {
 				ent.put("type", S_IFREG);
 			}
-			
-			dirents.add(ent);
+			if (plus) {
+				ent.put("stat", marshalStat(finfo));
+			}
+			out.value(ent);
+			count++;
 		}
-		
-		jsonResponse.put("total", dirents.size());
-		jsonResponse.put("dirents", dirents);
-		
-		JSONValue.writeJSONString(jsonResponse, res.getWriter());
+		return count;
 	}
+
 }
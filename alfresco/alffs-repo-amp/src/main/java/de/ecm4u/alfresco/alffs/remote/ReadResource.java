@@ -1,11 +1,20 @@
 package de.ecm4u.alfresco.alffs.remote;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import javax.servlet.http.HttpServletRequest;
 
 import org.alfresco.model.ContentModel;
+import org.alfresco.repo.content.filestore.FileContentReader;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
 import org.alfresco.service.cmr.repository.ContentReader;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.apache.commons.lang.StringUtils;
@@ -13,8 +22,47 @@ import org.json.JSONException;
 import org.springframework.extensions.webscripts.Status;
 import org.springframework.extensions.webscripts.WebScriptRequest;
 import org.springframework.extensions.webscripts.WebScriptResponse;
+import org.springframework.extensions.webscripts.WrappingWebScriptRequest;
+import org.springframework.extensions.webscripts.servlet.WebScriptServletRequest;
+import org.springframework.extensions.webscripts.servlet.WebScriptServletResponse;
 
 public class ReadResource extends AbstractIOResource {
+	protected static final String HEADER_RANGE = "Range";
+	protected static final String HEADER_CONTENT_RANGE = "Content-Range";
+
+	// more ranges than this are answered with the whole content
+	private static final int MAX_RANGES = 32;
+
+	// tomcat sendfile support, only available on the nio and apr connectors
+	static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+	static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+	static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+	static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+	private static final int STATUS_RANGE_NOT_SATISFIABLE = 416;
+
+	private ContentBlockCache blockCache;
+	private ContentEncodingCache encodingCache;
+
+	private static class ByteRange {
+		private final long start;
+		// inclusive like in the http header
+		private final long end;
+
+		ByteRange(long start, long end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		long length() {
+			return end - start + 1;
+		}
+
+		String contentRange(long size) {
+			return "bytes " + start + "-" + end + "/" + size;
+		}
+	}
+
 	@Override
 	public void doGet(WebScriptRequest req, WebScriptResponse res)
 			throws IOException, JSONException {
@@ -23,17 +71,19 @@ public class ReadResource extends AbstractIOResource {
 
 		String base = req.getParameter(PARAM_BASE);
 		String path = req.getParameter(PARAM_PATH);
+		String uuid = req.getParameter(PARAM_UUID);
 		String sizeStr = req.getParameter(PARAM_SIZE);
 		String offsetStr = req.getParameter(PARAM_OFFSET);
 		String headerEtag = req.getHeader(HEADER_IF_NONE_MATCH);
+		String headerRange = req.getHeader(HEADER_RANGE);
 
-		if (StringUtils.isBlank(base) || StringUtils.isBlank(path)) {
+		if (StringUtils.isBlank(base) || (StringUtils.isBlank(path) && StringUtils.isBlank(uuid))) {
 			res.setStatus(Status.STATUS_BAD_REQUEST);
 			sendError(res, "garbage in garbage out", ERROR_IO);
 			return;
 		}
 
-		NodeRef nodeRef = locateNode(base, path);
+		NodeRef nodeRef = locateNode(base, path, uuid);
 		if (nodeRef == null) {
 			sendError(res, "no such file or directory", ERROR_NOENT,
 					Status.STATUS_NOT_FOUND);
@@ -48,50 +98,339 @@ public class ReadResource extends AbstractIOResource {
 		}
 
 		long size = reader.getSize();
-		long offset = 0;
-		long servedSize = 0;
-		
-		if (StringUtils.isBlank(sizeStr) && StringUtils.isBlank(offsetStr)) {
-			String url = reader.getContentData().getContentUrl();
-			String etag = encodeContentEtag(url);
-			// add etag if whole file is transfered
-			// because alfrescos content store is copy on write the content url
-			// can be used as
-			// an etag
-			if (StringUtils.isNotBlank(headerEtag)) {
-				headerEtag = headerEtag.replaceAll("\"", "");
-				// matching etag -> 304 and no content transfer
-				if (etag.equals(headerEtag)) {
-					res.setStatus(Status.STATUS_NOT_MODIFIED);
-					return;
-				}
+		// because alfrescos content store is copy on write the content url
+		// can be used as an etag
+		String etag = encodeContentEtag(reader.getContentData()
+				.getContentUrl());
+
+		if (StringUtils.isNotBlank(sizeStr) || StringUtils.isNotBlank(offsetStr)) {
+			// window given by parameters, answered with 200 as before
+			long offset;
+			long requestedSize;
+			try {
+				offset = StringUtils.isBlank(offsetStr) ? 0 : Long
+						.parseLong(offsetStr);
+				requestedSize = StringUtils.isBlank(sizeStr) ? size : Long
+						.parseLong(sizeStr);
+			} catch (NumberFormatException e) {
+				sendError(res, "invalid offset or size", ERROR_INVAL);
+				return;
+			}
+			if (offset < 0 || requestedSize < 0) {
+				sendError(res, "invalid offset or size", ERROR_INVAL);
+				return;
+			}
+			// reading at the end of the file is a short read of nothing,
+			// only a window starting behind it is unsatisfiable
+			if (offset > size) {
+				res.setStatus(STATUS_RANGE_NOT_SATISFIABLE);
+				res.setHeader(HEADER_CONTENT_RANGE, "bytes */" + size);
+				res.setHeader("Content-Length", "0");
+				return;
+			}
+			long servedSize = Math.min(requestedSize, size - offset);
+			res.setContentType(reader.getMimetype());
+			if (sendEncoded(req, res, reader, offset, servedSize)) {
+				return;
 			}
+			sendWindow(req, res, reader, offset, servedSize);
+			return;
+		}
+
+		List<ByteRange> ranges = parseRange(headerRange, size);
+		if (ranges != null) {
 			res.setHeader("Etag", "\"" + etag + "\"");
-			servedSize = size;
-		} else {
-			offset = Long.parseLong(offsetStr);
-			long requestedSize = Long.parseLong(sizeStr);
-			if(offset + requestedSize > size) {
-				servedSize = size - offset;
+			if (ranges.isEmpty()) {
+				res.setStatus(STATUS_RANGE_NOT_SATISFIABLE);
+				res.setHeader(HEADER_CONTENT_RANGE, "bytes */" + size);
+				res.setHeader("Content-Length", "0");
+				return;
+			}
+			res.setStatus(206);
+			if (ranges.size() == 1) {
+				ByteRange range = ranges.get(0);
+				res.setContentType(reader.getMimetype());
+				res.setHeader(HEADER_CONTENT_RANGE, range.contentRange(size));
+				sendWindow(req, res, reader, range.start, range.length());
 			} else {
-				servedSize = requestedSize;
+				sendMultipart(res, reader, ranges, size);
 			}
+			return;
 		}
 
-		res.setHeader("Content-Length", "" + servedSize);
-
+		// add etag if whole file is transfered
+		if (StringUtils.isNotBlank(headerEtag)) {
+			headerEtag = headerEtag.replaceAll("\"", "");
+			// matching etag -> 304 and no content transfer
+			if (etag.equals(headerEtag)) {
+				res.setStatus(Status.STATUS_NOT_MODIFIED);
+				return;
+			}
+		}
+		res.setHeader("Etag", "\"" + etag + "\"");
+		res.setHeader("Accept-Ranges", "bytes");
 		res.setContentType(reader.getMimetype());
+		if (sendEncoded(req, res, reader, 0, size)) {
+			return;
+		}
+		sendWindow(req, res, reader, 0, size);
+	}
+
+	/**
+	 * Parses a http byte range header. Returns null if there is no usable
+	 * header, an empty list if no range can be satisfied.
+	 */
+	private List<ByteRange> parseRange(String header, long size) {
+		if (StringUtils.isBlank(header) || !header.startsWith("bytes=")) {
+			return null;
+		}
+		String[] specs = StringUtils.split(header.substring(6), ",");
+		if (specs.length == 0 || specs.length > MAX_RANGES) {
+			return null;
+		}
+		List<ByteRange> ranges = new ArrayList<ByteRange>(specs.length);
+		try {
+			for (String spec : specs) {
+				spec = spec.trim();
+				int dash = spec.indexOf('-');
+				if (dash < 0) {
+					return null;
+				}
+				String first = spec.substring(0, dash).trim();
+				String last = spec.substring(dash + 1).trim();
+				long start;
+				long end;
+				if (first.isEmpty()) {
+					// suffix range -n
+					long suffix = Long.parseLong(last);
+					if (suffix <= 0) {
+						continue;
+					}
+					start = Math.max(0, size - suffix);
+					end = size - 1;
+				} else {
+					start = Long.parseLong(first);
+					end = last.isEmpty() ? size - 1 : Long.parseLong(last);
+					if (end < start) {
+						return null;
+					}
+					end = Math.min(end, size - 1);
+				}
+				if (start < size) {
+					ranges.add(new ByteRange(start, end));
+				}
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return ranges;
+	}
+
+	/**
+	 * Sends exactly length bytes from offset. Small windows are served from
+	 * the block cache. Other file backed content is handed to the servlet
+	 * container as sendfile if it supports it, so the bytes never pass the
+	 * jvm heap. Without sendfile large windows are sent from shared mappings.
+	 */
+	private void sendWindow(WebScriptRequest req, WebScriptResponse res,
+			ContentReader reader, long offset, long length) throws IOException {
+		res.setHeader("Content-Length", "" + length);
+		if (length == 0) {
+			return;
+		}
+		addBytesOut(length);
+
+		if (blockCache != null
+				&& blockCache.isCacheable(length)
+				&& blockCache.send(reader, offset, length, getClient(req),
+						Channels.newChannel(res.getOutputStream()))) {
+			return;
+		}
+
+		// the connector sends the file from the page cache to the socket,
+		// the servlet stream would copy it through heap arrays
+		if (sendfile(getSendfileRequest(req, res), reader, offset, length)) {
+			return;
+		}
+
 		FileChannel fch = reader.getFileChannel();
 		try {
 			WritableByteChannel wch = Channels
 					.newChannel(res.getOutputStream());
-			fch.transferTo(offset, size, wch);
+			transfer(fch, offset, length, wch);
+		} finally {
+			fch.close();
+		}
+	}
+
+	/**
+	 * Sends the window compressed if the client accepts an encoding and the
+	 * mimetype is worth it. Whole contents come from the cache of compressed
+	 * copies, other windows are compressed on the fly without a length.
+	 * Returns false if nothing was sent.
+	 */
+	private boolean sendEncoded(WebScriptRequest req, WebScriptResponse res,
+			ContentReader reader, long offset, long length) throws IOException {
+		if (encodingCache == null) {
+			return false;
+		}
+		String encoding = encodingCache.negotiate(
+				req.getHeader(HEADER_ACCEPT_ENCODING), reader.getMimetype(),
+				length);
+		// the response differs by accept encoding, also when not encoded
+		res.setHeader(HEADER_VARY, HEADER_ACCEPT_ENCODING);
+		if (encoding == null) {
+			return false;
+		}
+
+		if (offset == 0 && length == reader.getSize()
+				&& encodingCache.isCacheable(length)) {
+			FileChannel fch = encodingCache.openEncoded(reader, encoding);
+			if (fch == null) {
+				// does not compress
+				return false;
+			}
+			try {
+				long encodedLength = fch.size();
+				res.setHeader(HEADER_CONTENT_ENCODING, encoding);
+				res.setHeader("Content-Length", "" + encodedLength);
+				addBytesOut(encodedLength);
+				transfer(fch, 0, encodedLength,
+						Channels.newChannel(res.getOutputStream()));
+			} finally {
+				fch.close();
+			}
+			return true;
+		}
+
+		res.setHeader(HEADER_CONTENT_ENCODING, encoding);
+		addBytesOut(length);
+		FileChannel fch = reader.getFileChannel();
+		try {
+			// one deflater per window, released here and not by finalization
+			ContentEncodingCache.EncodingOutputStream out = encodingCache
+					.encode(res.getOutputStream(), encoding);
+			try {
+				transfer(fch, offset, length, Channels.newChannel(out));
+				out.finish();
+			} finally {
+				out.end();
+			}
+		} finally {
+			fch.close();
+		}
+		return true;
+	}
+
+	private void sendMultipart(WebScriptResponse res, ContentReader reader,
+			List<ByteRange> ranges, long size) throws IOException {
+		String boundary = UUID.randomUUID().toString();
+		String mimetype = reader.getMimetype();
+
+		List<byte[]> partHeaders = new ArrayList<byte[]>(ranges.size());
+		long contentLength = 0;
+		for (ByteRange range : ranges) {
+			byte[] header = ("\r\n--" + boundary + "\r\nContent-Type: "
+					+ mimetype + "\r\n" + HEADER_CONTENT_RANGE + ": "
+					+ range.contentRange(size) + "\r\n\r\n")
+					.getBytes("US-ASCII");
+			partHeaders.add(header);
+			contentLength += header.length + range.length();
+		}
+		byte[] trailer = ("\r\n--" + boundary + "--\r\n").getBytes("US-ASCII");
+		contentLength += trailer.length;
+
+		res.setContentType("multipart/byteranges; boundary=" + boundary);
+		res.setHeader("Content-Length", "" + contentLength);
+		addBytesOut(contentLength);
+
+		OutputStream out = res.getOutputStream();
+		WritableByteChannel wch = Channels.newChannel(out);
+		FileChannel fch = reader.getFileChannel();
+		try {
+			for (int i = 0; i < ranges.size(); i++) {
+				ByteRange range = ranges.get(i);
+				out.write(partHeaders.get(i));
+				transfer(fch, range.start, range.length(), wch);
+			}
+			out.write(trailer);
 		} finally {
 			fch.close();
 		}
+	}
+
+	private void transfer(FileChannel fch, long offset, long length,
+			WritableByteChannel wch) throws IOException {
+		long position = offset;
+		long end = offset + length;
+		// transferTo may move less than asked for
+		while (position < end) {
+			long transfered = fch.transferTo(position, end - position, wch);
+			if (transfered <= 0) {
+				break;
+			}
+			position += transfered;
+		}
+	}
+
+	/**
+	 * Hands the window of a content file to the sendfile support of the
+	 * connector. Returns false if the request has none or the content is not
+	 * a file.
+	 */
+	static boolean sendfile(HttpServletRequest httpReq, ContentReader reader,
+			long offset, long length) throws IOException {
+		if (httpReq == null || !(reader instanceof FileContentReader)) {
+			return false;
+		}
+		File file = ((FileContentReader) reader).getFile();
+		httpReq.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+		httpReq.setAttribute(SENDFILE_START, Long.valueOf(offset));
+		httpReq.setAttribute(SENDFILE_END, Long.valueOf(offset + length));
+		return true;
+	}
+
+	private HttpServletRequest getSendfileRequest(WebScriptRequest req,
+			WebScriptResponse res) {
+		// a buffered response would be written after the webscript returns
+		if (!(res instanceof WebScriptServletResponse)) {
+			return null;
+		}
+		HttpServletRequest httpReq = getHttpServletRequest(req);
+		if (httpReq == null
+				|| !Boolean.TRUE.equals(httpReq.getAttribute(SENDFILE_SUPPORT))) {
+			return null;
+		}
+		return httpReq;
+	}
+
+	private HttpServletRequest getHttpServletRequest(WebScriptRequest req) {
+		WebScriptRequest next = req;
+		while (next instanceof WrappingWebScriptRequest) {
+			next = ((WrappingWebScriptRequest) next).getNext();
+		}
+		if (!(next instanceof WebScriptServletRequest)) {
+			return null;
+		}
+		return ((WebScriptServletRequest) next).getHttpServletRequest();
+	}
+
+	/**
+	 * The user and remote address of the request, so that two clients reading
+	 * the same content are seen as two streams.
+	 */
+	private String getClient(WebScriptRequest req) {
+		String user = AuthenticationUtil.getRunAsUser();
+		HttpServletRequest httpReq = getHttpServletRequest(req);
+		return httpReq != null ? user + "@" + httpReq.getRemoteAddr() : user;
+	}
 
-		return;
+	public void setBlockCache(ContentBlockCache blockCache) {
+		this.blockCache = blockCache;
 	}
 
-	
+
+	public void setEncodingCache(ContentEncodingCache encodingCache) {
+		this.encodingCache = encodingCache;
+	}
 }
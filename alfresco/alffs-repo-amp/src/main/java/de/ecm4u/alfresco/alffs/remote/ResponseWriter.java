@@ -0,0 +1,33 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.IOException;
+
+/**
+ * Streaming writer for structured responses, one implementation per wire
+ * format. Objects and arrays are opened and closed explicitly so that large
+ * listings can be written without building them in memory first. Values may be
+ * strings, numbers, booleans, null, maps and collections of those.
+ */
+public abstract class ResponseWriter {
+	public abstract ResponseWriter beginObject() throws IOException;
+
+	public abstract ResponseWriter beginArray() throws IOException;
+
+	/**
+	 * Closes the innermost open object or array.
+	 */
+	public abstract ResponseWriter end() throws IOException;
+
+	/**
+	 * Writes the name of the next member of the open object.
+	 */
+	public abstract ResponseWriter name(String name) throws IOException;
+
+	public abstract ResponseWriter value(Object value) throws IOException;
+
+	public abstract void flush() throws IOException;
+
+	public ResponseWriter member(String name, Object value) throws IOException {
+		return name(name).value(value);
+	}
+}
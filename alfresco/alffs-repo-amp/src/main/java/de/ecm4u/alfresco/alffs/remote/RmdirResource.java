@@ -1,12 +1,20 @@
 package de.ecm4u.alfresco.alffs.remote;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
-import org.alfresco.model.ContentModel;
+import org.alfresco.query.PagingRequest;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.model.FileInfo;
 import org.alfresco.service.cmr.repository.NodeRef;
-import org.alfresco.service.namespace.QName;
+import org.alfresco.service.cmr.repository.NodeService;
 import org.apache.commons.lang.StringUtils;
 import org.json.JSONException;
 import org.json.simple.JSONValue;
@@ -14,7 +22,22 @@ import org.springframework.extensions.webscripts.Status;
 import org.springframework.extensions.webscripts.WebScriptRequest;
 import org.springframework.extensions.webscripts.WebScriptResponse;
 
+/**
+ * Removes an empty directory. With recursive=true the directory is renamed
+ * and hidden at once and its tree is deleted by a job of the
+ * {@link JobRegistry}, leaves first in one transaction per batch.
+ */
 public class RmdirResource extends AbstractIOResource {
+	protected static final String PARAM_RECURSIVE = "recursive";
+
+	protected static final String JOB_TYPE = "rmdir";
+
+	// name of a directory while its tree is deleted, frees the old name
+	private static final String DELETING_PREFIX = ".alffs-deleting-";
+
+	// nodes deleted per transaction of a job
+	private static final int BATCH_SIZE = 200;
+
 	@Override
 	public void doDelete(WebScriptRequest req, WebScriptResponse res)
 			throws IOException, JSONException {
@@ -24,8 +47,9 @@ public class RmdirResource extends AbstractIOResource {
 
 		String base = req.getParameter(PARAM_BASE);
 		String path = req.getParameter(PARAM_PATH);
+		String uuid = req.getParameter(PARAM_UUID);
 
-		if (StringUtils.isBlank(base) || StringUtils.isBlank(path)) {
+		if (StringUtils.isBlank(base) || (StringUtils.isBlank(path) && StringUtils.isBlank(uuid))) {
 			res.setStatus(Status.STATUS_BAD_REQUEST);
 			Map<String, Object> jsonResponse = new HashMap<String, Object>();
 			jsonResponse.put("message", "garbage in garbage out");
@@ -33,7 +57,7 @@ public class RmdirResource extends AbstractIOResource {
 			return;
 		}
 
-		NodeRef nodeRef = locateNode(base, path);
+		NodeRef nodeRef = locateNode(base, path, uuid);
 		if (nodeRef == null) {
 			res.setStatus(Status.STATUS_NOT_FOUND);
 			Map<String, Object> jsonResponse = new HashMap<String, Object>();
@@ -42,27 +66,18 @@ public class RmdirResource extends AbstractIOResource {
 			return;
 		}
 
-		QName type = serviceRegistry.getNodeService().getType(nodeRef);
-		if (serviceRegistry.getDictionaryService().isSubClass(type,
-				ContentModel.TYPE_FOLDER)) {
-			// check if empty
-			int childs = serviceRegistry.getNodeService().countChildAssocs(nodeRef, true);
-			if(childs == 0) {
-				serviceRegistry.getNodeService().deleteNode(nodeRef);
-			} else {
-				res.setStatus(Status.STATUS_BAD_REQUEST);
+		try {
+			if ("true".equals(req.getParameter(PARAM_RECURSIVE))) {
+				JobRegistry.Job job = removeTree(base, nodeRef);
+				res.setStatus(Status.STATUS_ACCEPTED);
 				Map<String, Object> jsonResponse = new HashMap<String, Object>();
-				jsonResponse.put("message", "directory not empty");
-				jsonResponse.put("errno", "ENOTEMPTY");
-				JSONValue.writeJSONString(jsonResponse, res.getWriter());				
+				jsonResponse.put("job", job.getId());
+				JSONValue.writeJSONString(jsonResponse, res.getWriter());
 				return;
 			}
-		} else {
-			res.setStatus(Status.STATUS_BAD_REQUEST);
-			Map<String, Object> jsonResponse = new HashMap<String, Object>();
-			jsonResponse.put("message", "not a directory");
-			jsonResponse.put("errno", "ENOTDIR");
-			JSONValue.writeJSONString(jsonResponse, res.getWriter());
+			removeDirectory(nodeRef);
+		} catch (IOResourceException e) {
+			sendError(res, e);
 			return;
 		}
 
@@ -72,4 +87,112 @@ public class RmdirResource extends AbstractIOResource {
 
 	}
 
+	private JobRegistry.Job removeTree(String base, final NodeRef nodeRef)
+			throws IOResourceException {
+		if (!isDirectory(serviceRegistry.getNodeService().getType(nodeRef))) {
+			throw new IOResourceException("not a directory", ERROR_NOTDIR);
+		}
+		if (nodeRef.equals(resolveBase(base))) {
+			throw new IOResourceException("can not remove the base directory",
+					ERROR_INVAL);
+		}
+
+		// the rename is committed before the job starts, so the name can be
+		// reused at once and the job does not race the request transaction
+		final RetryingTransactionHelper txnHelper = serviceRegistry
+				.getTransactionService().getRetryingTransactionHelper();
+		jobRegistry.hide(nodeRef);
+		try {
+			txnHelper.doInTransaction(new RetryingTransactionCallback<Void>() {
+				@Override
+				public Void execute() throws Throwable {
+					serviceRegistry.getFileFolderService().rename(nodeRef,
+							DELETING_PREFIX + nodeRef.getId());
+					return null;
+				}
+			}, false, true);
+		} catch (RuntimeException e) {
+			jobRegistry.unhide(nodeRef);
+			throw e;
+		}
+
+		return jobRegistry.submit(JOB_TYPE,
+				AuthenticationUtil.getFullyAuthenticatedUser(),
+				new JobRegistry.Task() {
+					@Override
+					public void run(JobRegistry.Job job) throws Exception {
+						try {
+							deleteTree(job, txnHelper, nodeRef);
+						} finally {
+							// a cancelled tree shows up under its deleting name
+							jobRegistry.unhide(nodeRef);
+						}
+					}
+				});
+	}
+
+	/**
+	 * Deletes the tree depth first. Every transaction deletes up to a batch
+	 * of files and empty directories of one directory, directories that still
+	 * have children are descended into and deleted once they are empty.
+	 */
+	private void deleteTree(final JobRegistry.Job job,
+			RetryingTransactionHelper txnHelper, final NodeRef rootRef) {
+		job.setTotal(txnHelper.doInTransaction(
+				new RetryingTransactionCallback<Long>() {
+					@Override
+					public Long execute() throws Throwable {
+						return countTree(job, rootRef);
+					}
+				}, true, true));
+
+		Deque<NodeRef> folders = new ArrayDeque<NodeRef>();
+		folders.push(rootRef);
+		// directories with children found by the current batch
+		final List<NodeRef> nonEmpty = new ArrayList<NodeRef>();
+		final boolean[] folderDeleted = new boolean[1];
+		while (!folders.isEmpty() && !job.isCancelled()) {
+			final NodeRef folderRef = folders.peek();
+			int deleted = txnHelper.doInTransaction(
+					new RetryingTransactionCallback<Integer>() {
+						@Override
+						public Integer execute() throws Throwable {
+							nonEmpty.clear();
+							folderDeleted[0] = false;
+							NodeService nodeService = serviceRegistry
+									.getNodeService();
+							List<FileInfo> page = serviceRegistry
+									.getFileFolderService()
+									.list(folderRef, true, true, null,
+											SORT_BY_NAME,
+											new PagingRequest(BATCH_SIZE))
+									.getPage();
+							if (page.isEmpty()) {
+								nodeService.deleteNode(folderRef);
+								folderDeleted[0] = true;
+								return 1;
+							}
+							int deleted = 0;
+							for (FileInfo child : page) {
+								if (child.isFolder()
+										&& nodeService.countChildAssocs(
+												child.getNodeRef(), true) > 0) {
+									nonEmpty.add(child.getNodeRef());
+								} else {
+									nodeService.deleteNode(child.getNodeRef());
+									deleted++;
+								}
+							}
+							return deleted;
+						}
+					}, false, true);
+			job.addDone(deleted);
+			if (folderDeleted[0]) {
+				folders.pop();
+			}
+			for (NodeRef ref : nonEmpty) {
+				folders.push(ref);
+			}
+		}
+	}
 }
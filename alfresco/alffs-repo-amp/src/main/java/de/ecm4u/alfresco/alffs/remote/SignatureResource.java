@@ -0,0 +1,138 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.ReadableByteChannel;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.lang.StringUtils;
+import org.json.JSONException;
+import org.json.simple.JSONValue;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+/**
+ * Block signatures of the content of a file for delta sync. Content urls are
+ * never rewritten, so a signature is computed once per url and block size.
+ */
+public class SignatureResource extends AbstractIOResource {
+	protected static final String PARAM_BLOCKSIZE = "blocksize";
+
+	private static final int MIN_BLOCK_SIZE = 512;
+	private static final int MAX_BLOCK_SIZE = 1024 * 1024;
+	private static final int DEFAULT_BLOCK_SIZE = 8192;
+	private static final int MAX_BLOCKS = 65536;
+
+	private LruCache<String, BlockSignature> signatureCache;
+
+	@Override
+	public void doGet(WebScriptRequest req, WebScriptResponse res)
+			throws IOException, JSONException {
+		res.setContentType(JSON_MIMETYPE);
+		res.setContentEncoding(DEFAULT_ENCODING);
+		res.setStatus(Status.STATUS_OK);
+
+		String base = req.getParameter(PARAM_BASE);
+		String path = req.getParameter(PARAM_PATH);
+		String uuid = req.getParameter(PARAM_UUID);
+		String blockSizeStr = req.getParameter(PARAM_BLOCKSIZE);
+
+		if (StringUtils.isBlank(base) || (StringUtils.isBlank(path) && StringUtils.isBlank(uuid))) {
+			sendError(res, "garbage in garbage out", ERROR_IO);
+			return;
+		}
+
+		NodeRef nodeRef = locateNode(base, path, uuid);
+		if (nodeRef == null) {
+			sendError(res, "no such file or directory", ERROR_NOENT,
+					Status.STATUS_NOT_FOUND);
+			return;
+		}
+		if (!isFile(serviceRegistry.getNodeService().getType(nodeRef))) {
+			sendError(res, "is a directory", ERROR_ISDIR);
+			return;
+		}
+
+		ContentReader reader = serviceRegistry.getContentService().getReader(
+				nodeRef, ContentModel.PROP_CONTENT);
+		if (reader == null || !reader.exists()) {
+			sendError(res, "no such file or directory", ERROR_NOENT,
+					Status.STATUS_NOT_FOUND);
+			return;
+		}
+
+		int blockSize = DEFAULT_BLOCK_SIZE;
+		if (StringUtils.isNotBlank(blockSizeStr)) {
+			try {
+				blockSize = Integer.parseInt(blockSizeStr);
+			} catch (NumberFormatException e) {
+				sendError(res, "invalid blocksize", ERROR_INVAL);
+				return;
+			}
+		} else {
+			// like rsync, grow the blocks with the square root of the size
+			long sqrt = (long) Math.sqrt(reader.getSize());
+			while (blockSize < sqrt && blockSize < MAX_BLOCK_SIZE) {
+				blockSize <<= 1;
+			}
+		}
+		blockSize = Math.max(MIN_BLOCK_SIZE,
+				Math.min(MAX_BLOCK_SIZE, blockSize));
+		// small blocks of a large file would make a signature of gigabytes,
+		// the block size grows until the block count stays under the cap
+		long minBlockSize = (reader.getSize() + MAX_BLOCKS - 1) / MAX_BLOCKS;
+		if (blockSize < minBlockSize) {
+			blockSize = (int) Math.min(Integer.MAX_VALUE, minBlockSize);
+		}
+
+		String contentUrl = reader.getContentUrl();
+		String key = contentUrl + "|" + blockSize;
+		BlockSignature signature = signatureCache.get(key);
+		if (signature == null) {
+			ReadableByteChannel channel = reader.getReadableChannel();
+			try {
+				signature = BlockSignature.compute(channel, blockSize,
+						reader.getSize());
+			} finally {
+				channel.close();
+			}
+			signatureCache.put(key, signature);
+		}
+
+		// written by hand, a large file has a lot of blocks
+		Writer out = res.getWriter();
+		out.write("{\"etag\":");
+		out.write(JSONValue.toJSONString(encodeContentEtag(contentUrl)));
+		out.write(",\"size\":");
+		out.write(JSONValue.toJSONString(Long.toString(signature.getSize())));
+		out.write(",\"blocksize\":");
+		out.write(Integer.toString(signature.getBlockSize()));
+		out.write(",\"weak\":[");
+		for (int i = 0; i < signature.getBlockCount(); i++) {
+			if (i > 0) {
+				out.write(',');
+			}
+			// unsigned, the checksum uses all 32 bits
+			out.write(Long.toString(signature.getWeak(i) & 0xffffffffL));
+		}
+		out.write("],\"strong\":[");
+		for (int i = 0; i < signature.getBlockCount(); i++) {
+			if (i > 0) {
+				out.write(',');
+			}
+			out.write('"');
+			out.write(Hex.encodeHex(signature.getStrong(i)));
+			out.write('"');
+		}
+		out.write("]}");
+	}
+
+	public void setSignatureCache(
+			LruCache<String, BlockSignature> signatureCache) {
+		this.signatureCache = signatureCache;
+	}
+}
@@ -0,0 +1,47 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.site.SiteService;
+
+/**
+ * Bases of the form site:NAME for the document library of a site or
+ * site:NAME/CONTAINER for any other container of it.
+ */
+public class SiteBaseResolver implements BaseResolver {
+	private static final String PREFIX = "site:";
+	private static final String DEFAULT_CONTAINER = "documentLibrary";
+
+	private ServiceRegistry serviceRegistry;
+
+	@Override
+	public boolean supports(String base) {
+		return base.startsWith(PREFIX);
+	}
+
+	@Override
+	public NodeRef resolve(String base, String user) {
+		SiteService siteService = serviceRegistry.getSiteService();
+		String name = base.substring(PREFIX.length());
+		String container = DEFAULT_CONTAINER;
+		int sep = name.indexOf('/');
+		if (sep >= 0) {
+			container = name.substring(sep + 1);
+			name = name.substring(0, sep);
+		}
+		if (name.isEmpty() || container.isEmpty()
+				|| siteService.getSite(name) == null) {
+			return null;
+		}
+		return siteService.getContainer(name, container);
+	}
+
+	@Override
+	public boolean isPerUser() {
+		return false;
+	}
+
+	public void setServiceRegistry(ServiceRegistry serviceRegistry) {
+		this.serviceRegistry = serviceRegistry;
+	}
+}
@@ -0,0 +1,251 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.repo.domain.node.NodeDAO.ChildAssocRefQueryCallback;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.Pair;
+import org.apache.commons.lang.StringUtils;
+import org.json.JSONException;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+/**
+ * Streams all files and directories below a directory in one pass, for the
+ * warm up of a new mount. Children are loaded folder by folder through the
+ * node dao with their properties preloaded, in short read only transactions
+ * of a few folders each.
+ *
+ * The response starts with the change feed epoch and sequence and the
+ * highest transaction id taken before the walk. Changes during the walk may
+ * or may not be in the snapshot, the client replays the changes since seq of
+ * that epoch after it.
+ */
+public class SnapshotResource extends AbstractIOResource {
+	protected static final String TYPE_DIR = "dir";
+	protected static final String TYPE_FILE = "file";
+
+	// folders listed per transaction
+	private static final int FOLDERS_PER_TXN = 50;
+
+	private NodeDAO nodeDAO;
+	private ChangeFeed changeFeed;
+
+	private static class Folder {
+		private final Long id;
+		private final String path;
+
+		Folder(Long id, String path) {
+			this.id = id;
+			this.path = path;
+		}
+	}
+
+	@Override
+	public void doGet(WebScriptRequest req, WebScriptResponse res)
+			throws IOException, JSONException {
+		res.setContentType(JSON_MIMETYPE);
+		res.setContentEncoding(DEFAULT_ENCODING);
+		res.setStatus(Status.STATUS_OK);
+
+		final String base = req.getParameter(PARAM_BASE);
+		final String path = req.getParameter(PARAM_PATH);
+		final String uuid = req.getParameter(PARAM_UUID);
+
+		if (StringUtils.isBlank(base)) {
+			sendError(res, "garbage in garbage out", ERROR_IO);
+			return;
+		}
+
+		RetryingTransactionHelper txnHelper = serviceRegistry
+				.getTransactionService().getRetryingTransactionHelper();
+		// the watermark is taken before the walk, so no change is missed
+		final String epoch = changeFeed.getEpoch();
+		final long seq = changeFeed.getHeadSeq();
+		Pair<Long, NodeRef> root = txnHelper.doInTransaction(
+				new RetryingTransactionCallback<Pair<Long, NodeRef>>() {
+					@Override
+					public Pair<Long, NodeRef> execute() throws Throwable {
+						NodeRef nodeRef = locateNode(base, path, uuid);
+						if (nodeRef == null) {
+							return null;
+						}
+						if (!isDirectory(serviceRegistry.getNodeService()
+								.getType(nodeRef))) {
+							return new Pair<Long, NodeRef>(null, nodeRef);
+						}
+						return nodeDAO.getNodePair(nodeRef);
+					}
+				}, true);
+		if (root == null) {
+			sendError(res, "no such file or directory", ERROR_NOENT,
+					Status.STATUS_NOT_FOUND);
+			return;
+		}
+		if (root.getFirst() == null) {
+			sendError(res, "not a directory", ERROR_NOTDIR);
+			return;
+		}
+		Long txnId = txnHelper.doInTransaction(
+				new RetryingTransactionCallback<Long>() {
+					@Override
+					public Long execute() throws Throwable {
+						return nodeDAO.getMaxTxnId();
+					}
+				}, true);
+
+		ResponseWriter out = openResponseWriter(req, res);
+		out.beginObject().member("epoch", epoch).member("seq", seq).member("txnId", txnId)
+				.member("uuid", root.getSecond().getId());
+		out.name("nodes").beginArray();
+
+		long total = 0;
+		Deque<Folder> folders = new ArrayDeque<Folder>();
+		folders.add(new Folder(root.getFirst(), ""));
+		final List<Map<String, Object>> entries = new ArrayList<Map<String, Object>>();
+		final List<Folder> subfolders = new ArrayList<Folder>();
+		// type -> directory, file or neither, checked once per request
+		final Map<QName, String> kinds = new HashMap<QName, String>();
+		while (!folders.isEmpty()) {
+			final List<Folder> batch = new ArrayList<Folder>(FOLDERS_PER_TXN);
+			while (!folders.isEmpty() && batch.size() < FOLDERS_PER_TXN) {
+				batch.add(folders.poll());
+			}
+			txnHelper.doInTransaction(new RetryingTransactionCallback<Void>() {
+				@Override
+				public Void execute() throws Throwable {
+					entries.clear();
+					subfolders.clear();
+					for (Folder folder : batch) {
+						listFolder(folder, kinds, entries, subfolders);
+					}
+					return null;
+				}
+			}, true);
+			for (Map<String, Object> entry : entries) {
+				out.beginObject();
+				for (Map.Entry<String, Object> member : entry.entrySet()) {
+					out.member(member.getKey(), member.getValue());
+				}
+				out.end();
+			}
+			total += entries.size();
+			folders.addAll(subfolders);
+			out.flush();
+		}
+		out.end().member("total", total).end().flush();
+	}
+
+	/**
+	 * Adds the readable files and directories of the folder to the entries
+	 * and its directories to the subfolders.
+	 */
+	private void listFolder(final Folder folder, Map<QName, String> kinds,
+			List<Map<String, Object>> entries, List<Folder> subfolders) {
+		final List<Pair<Long, NodeRef>> children = new ArrayList<Pair<Long, NodeRef>>();
+		nodeDAO.getChildAssocs(folder.id, ContentModel.ASSOC_CONTAINS, null,
+				Boolean.TRUE, Boolean.TRUE, new ChildAssocRefQueryCallback() {
+					@Override
+					public boolean preLoadNodes() {
+						return true;
+					}
+
+					@Override
+					public boolean orderResults() {
+						return false;
+					}
+
+					@Override
+					public boolean handle(
+							Pair<Long, ChildAssociationRef> childAssocPair,
+							Pair<Long, NodeRef> parentNodePair,
+							Pair<Long, NodeRef> childNodePair) {
+						children.add(childNodePair);
+						return true;
+					}
+
+					@Override
+					public void done() {
+					}
+				});
+
+		PermissionService permissionService = serviceRegistry
+				.getPermissionService();
+		for (Pair<Long, NodeRef> child : children) {
+			NodeRef nodeRef = child.getSecond();
+			String kind = getKind(nodeDAO.getNodeType(child.getFirst()), kinds);
+			if (kind == null
+					|| isHidden(nodeRef)
+					|| permissionService.hasPermission(nodeRef,
+							PermissionService.READ) != AccessStatus.ALLOWED) {
+				continue;
+			}
+			Map<QName, Serializable> props = nodeDAO.getNodeProperties(child
+					.getFirst());
+			String childPath = folder.path + "/" + props.get(ContentModel.PROP_NAME);
+
+			Map<String, Object> entry = new HashMap<String, Object>();
+			entry.put("path", childPath);
+			entry.put("uuid", nodeRef.getId());
+			entry.put("type", kind);
+			Date mtime = (Date) props.get(ContentModel.PROP_MODIFIED);
+			if (mtime != null) {
+				entry.put("st_mtime_epoch_sec",
+						Long.toString(mtime.getTime() / 1000L));
+			}
+			if (TYPE_FILE.equals(kind)) {
+				ContentData content = (ContentData) props
+						.get(ContentModel.PROP_CONTENT);
+				long size = 0;
+				if (ContentData.hasContent(content)) {
+					size = content.getSize();
+					entry.put("etag", encodeContentEtag(content.getContentUrl()));
+				}
+				entry.put("st_size", size);
+			} else {
+				subfolders.add(new Folder(child.getFirst(), childPath));
+			}
+			entries.add(entry);
+		}
+	}
+
+	private String getKind(QName type, Map<QName, String> kinds) {
+		if (kinds.containsKey(type)) {
+			return kinds.get(type);
+		}
+		String kind = null;
+		if (isDirectory(type)) {
+			kind = TYPE_DIR;
+		} else if (isFile(type)) {
+			kind = TYPE_FILE;
+		}
+		kinds.put(type, kind);
+		return kind;
+	}
+
+	public void setNodeDAO(NodeDAO nodeDAO) {
+		this.nodeDAO = nodeDAO;
+	}
+
+	public void setChangeFeed(ChangeFeed changeFeed) {
+		this.changeFeed = changeFeed;
+	}
+}
@@ -10,7 +10,6 @@ import java.util.Map;
 
 import org.alfresco.repo.content.ContentStore;
 import org.json.JSONException;
-import org.json.simple.JSONValue;
 import org.springframework.extensions.webscripts.Status;
 import org.springframework.extensions.webscripts.WebScriptRequest;
 import org.springframework.extensions.webscripts.WebScriptResponse;
@@ -38,7 +37,9 @@ public class StatFSResource extends AbstractIOResource {
 		
 		jsonResponse.put("maxFilename", 250); //windows limit
 		jsonResponse.put("readOnly", !serviceRegistry.getTransactionService().getAllowWrite());
-		JSONValue.writeJSONString(jsonResponse, res.getWriter());
+		ResponseWriter out = openResponseWriter(req, res);
+		out.value(jsonResponse);
+		out.flush();
 
 	}
 
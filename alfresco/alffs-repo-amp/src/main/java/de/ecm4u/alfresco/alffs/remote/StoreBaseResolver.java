@@ -0,0 +1,64 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.util.List;
+
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+
+/**
+ * Bases inside any store, e.g. the archive or a version store:
+ *
+ * <pre>
+ * workspace://SpacesStore                        root of the store
+ * workspace://SpacesStore/&lt;uuid&gt;                 a node of the store
+ * workspace://SpacesStore/app:company_home       xpath from the store root
+ * archive://SpacesStore
+ * </pre>
+ */
+public class StoreBaseResolver implements BaseResolver {
+	private static final String PROTOCOL_SEP = "://";
+
+	private ServiceRegistry serviceRegistry;
+
+	@Override
+	public boolean supports(String base) {
+		return base.indexOf(PROTOCOL_SEP) > 0;
+	}
+
+	@Override
+	public NodeRef resolve(String base, String user) {
+		NodeService nodeService = serviceRegistry.getNodeService();
+		int sep = base.indexOf('/', base.indexOf(PROTOCOL_SEP)
+				+ PROTOCOL_SEP.length());
+		StoreRef storeRef = new StoreRef(sep < 0 ? base : base.substring(0,
+				sep));
+		String rest = sep < 0 ? "" : base.substring(sep + 1);
+
+		if (!nodeService.exists(storeRef)) {
+			return null;
+		}
+		NodeRef rootRef = nodeService.getRootNode(storeRef);
+		if (rest.isEmpty()) {
+			return rootRef;
+		}
+		if (rest.indexOf(':') < 0 && rest.indexOf('/') < 0) {
+			NodeRef nodeRef = new NodeRef(storeRef, rest);
+			return nodeService.exists(nodeRef) ? nodeRef : null;
+		}
+		List<NodeRef> nodeRefs = serviceRegistry.getSearchService()
+				.selectNodes(rootRef, rest, null,
+						serviceRegistry.getNamespaceService(), false);
+		return nodeRefs.size() == 1 ? nodeRefs.get(0) : null;
+	}
+
+	@Override
+	public boolean isPerUser() {
+		return false;
+	}
+
+	public void setServiceRegistry(ServiceRegistry serviceRegistry) {
+		this.serviceRegistry = serviceRegistry;
+	}
+}
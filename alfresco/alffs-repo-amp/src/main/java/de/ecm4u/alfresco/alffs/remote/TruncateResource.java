@@ -6,6 +6,7 @@ import java.nio.channels.FileChannel;
 import java.util.Map;
 
 import org.alfresco.model.ContentModel;
+import org.alfresco.service.cmr.repository.ContentReader;
 import org.alfresco.service.cmr.repository.ContentWriter;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.apache.commons.lang.StringUtils;
@@ -24,69 +25,71 @@ public class TruncateResource extends AbstractIOResource {
 		res.setContentEncoding(DEFAULT_ENCODING);
 		res.setStatus(Status.STATUS_OK);
 
-		Map<String, Object> jsonParam = (Map<String, Object>) JSONValue
-				.parse(req.getContent().getContent());
+		Object json = JSONValue.parse(req.getContent().getContent());
+		Object offsetParam = json instanceof Map ? ((Map<String, Object>) json)
+				.get(PARAM_OFFSET) : null;
 
 		String base = req.getParameter(PARAM_BASE);
 		String path = req.getParameter(PARAM_PATH);
-		Long offset = (Long) jsonParam.get(PARAM_OFFSET);
+		String uuid = req.getParameter(PARAM_UUID);
 
-		if (StringUtils.isBlank(base) || StringUtils.isBlank(path)
-				|| offset == null) {
+		if (StringUtils.isBlank(base) || (StringUtils.isBlank(path) && StringUtils.isBlank(uuid))
+				|| offsetParam == null) {
 			res.setStatus(Status.STATUS_BAD_REQUEST);
 			sendError(res, "garbage in garbage out", ERROR_IO);
 			return;
 		}
+		// like truncate(2), a negative length is EINVAL
+		if (!(offsetParam instanceof Long) || (Long) offsetParam < 0) {
+			sendError(res, "invalid offset", ERROR_INVAL);
+			return;
+		}
+		long offset = (Long) offsetParam;
 
-		NodeRef nodeRef = locateNode(base, path);
+		NodeRef nodeRef = locateNode(base, path, uuid);
 		if (nodeRef == null) {
 			sendError(res, "no such file or directory", ERROR_NOENT,
 					Status.STATUS_NOT_FOUND);
 			return;
 		}
 
+		ContentReader reader = serviceRegistry.getContentService().getReader(
+				nodeRef, ContentModel.PROP_CONTENT);
+		boolean exists = reader != null && reader.exists();
+		long size = exists ? reader.getSize() : 0;
+		if (exists && offset == size) {
+			return;
+		}
+
+		// the new content starts empty and only the retained part is copied,
+		// an extension is a hole up to the new size, see man 2 truncate
 		ContentWriter writer = serviceRegistry.getContentService().getWriter(
 				nodeRef, ContentModel.PROP_CONTENT, true);
-		long size = writer.getSize();
-		if (offset == 0) {
-			FileChannel fch = writer.getFileChannel(true);
-			fch.close();
-			// maybe set empty content is better
-		} else {
-			FileChannel fch = writer.getFileChannel(false);
-			try {
-				if (offset < size) {
-					fch.truncate(offset);
-				} else if (offset > size) {
-					// fill with nulls see man 2 truncate
-					// use fancy loop to cope with large offsets
-					fch.position(size);
-					byte[] buffer = new byte[4096];
-					long totalToWrite = offset - size;
-					long written = 0;
-					while (written < totalToWrite) {
-						int length = 0;
-						long missing = totalToWrite - written;
-						if (missing >= buffer.length) {
-							length = buffer.length;
-						} else {
-							length = (int) missing;
+		FileChannel fch = writer.getFileChannel(true);
+		try {
+			long retain = Math.min(offset, size);
+			if (retain > 0) {
+				FileChannel in = reader.getFileChannel();
+				try {
+					long position = 0;
+					while (position < retain) {
+						long transferred = in.transferTo(position, retain
+								- position, fch);
+						if (transferred <= 0) {
+							throw new IOException("content ended at "
+									+ position + " of " + retain);
 						}
-						ByteBuffer src = ByteBuffer.wrap(buffer, 0, length);
-						written += fch.write(src);
+						position += transferred;
 					}
-
-					fch.close();
-
-					// invariant
-					if (offset != (size + written)) {
-						throw new RuntimeException();
-					}
-
+				} finally {
+					in.close();
 				}
-			} finally {
-				fch.close();
 			}
+			if (offset > size) {
+				fch.write(ByteBuffer.wrap(new byte[1]), offset - 1);
+			}
+		} finally {
+			fch.close();
 		}
 	}
 }
@@ -4,9 +4,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
-import org.alfresco.model.ContentModel;
 import org.alfresco.service.cmr.repository.NodeRef;
-import org.alfresco.service.namespace.QName;
 import org.apache.commons.lang.StringUtils;
 import org.json.JSONException;
 import org.json.simple.JSONValue;
@@ -24,8 +22,9 @@ public class UnlinkResource extends AbstractIOResource {
 
 		String base = req.getParameter(PARAM_BASE);
 		String path = req.getParameter(PARAM_PATH);
+		String uuid = req.getParameter(PARAM_UUID);
 
-		if (StringUtils.isBlank(base) || StringUtils.isBlank(path)) {
+		if (StringUtils.isBlank(base) || (StringUtils.isBlank(path) && StringUtils.isBlank(uuid))) {
 			res.setStatus(Status.STATUS_BAD_REQUEST);
 			Map<String, Object> jsonResponse = new HashMap<String, Object>();
 			jsonResponse.put("message", "garbage in garbage out");
@@ -33,7 +32,7 @@ public class UnlinkResource extends AbstractIOResource {
 			return;
 		}
 
-		NodeRef nodeRef = locateNode(base, path);
+		NodeRef nodeRef = locateNode(base, path, uuid);
 		if (nodeRef == null) {
 			res.setStatus(Status.STATUS_NOT_FOUND);
 			Map<String, Object> jsonResponse = new HashMap<String, Object>();
@@ -42,15 +41,10 @@ public class UnlinkResource extends AbstractIOResource {
 			return;
 		}
 
-		QName type = serviceRegistry.getNodeService().getType(nodeRef);
-		if (serviceRegistry.getDictionaryService().isSubClass(type,
-				ContentModel.TYPE_CONTENT)) {
-			serviceRegistry.getNodeService().deleteNode(nodeRef);
-		} else {
-			res.setStatus(Status.STATUS_BAD_REQUEST);
-			Map<String, Object> jsonResponse = new HashMap<String, Object>();
-			jsonResponse.put("message", "not a file or directory");
-			JSONValue.writeJSONString(jsonResponse, res.getWriter());
+		try {
+			unlinkNode(nodeRef);
+		} catch (IOResourceException e) {
+			sendError(res, e);
 			return;
 		}
 
@@ -0,0 +1,313 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.apache.commons.lang.StringUtils;
+import org.json.JSONException;
+import org.json.simple.JSONValue;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+/**
+ * Upload sessions: begin binds a temp file to a node, parts are put at any
+ * offset and in parallel, commit swaps the content of the node once.
+ */
+public class UploadResource extends AbstractIOResource {
+	protected static final String PARAM_ACTION = "action";
+	protected static final String PARAM_SESSION = "session";
+	protected static final String PARAM_KEEP = "keep";
+
+	protected static final String ACTION_BEGIN = "begin";
+	protected static final String ACTION_COMMIT = "commit";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private UploadSessionRegistry uploadSessionRegistry;
+	private ContentHashIndex contentHashIndex;
+
+	@Override
+	public void doPost(WebScriptRequest req, WebScriptResponse res)
+			throws IOException, JSONException {
+		res.setContentType(JSON_MIMETYPE);
+		res.setContentEncoding(DEFAULT_ENCODING);
+		res.setStatus(Status.STATUS_OK);
+
+		String action = req.getParameter(PARAM_ACTION);
+		if (ACTION_BEGIN.equals(action)) {
+			begin(req, res);
+		} else if (ACTION_COMMIT.equals(action)) {
+			commit(req, res);
+		} else {
+			sendError(res, "garbage in garbage out", ERROR_IO);
+		}
+	}
+
+	private void begin(WebScriptRequest req, WebScriptResponse res)
+			throws IOException {
+		String base = req.getParameter(PARAM_BASE);
+		String path = req.getParameter(PARAM_PATH);
+		String uuid = req.getParameter(PARAM_UUID);
+		// start with the current content, needed for partial updates
+		boolean keep = Boolean.parseBoolean(req.getParameter(PARAM_KEEP));
+		// the final size if the client knows it, parts must stay inside
+		String sizeStr = req.getParameter(PARAM_SIZE);
+
+		if (StringUtils.isBlank(base) || (StringUtils.isBlank(path) && StringUtils.isBlank(uuid))) {
+			sendError(res, "garbage in garbage out", ERROR_IO);
+			return;
+		}
+
+		NodeRef nodeRef = locateNode(base, path, uuid);
+		if (nodeRef == null) {
+			sendError(res, "no such file or directory", ERROR_NOENT,
+					Status.STATUS_NOT_FOUND);
+			return;
+		}
+		if (!isFile(serviceRegistry.getNodeService().getType(nodeRef))) {
+			sendError(res, "is a directory", ERROR_ISDIR);
+			return;
+		}
+
+		long declaredSize = -1;
+		if (StringUtils.isNotBlank(sizeStr)) {
+			declaredSize = parseOffset(sizeStr);
+			if (declaredSize < 0) {
+				sendError(res, "invalid size", ERROR_INVAL);
+				return;
+			}
+		}
+
+		UploadSessionRegistry.Session session = uploadSessionRegistry.begin(
+				nodeRef, AuthenticationUtil.getFullyAuthenticatedUser(),
+				declaredSize);
+		if (keep) {
+			ContentReader reader = serviceRegistry.getContentService()
+					.getReader(nodeRef, ContentModel.PROP_CONTENT);
+			if (reader != null && reader.exists()) {
+				FileChannel fch = reader.getFileChannel();
+				try {
+					FileChannel target = session.getChannel();
+					long size = fch.size();
+					long position = 0;
+					while (position < size) {
+						long transfered = fch.transferTo(position, size
+								- position, target);
+						if (transfered <= 0) {
+							break;
+						}
+						position += transfered;
+					}
+				} finally {
+					fch.close();
+				}
+			}
+		}
+
+		Map<String, Object> jsonResponse = new HashMap<String, Object>();
+		jsonResponse.put(PARAM_SESSION, session.getId());
+		jsonResponse.put("uuid", nodeRef.getId());
+		JSONValue.writeJSONString(jsonResponse, res.getWriter());
+	}
+
+	@Override
+	public void doPut(WebScriptRequest req, WebScriptResponse res)
+			throws IOException, JSONException {
+		res.setContentType(JSON_MIMETYPE);
+		res.setContentEncoding(DEFAULT_ENCODING);
+		res.setStatus(Status.STATUS_OK);
+
+		String offsetStr = req.getParameter(PARAM_OFFSET);
+		if (StringUtils.isBlank(offsetStr)) {
+			sendError(res, "garbage in garbage out", ERROR_IO);
+			return;
+		}
+		if (!isSupportedContentEncoding(req)) {
+			sendError(res, "unsupported content encoding", ERROR_NOTSUP,
+					Status.STATUS_UNSUPPORTED_MEDIA_TYPE);
+			return;
+		}
+		long position = parseOffset(offsetStr);
+		if (position < 0) {
+			sendError(res, "invalid offset", ERROR_INVAL);
+			return;
+		}
+		UploadSessionRegistry.Session session = getSession(req, res);
+		if (session == null) {
+			return;
+		}
+		long limit = session.getSize() < 0 ? Long.MAX_VALUE : session
+				.getSize();
+		if (position > limit) {
+			sendError(res, "offset beyond declared size", ERROR_INVAL);
+			return;
+		}
+
+		// positional writes, parts of one session may arrive in parallel
+		FileChannel fch = session.getChannel();
+		long transfered = 0;
+		byte[] buffer = new byte[BUFFER_SIZE];
+		InputStream in = openContent(req);
+		try {
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				if (read > limit - position) {
+					sendError(res, "part beyond declared size", ERROR_INVAL);
+					return;
+				}
+				ByteBuffer src = ByteBuffer.wrap(buffer, 0, read);
+				while (src.hasRemaining()) {
+					position += fch.write(src, position);
+				}
+				transfered += read;
+			}
+		} finally {
+			in.close();
+		}
+
+		Map<String, Object> jsonResponse = new HashMap<String, Object>();
+		jsonResponse.put("transfered", Long.toString(transfered));
+		JSONValue.writeJSONString(jsonResponse, res.getWriter());
+	}
+
+	private void commit(WebScriptRequest req, WebScriptResponse res)
+			throws IOException {
+		String sizeStr = req.getParameter(PARAM_SIZE);
+		String mtimeStr = req.getParameter(PARAM_MTIME_SEC);
+
+		final UploadSessionRegistry.Session session = getSession(req, res);
+		if (session == null) {
+			return;
+		}
+		NodeRef nodeRef = session.getNodeRef();
+		if (!serviceRegistry.getNodeService().exists(nodeRef)) {
+			uploadSessionRegistry.remove(session.getId());
+			sendError(res, "no such file or directory", ERROR_NOENT,
+					Status.STATUS_NOT_FOUND);
+			return;
+		}
+
+		FileChannel fch = session.getChannel();
+		if (StringUtils.isNotBlank(sizeStr) || session.getSize() >= 0) {
+			long size = StringUtils.isNotBlank(sizeStr) ? parseOffset(sizeStr)
+					: session.getSize();
+			if (size < 0) {
+				sendError(res, "invalid size", ERROR_INVAL);
+				return;
+			}
+			// the declared size wins, a trailing hole is never sent as a part
+			if (size < fch.size()) {
+				fch.truncate(size);
+			} else if (size > fch.size()) {
+				fch.write(ByteBuffer.wrap(new byte[1]), size - 1);
+			}
+		}
+
+		ContentReader current = serviceRegistry.getContentService()
+				.getReader(nodeRef, ContentModel.PROP_CONTENT);
+		ContentWriter writer = serviceRegistry.getContentService().getWriter(
+				nodeRef, ContentModel.PROP_CONTENT, true);
+		if (current != null) {
+			writer.setMimetype(current.getMimetype());
+			writer.setEncoding(current.getEncoding());
+		} else {
+			writer.guessMimetype((String) serviceRegistry.getNodeService()
+					.getProperty(nodeRef, ContentModel.PROP_NAME));
+		}
+
+		try {
+			behaviourFilter.disableBehaviour(nodeRef,
+					ContentModel.ASPECT_AUDITABLE);
+			writer.putContent(session.getFile());
+			if (contentHashIndex != null) {
+				contentHashIndex.put(ContentHashIndex.hash(session.getFile()),
+						writer.getContentUrl());
+			}
+			if (StringUtils.isNotBlank(mtimeStr)) {
+				long epochSec = Long.parseLong(mtimeStr);
+				Date modDate = new Date(epochSec * 1000L);
+				serviceRegistry.getNodeService().setProperty(nodeRef,
+						ContentModel.PROP_MODIFIED, modDate);
+			}
+		} finally {
+			behaviourFilter.enableBehaviour(nodeRef,
+					ContentModel.ASPECT_AUDITABLE);
+		}
+
+		// keep the temp file until commit, the webscript may be retried
+		AlfrescoTransactionSupport
+				.bindListener(new TransactionListenerAdapter() {
+					@Override
+					public void afterCommit() {
+						uploadSessionRegistry.remove(session.getId());
+					}
+				});
+
+		Map<String, Object> jsonResponse = new HashMap<String, Object>();
+		jsonResponse.put("etag", encodeContentEtag(writer.getContentUrl()));
+		jsonResponse.put("size", Long.toString(writer.getSize()));
+		JSONValue.writeJSONString(jsonResponse, res.getWriter());
+	}
+
+	@Override
+	public void doDelete(WebScriptRequest req, WebScriptResponse res)
+			throws IOException, JSONException {
+		res.setContentType(JSON_MIMETYPE);
+		res.setContentEncoding(DEFAULT_ENCODING);
+		res.setStatus(Status.STATUS_OK);
+
+		UploadSessionRegistry.Session session = getSession(req, res);
+		if (session == null) {
+			return;
+		}
+		uploadSessionRegistry.remove(session.getId());
+
+		Map<String, Object> jsonResponse = new HashMap<String, Object>();
+		JSONValue.writeJSONString(jsonResponse, res.getWriter());
+	}
+
+	/**
+	 * Parses a non negative offset or size, -1 if it is malformed.
+	 */
+	private long parseOffset(String value) {
+		try {
+			return Math.max(-1, Long.parseLong(value));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private UploadSessionRegistry.Session getSession(WebScriptRequest req,
+			WebScriptResponse res) {
+		UploadSessionRegistry.Session session = uploadSessionRegistry.get(
+				req.getParameter(PARAM_SESSION),
+				AuthenticationUtil.getFullyAuthenticatedUser());
+		if (session == null) {
+			sendError(res, "no such upload session", ERROR_NOENT,
+					Status.STATUS_NOT_FOUND);
+		}
+		return session;
+	}
+
+	public void setUploadSessionRegistry(
+			UploadSessionRegistry uploadSessionRegistry) {
+		this.uploadSessionRegistry = uploadSessionRegistry;
+	}
+
+	public void setContentHashIndex(ContentHashIndex contentHashIndex) {
+		this.contentHashIndex = contentHashIndex;
+	}
+}
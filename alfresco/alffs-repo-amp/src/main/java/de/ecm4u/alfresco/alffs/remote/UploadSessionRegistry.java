@@ -0,0 +1,132 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.util.TempFileProvider;
+
+/**
+ * Open upload sessions of this server. Every session owns a temp file that
+ * parts are written to at their offsets, concurrent writers of one session
+ * use positional writes on the same channel.
+ */
+public class UploadSessionRegistry {
+	private final Map<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+
+	// sessions idle for longer are dropped when the next one begins
+	private long idleTimeoutMillis = 60L * 60L * 1000L;
+
+	public static class Session {
+		private final String id;
+		private final NodeRef nodeRef;
+		private final String user;
+		private final File file;
+		private final long size;
+		private final FileChannel channel;
+		private volatile long lastAccess;
+
+		Session(String id, NodeRef nodeRef, String user, File file, long size)
+				throws IOException {
+			this.id = id;
+			this.nodeRef = nodeRef;
+			this.user = user;
+			this.file = file;
+			this.size = size;
+			this.channel = new RandomAccessFile(file, "rw").getChannel();
+			this.lastAccess = System.currentTimeMillis();
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public NodeRef getNodeRef() {
+			return nodeRef;
+		}
+
+		public String getUser() {
+			return user;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * The size declared at begin, -1 if none was declared.
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		public FileChannel getChannel() {
+			lastAccess = System.currentTimeMillis();
+			return channel;
+		}
+
+		void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// nothing to do, the file is deleted anyway
+			}
+			file.delete();
+		}
+	}
+
+	public Session begin(NodeRef nodeRef, String user, long size)
+			throws IOException {
+		expire();
+		String id = UUID.randomUUID().toString();
+		File file = TempFileProvider.createTempFile("alffs-upload-", ".bin");
+		Session session = new Session(id, nodeRef, user, file, size);
+		sessions.put(id, session);
+		return session;
+	}
+
+	/**
+	 * Returns the session if it exists and belongs to the user.
+	 */
+	public Session get(String id, String user) {
+		if (id == null) {
+			return null;
+		}
+		Session session = sessions.get(id);
+		if (session == null || !session.getUser().equals(user)) {
+			return null;
+		}
+		return session;
+	}
+
+	public void remove(String id) {
+		Session session = sessions.remove(id);
+		if (session != null) {
+			session.close();
+		}
+	}
+
+	private void expire() {
+		long now = System.currentTimeMillis();
+		for (Session session : sessions.values()) {
+			if (now - session.lastAccess > idleTimeoutMillis) {
+				remove(session.getId());
+			}
+		}
+	}
+
+	public void destroy() {
+		for (String id : sessions.keySet()) {
+			remove(id);
+		}
+	}
+
+	public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+}
@@ -0,0 +1,42 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.repository.NodeRef;
+
+/**
+ * The base userhome, the home folder of the user of the request.
+ */
+public class UserHomeBaseResolver implements BaseResolver {
+	private static final String BASE = "userhome";
+
+	private ServiceRegistry serviceRegistry;
+
+	@Override
+	public boolean supports(String base) {
+		return BASE.equals(base);
+	}
+
+	@Override
+	public NodeRef resolve(String base, String user) {
+		if (user == null) {
+			return null;
+		}
+		NodeRef personRef = serviceRegistry.getPersonService()
+				.getPersonOrNull(user);
+		if (personRef == null) {
+			return null;
+		}
+		return (NodeRef) serviceRegistry.getNodeService().getProperty(
+				personRef, ContentModel.PROP_HOMEFOLDER);
+	}
+
+	@Override
+	public boolean isPerUser() {
+		return true;
+	}
+
+	public void setServiceRegistry(ServiceRegistry serviceRegistry) {
+		this.serviceRegistry = serviceRegistry;
+	}
+}
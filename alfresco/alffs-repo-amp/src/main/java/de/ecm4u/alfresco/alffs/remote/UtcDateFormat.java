@@ -0,0 +1,81 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Thread safe formatter for yyyy-MM-dd'T'HH:mm:ss in UTC. The calendar
+ * fields are computed directly from the epoch millis, the only allocation is
+ * the resulting string. Instants before the gregorian cutover or after the
+ * year 9999 go through a {@link SimpleDateFormat}, so the output is the same
+ * as before for any date.
+ */
+public final class UtcDateFormat {
+	private static final long MILLIS_PER_DAY = 24L * 60L * 60L * 1000L;
+	// 1582-10-15T00:00:00, before it SimpleDateFormat uses the julian calendar
+	private static final long GREGORIAN_CUTOVER = -12219292800000L;
+	// 10000-01-01T00:00:00, from it on the year has five digits
+	private static final long YEAR_10000 = 253402300800000L;
+
+	private UtcDateFormat() {
+	}
+
+	public static String format(Date date) {
+		return format(date.getTime());
+	}
+
+	public static String format(long millis) {
+		if (millis < GREGORIAN_CUTOVER || millis >= YEAR_10000) {
+			SimpleDateFormat format = new SimpleDateFormat(
+					"yyyy-MM-dd'T'HH:mm:ss");
+			format.getCalendar().setTimeZone(TimeZone.getTimeZone("UTC"));
+			return format.format(new Date(millis));
+		}
+		long days = floorDiv(millis, MILLIS_PER_DAY);
+		int secondOfDay = (int) ((millis - days * MILLIS_PER_DAY) / 1000L);
+
+		// civil from days, proleptic gregorian calendar
+		long z = days + 719468;
+		long era = floorDiv(z, 146097);
+		long doe = z - era * 146097;
+		long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+		long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+		long mp = (5 * doy + 2) / 153;
+		int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+		int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+		long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+		char[] buf = new char[19];
+		append4(buf, 0, (int) year);
+		buf[4] = '-';
+		append2(buf, 5, month);
+		buf[7] = '-';
+		append2(buf, 8, day);
+		buf[10] = 'T';
+		append2(buf, 11, secondOfDay / 3600);
+		buf[13] = ':';
+		append2(buf, 14, (secondOfDay / 60) % 60);
+		buf[16] = ':';
+		append2(buf, 17, secondOfDay % 60);
+		return new String(buf);
+	}
+
+	private static long floorDiv(long x, long y) {
+		long q = x / y;
+		if ((x % y != 0) && ((x ^ y) < 0)) {
+			q--;
+		}
+		return q;
+	}
+
+	private static void append2(char[] buf, int pos, int value) {
+		buf[pos] = (char) ('0' + value / 10);
+		buf[pos + 1] = (char) ('0' + value % 10);
+	}
+
+	private static void append4(char[] buf, int pos, int value) {
+		append2(buf, pos, (value / 100) % 100);
+		append2(buf, pos + 2, value % 100);
+	}
+}
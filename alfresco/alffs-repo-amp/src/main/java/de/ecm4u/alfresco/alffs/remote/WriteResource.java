@@ -1,16 +1,20 @@
 package de.ecm4u.alfresco.alffs.remote;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.alfresco.model.ContentModel;
-import org.alfresco.repo.policy.BehaviourFilter;
 import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.ContentReader;
 import org.alfresco.service.cmr.repository.ContentWriter;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.apache.commons.lang.StringUtils;
@@ -21,7 +25,9 @@ import org.springframework.extensions.webscripts.WebScriptRequest;
 import org.springframework.extensions.webscripts.WebScriptResponse;
 
 public class WriteResource extends AbstractIOResource {
-    private BehaviourFilter behaviourFilter;
+    protected static final String PARAM_HASH = "hash";
+
+    private ContentHashIndex contentHashIndex;
 
     @Override
     public void doPut(final WebScriptRequest req, final WebScriptResponse res) throws IOException, JSONException {
@@ -31,12 +37,13 @@ public class WriteResource extends AbstractIOResource {
 
         String base = req.getParameter(PARAM_BASE);
         String path = req.getParameter(PARAM_PATH);
+        String uuid = req.getParameter(PARAM_UUID);
         String sizeStr = req.getParameter(PARAM_SIZE);
         String offsetStr = req.getParameter(PARAM_OFFSET);
         final boolean truncate = Boolean.parseBoolean(req.getParameter(PARAM_TRUNCATE));
         final String mtimeStr = req.getParameter(PARAM_MTIME_SEC);
 
-        if (StringUtils.isBlank(base) || StringUtils.isBlank(path) || StringUtils.isBlank(sizeStr) || StringUtils.isBlank(offsetStr)) {
+        if (StringUtils.isBlank(base) || (StringUtils.isBlank(path) && StringUtils.isBlank(uuid)) || StringUtils.isBlank(sizeStr) || StringUtils.isBlank(offsetStr)) {
             res.setStatus(Status.STATUS_BAD_REQUEST);
             Map<String, Object> jsonResponse = new HashMap<String, Object>();
             jsonResponse.put("message", "garbage in garbage out");
@@ -44,7 +51,12 @@ public class WriteResource extends AbstractIOResource {
             return;
         }
 
-        final NodeRef nodeRef = locateNode(base, path);
+        if (!isSupportedContentEncoding(req)) {
+            sendError(res, "unsupported content encoding", ERROR_NOTSUP, Status.STATUS_UNSUPPORTED_MEDIA_TYPE);
+            return;
+        }
+
+        final NodeRef nodeRef = locateNode(base, path, uuid);
         if (nodeRef == null) {
             res.setStatus(Status.STATUS_NOT_FOUND);
             Map<String, Object> jsonResponse = new HashMap<String, Object>();
@@ -53,10 +65,14 @@ public class WriteResource extends AbstractIOResource {
             return;
         }
 
-        final ContentWriter writer = serviceRegistry.getContentService().getWriter(nodeRef, ContentModel.PROP_CONTENT, true);
+        final long size = parseSize(sizeStr);
+        final long offset = parseSize(offsetStr);
+        if (size < 0 || offset < 0) {
+            sendError(res, "invalid size or offset", ERROR_INVAL);
+            return;
+        }
 
-        final long size = Long.parseLong(sizeStr);
-        final long offset = Long.parseLong(offsetStr);
+        final ContentWriter writer = serviceRegistry.getContentService().getWriter(nodeRef, ContentModel.PROP_CONTENT, true);
         serviceRegistry.getTransactionService().getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Void>() {
             @Override
             public Void execute() throws Throwable {
@@ -67,10 +83,17 @@ public class WriteResource extends AbstractIOResource {
                     FileChannel fch = writer.getFileChannel(truncate);
                     Map<String, Object> jsonResponse = new HashMap<String, Object>();
                     ReadableByteChannel wch = null;
+                    // a whole content written in one put is indexed by its hash
+                    MessageDigest digest = null;
+                    long transfered;
                     try {
-
-                        wch = Channels.newChannel(req.getContent().getInputStream());
-                        long transfered = fch.transferFrom(wch, offset, size);
+                        InputStream in = openContent(req);
+                        if (contentHashIndex != null && truncate && offset == 0) {
+                            digest = ContentHashIndex.newDigest();
+                            in = new DigestInputStream(in, digest);
+                        }
+                        wch = Channels.newChannel(in);
+                        transfered = fch.transferFrom(wch, offset, size);
                         jsonResponse.put("transfered", Long.toString(transfered));
                     } finally {
                         if (fch != null) {
@@ -87,6 +110,9 @@ public class WriteResource extends AbstractIOResource {
                     }
 
                     String curl = writer.getContentUrl();
+                    if (digest != null && transfered == size) {
+                        contentHashIndex.put(ContentHashIndex.toHash(digest), curl);
+                    }
                     String etag = encodeContentEtag(curl);
                     jsonResponse.put("etag", etag);
                     JSONValue.writeJSONString(jsonResponse, res.getWriter());
@@ -99,12 +125,100 @@ public class WriteResource extends AbstractIOResource {
 
     }
 
-    public BehaviourFilter getBehaviourFilter() {
-        return behaviourFilter;
+    /**
+     * Put by hash: if the user wrote a content with the given sha256 hash and
+     * size before, the file gets that content without any transfer. Otherwise
+     * dedup is false and the client sends the bytes as usual.
+     */
+    @Override
+    public void doPost(WebScriptRequest req, WebScriptResponse res) throws IOException, JSONException {
+        res.setContentType(JSON_MIMETYPE);
+        res.setContentEncoding(DEFAULT_ENCODING);
+        res.setStatus(Status.STATUS_OK);
+
+        String base = req.getParameter(PARAM_BASE);
+        String path = req.getParameter(PARAM_PATH);
+        String uuid = req.getParameter(PARAM_UUID);
+        String hash = req.getParameter(PARAM_HASH);
+        String sizeStr = req.getParameter(PARAM_SIZE);
+        String mtimeStr = req.getParameter(PARAM_MTIME_SEC);
+
+        if (StringUtils.isBlank(base) || (StringUtils.isBlank(path) && StringUtils.isBlank(uuid)) || StringUtils.isBlank(sizeStr)) {
+            sendError(res, "garbage in garbage out", ERROR_IO);
+            return;
+        }
+        if (!ContentHashIndex.isHash(hash)) {
+            sendError(res, "hash must be sha256:<hex>", ERROR_INVAL);
+            return;
+        }
+        long size = parseSize(sizeStr);
+        if (size < 0) {
+            sendError(res, "invalid size", ERROR_INVAL);
+            return;
+        }
+
+        NodeRef nodeRef = locateNode(base, path, uuid);
+        if (nodeRef == null) {
+            sendError(res, "no such file or directory", ERROR_NOENT, Status.STATUS_NOT_FOUND);
+            return;
+        }
+        if (!isFile(serviceRegistry.getNodeService().getType(nodeRef))) {
+            sendError(res, "is a directory", ERROR_ISDIR);
+            return;
+        }
+
+        Map<String, Object> jsonResponse = new HashMap<String, Object>();
+        ContentData found = contentHashIndex != null ? contentHashIndex.find(hash, size) : null;
+        if (found == null) {
+            jsonResponse.put("dedup", Boolean.FALSE);
+            JSONValue.writeJSONString(jsonResponse, res.getWriter());
+            return;
+        }
+
+        // the file keeps its own mimetype and encoding
+        ContentReader current = serviceRegistry.getContentService().getReader(nodeRef, ContentModel.PROP_CONTENT);
+        String mimetype;
+        String encoding;
+        if (current != null) {
+            mimetype = current.getMimetype();
+            encoding = current.getEncoding();
+        } else {
+            mimetype = serviceRegistry.getMimetypeService().guessMimetype(
+                    (String) serviceRegistry.getNodeService().getProperty(nodeRef, ContentModel.PROP_NAME));
+            encoding = found.getEncoding();
+        }
+        ContentData contentData = new ContentData(found.getContentUrl(), mimetype, found.getSize(), encoding, found.getLocale());
+
+        try {
+            behaviourFilter.disableBehaviour(nodeRef, ContentModel.ASPECT_AUDITABLE);
+            serviceRegistry.getNodeService().setProperty(nodeRef, ContentModel.PROP_CONTENT, contentData);
+            if (StringUtils.isNotBlank(mtimeStr)) {
+                long epochSec = Long.parseLong(mtimeStr);
+                Date modDate = new Date(epochSec * 1000L);
+                serviceRegistry.getNodeService().setProperty(nodeRef, ContentModel.PROP_MODIFIED, modDate);
+            }
+        } finally {
+            behaviourFilter.enableBehaviour(nodeRef, ContentModel.ASPECT_AUDITABLE);
+        }
+
+        jsonResponse.put("dedup", Boolean.TRUE);
+        jsonResponse.put("etag", encodeContentEtag(contentData.getContentUrl()));
+        jsonResponse.put("size", Long.toString(contentData.getSize()));
+        JSONValue.writeJSONString(jsonResponse, res.getWriter());
     }
 
-    public void setBehaviourFilter(BehaviourFilter behaviourFilter) {
-        this.behaviourFilter = behaviourFilter;
+    /**
+     * Parses a non negative size or offset, -1 if it is malformed.
+     */
+    private long parseSize(String value) {
+        try {
+            return Math.max(-1, Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 
+    public void setContentHashIndex(ContentHashIndex contentHashIndex) {
+        this.contentHashIndex = contentHashIndex;
+    }
 }
@@ -2,22 +2,27 @@ package de.ecm4u.alfresco.alffs.remote;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 
-import org.alfresco.model.ContentModel;
-import org.alfresco.repo.policy.BehaviourFilter;
-import org.alfresco.service.cmr.dictionary.DataTypeDefinition;
-import org.alfresco.service.cmr.dictionary.PropertyDefinition;
+import org.alfresco.query.PagingRequest;
+import org.alfresco.query.PagingResults;
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.repo.security.permissions.AccessDeniedException;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.model.FileInfo;
 import org.alfresco.service.cmr.repository.ContentData;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.namespace.QName;
+import org.alfresco.util.Pair;
 import org.apache.commons.lang.StringUtils;
 import org.json.JSONException;
 import org.json.simple.JSONValue;
@@ -26,7 +31,18 @@ import org.springframework.extensions.webscripts.WebScriptRequest;
 import org.springframework.extensions.webscripts.WebScriptResponse;
 
 public class XAttributeResource extends AbstractIOResource {
-    private BehaviourFilter behaviourFilter;
+    protected static final String MODE_BULK = "bulk";
+    protected static final String PARAM_UUIDS = "uuids";
+    protected static final String PARAM_DEPTH = "depth";
+    protected static final String PARAM_KEYS = "keys";
+    protected static final String PARAM_ATTRS = "attrs";
+    protected static final String PARAM_NODES = "nodes";
+
+    // nodes per bulk load from the node dao and per page of a folder
+    private static final int BULK_BATCH_SIZE = 500;
+    private static final int MAX_DEPTH = 64;
+
+    private NodeDAO nodeDAO;
 
     @Override
     public void doGet(WebScriptRequest req, WebScriptResponse res) throws IOException, JSONException {
@@ -36,9 +52,15 @@ public class XAttributeResource extends AbstractIOResource {
 
         String base = req.getParameter(PARAM_BASE);
         String path = req.getParameter(PARAM_PATH);
+        String uuid = req.getParameter(PARAM_UUID);
         String key = req.getParameter(PARAM_KEY);
 
-        if (StringUtils.isBlank(base) || StringUtils.isBlank(path)) {
+        if (MODE_BULK.equals(req.getParameter(PARAM_MODE))) {
+            doBulkGet(req, res);
+            return;
+        }
+
+        if (StringUtils.isBlank(base) || (StringUtils.isBlank(path) && StringUtils.isBlank(uuid))) {
             res.setStatus(Status.STATUS_BAD_REQUEST);
             Map<String, Object> jsonResponse = new HashMap<String, Object>();
             jsonResponse.put("message", "garbage in garbage out");
@@ -47,7 +69,7 @@ public class XAttributeResource extends AbstractIOResource {
             return;
         }
 
-        NodeRef nodeRef = locateNode(base, path);
+        NodeRef nodeRef = locateNode(base, path, uuid);
         if (nodeRef == null) {
             res.setStatus(Status.STATUS_NOT_FOUND);
             Map<String, Object> jsonResponse = new HashMap<String, Object>();
@@ -59,16 +81,14 @@ public class XAttributeResource extends AbstractIOResource {
 
         if (StringUtils.isBlank(key)) {
             String mode = req.getParameter(PARAM_MODE);
-            Map<String, String> jsonResponse = marshalNode(nodeRef);
-            if ("onlykeys".equals(mode)) {
-
-                LinkedList<String> list = new LinkedList<String>(jsonResponse.keySet());
-                JSONValue.writeJSONString(list, res.getWriter());
-                return;
-            } else {
-                JSONValue.writeJSONString(jsonResponse, res.getWriter());
+            if (isNotModified(req, res, getNodeEtag(nodeRef) + "." + ("onlykeys".equals(mode) ? "keys" : "all"))) {
                 return;
             }
+            // streamed, the attributes are not collected into a map first
+            ResponseWriter out = openResponseWriter(req, res);
+            writeNode(nodeRef, out, "onlykeys".equals(mode));
+            out.flush();
+            return;
         } else {
             String val = null;
 
@@ -128,8 +148,148 @@ public class XAttributeResource extends AbstractIOResource {
             Map<String, String> jsonResponse = new HashMap<String, String>();
             jsonResponse.put("value", val);
             jsonResponse.put("key", key);
-            JSONValue.writeJSONString(jsonResponse, res.getWriter());
+            ResponseWriter out = openResponseWriter(req, res);
+            out.value(jsonResponse);
+            out.flush();
+        }
+    }
+
+    /**
+     * Attributes of many nodes in one response, either of the nodes below a
+     * directory up to depth levels (default 1) or of a comma separated list
+     * of uuids. keys optionally selects the attributes. Nodes are loaded in
+     * batches through the node dao and written as they are loaded.
+     */
+    private void doBulkGet(WebScriptRequest req, WebScriptResponse res) throws IOException {
+        String base = req.getParameter(PARAM_BASE);
+        String path = req.getParameter(PARAM_PATH);
+        String uuid = req.getParameter(PARAM_UUID);
+        String uuids = req.getParameter(PARAM_UUIDS);
+        String depthStr = req.getParameter(PARAM_DEPTH);
+        String keysStr = req.getParameter(PARAM_KEYS);
+
+        if (StringUtils.isBlank(base) || (StringUtils.isBlank(uuids) && StringUtils.isBlank(path) && StringUtils.isBlank(uuid))) {
+            sendError(res, "garbage in garbage out", ERROR_IO);
+            return;
+        }
+
+        Set<String> keys = null;
+        if (StringUtils.isNotBlank(keysStr)) {
+            keys = new HashSet<String>(Arrays.asList(StringUtils.split(keysStr, ",")));
+        }
+
+        if (StringUtils.isNotBlank(uuids)) {
+            NodeRef baseRef = resolveBase(base);
+            if (baseRef == null) {
+                sendError(res, "no such file or directory", ERROR_NOENT, Status.STATUS_NOT_FOUND);
+                return;
+            }
+            String[] ids = StringUtils.split(uuids, ",");
+            ResponseWriter out = openResponseWriter(req, res);
+            out.beginObject().name("nodes").beginArray();
+            List<NodeRef> batch = new ArrayList<NodeRef>(BULK_BATCH_SIZE);
+            for (int i = 0; i < ids.length; i++) {
+                batch.add(new NodeRef(baseRef.getStoreRef(), ids[i].trim()));
+                if (batch.size() == BULK_BATCH_SIZE || i == ids.length - 1) {
+                    nodeDAO.cacheNodes(batch);
+                    for (NodeRef nodeRef : batch) {
+                        if (!isInBase(baseRef, nodeRef) || isHidden(nodeRef)) {
+                            // handles outside of the base do not exist for this mount
+                            out.beginObject().member("uuid", nodeRef.getId()).member("errno", ERROR_NOENT).end();
+                            continue;
+                        }
+                        writeBulkEntry(out, nodeRef, null, keys);
+                    }
+                    batch.clear();
+                    out.flush();
+                }
+            }
+            out.end().member("total", ids.length).end().flush();
+            return;
+        }
+
+        int depth = 1;
+        if (StringUtils.isNotBlank(depthStr)) {
+            try {
+                depth = Math.max(0, Math.min(MAX_DEPTH, Integer.parseInt(depthStr)));
+            } catch (NumberFormatException e) {
+                sendError(res, "invalid depth", ERROR_INVAL);
+                return;
+            }
+        }
+        NodeRef root = locateNode(base, path, uuid);
+        if (root == null) {
+            sendError(res, "no such file or directory", ERROR_NOENT, Status.STATUS_NOT_FOUND);
+            return;
+        }
+
+        ResponseWriter out = openResponseWriter(req, res);
+        out.beginObject().name("nodes").beginArray();
+        writeBulkEntry(out, root, ".", keys);
+        int total = 1;
+
+        // breadth first, only folders wait in the queue
+        Deque<Pair<NodeRef, String>> folders = new ArrayDeque<Pair<NodeRef, String>>();
+        Deque<Integer> levels = new ArrayDeque<Integer>();
+        if (depth > 0) {
+            folders.add(new Pair<NodeRef, String>(root, ""));
+            levels.add(1);
+        }
+        while (!folders.isEmpty()) {
+            Pair<NodeRef, String> folder = folders.poll();
+            int level = levels.poll();
+            int skip = 0;
+            String queryExecutionId = null;
+            boolean hasMore = true;
+            while (hasMore) {
+                PagingResults<FileInfo> page = serviceRegistry.getFileFolderService().list(folder.getFirst(), true, true, null, SORT_BY_NAME,
+                        new PagingRequest(skip, BULK_BATCH_SIZE, queryExecutionId));
+                queryExecutionId = page.getQueryExecutionId();
+                hasMore = page.hasMoreItems() && !page.getPage().isEmpty();
+                skip += page.getPage().size();
+
+                List<NodeRef> batch = new ArrayList<NodeRef>(page.getPage().size());
+                for (FileInfo finfo : page.getPage()) {
+                    batch.add(finfo.getNodeRef());
+                }
+                nodeDAO.cacheNodes(batch);
+                for (FileInfo finfo : page.getPage()) {
+                    // like readdir, children of a running rmdir are gone
+                    if (jobRegistry != null && jobRegistry.isHidden(finfo.getNodeRef())) {
+                        continue;
+                    }
+                    String childPath = folder.getSecond() + finfo.getName();
+                    writeBulkEntry(out, finfo.getNodeRef(), childPath, keys);
+                    total++;
+                    if (finfo.isFolder() && level < depth) {
+                        folders.add(new Pair<NodeRef, String>(finfo.getNodeRef(), childPath + "/"));
+                        levels.add(level + 1);
+                    }
+                }
+                out.flush();
+            }
+        }
+        out.end().member("total", total).end().flush();
+    }
+
+    private void writeBulkEntry(ResponseWriter out, NodeRef nodeRef, String path, Set<String> keys) throws IOException {
+        out.beginObject().member("uuid", nodeRef.getId());
+        if (path != null) {
+            out.member("path", path);
+        }
+        if (!serviceRegistry.getNodeService().exists(nodeRef)) {
+            out.member("errno", ERROR_NOENT).end();
+            return;
+        }
+        try {
+            // check before writing, a denied node must not leave half an object
+            serviceRegistry.getNodeService().getType(nodeRef);
+            out.name("attrs");
+            writeNode(nodeRef, out, false, keys);
+        } catch (AccessDeniedException e) {
+            out.member("errno", ERROR_ACCES);
         }
+        out.end();
     }
 
     @Override
@@ -140,9 +300,10 @@ public class XAttributeResource extends AbstractIOResource {
 
         String base = req.getParameter(PARAM_BASE);
         String path = req.getParameter(PARAM_PATH);
+        String uuid = req.getParameter(PARAM_UUID);
         String key = req.getParameter(PARAM_KEY);
 
-        if (StringUtils.isBlank(base) || StringUtils.isBlank(path) || StringUtils.isBlank(key)) {
+        if (StringUtils.isBlank(base) || (StringUtils.isBlank(path) && StringUtils.isBlank(uuid)) || StringUtils.isBlank(key)) {
             res.setStatus(Status.STATUS_BAD_REQUEST);
             Map<String, Object> jsonResponse = new HashMap<String, Object>();
             jsonResponse.put("message", "garbage in garbage out");
@@ -151,7 +312,7 @@ public class XAttributeResource extends AbstractIOResource {
             return;
         }
 
-        NodeRef nodeRef = locateNode(base, path);
+        NodeRef nodeRef = locateNode(base, path, uuid);
         if (nodeRef == null) {
             res.setStatus(Status.STATUS_NOT_FOUND);
             Map<String, Object> jsonResponse = new HashMap<String, Object>();
@@ -194,6 +355,10 @@ public class XAttributeResource extends AbstractIOResource {
 
     }
 
+    public void setNodeDAO(NodeDAO nodeDAO) {
+        this.nodeDAO = nodeDAO;
+    }
+
     @Override
     public void doPost(WebScriptRequest req, WebScriptResponse res) throws IOException, JSONException {
         res.setContentType(JSON_MIMETYPE);
@@ -202,160 +367,144 @@ public class XAttributeResource extends AbstractIOResource {
 
         String base = req.getParameter(PARAM_BASE);
         String path = req.getParameter(PARAM_PATH);
+        String uuid = req.getParameter(PARAM_UUID);
         String key = req.getParameter(PARAM_KEY);
         String mode = req.getParameter(PARAM_MODE); // create, replace or empty
 
-        if (StringUtils.isBlank(base) || StringUtils.isBlank(path) || StringUtils.isBlank(key)) {
+        if (StringUtils.isBlank(key)) {
+            doMultiPost(req, res);
+            return;
+        }
+
+        if (StringUtils.isBlank(base) || (StringUtils.isBlank(path) && StringUtils.isBlank(uuid))) {
             sendError(res, "garbage in garbage out", ERROR_IO);
             return;
         }
 
-        NodeRef nodeRef = locateNode(base, path);
+        NodeRef nodeRef = locateNode(base, path, uuid);
         if (nodeRef == null) {
             sendError(res, "no such file or directory", ERROR_NOENT, Status.STATUS_NOT_FOUND);
+            return;
         }
 
-        XAttributeMode xattrmode = XAttributeMode.CREATEORREPLACE;
-        if (mode.equals("create")) {
-            xattrmode = XAttributeMode.CREATE;
-        } else if (mode.equals("replace")) {
-            xattrmode = XAttributeMode.REPLACE;
+        try {
+            setAttribute(nodeRef, key, req.getContent().getContent(), parseXAttributeMode(mode));
+        } catch (IOResourceException e) {
+            sendError(res, e);
         }
 
-        Matcher matcher = PAT_PROP.matcher(key);
-        if (matcher.matches()) {
-            // property or compound property
-            String shortqname = matcher.group(1);
-            String detail = matcher.group(2);
-            QName qname = QName.resolveToQName(serviceRegistry.getNamespaceService(), shortqname);
+    }
 
-            Map<QName, Serializable> props = serviceRegistry.getNodeService().getProperties(nodeRef);
+    /**
+     * Sets several attributes per node. The body holds either the attrs of
+     * the node given by path or uuid, or a list of nodes each with its own
+     * path or uuid and attrs. Every node is updated in its own transaction,
+     * a failing node reports its errno and does not stop the others.
+     */
+    @SuppressWarnings("unchecked")
+    private void doMultiPost(WebScriptRequest req, WebScriptResponse res) throws IOException {
+        final String base = req.getParameter(PARAM_BASE);
+        String path = req.getParameter(PARAM_PATH);
+        String uuid = req.getParameter(PARAM_UUID);
+        final XAttributeMode xattrmode = parseXAttributeMode(req.getParameter(PARAM_MODE));
 
-            if (StringUtils.isNotBlank(detail)) {
-                ContentData cdata = (ContentData) props.get(qname);
-                String value = req.getContent().getContent();
-                if (cdata == null) {
-                } else if (".encoding".equals(detail)) {
-                    cdata = ContentData.setEncoding(cdata, value);
-                } else if (".mimetype".equals(detail)) {
-                    cdata = ContentData.setMimetype(cdata, value);
-                } else {
-                    sendError(res, "attribute not supported", ERROR_NOTSUP);
-                    return;
-                }
-                if (cdata != null) {
-                    serviceRegistry.getNodeService().setProperty(nodeRef, qname, cdata);
-                }
-            } else {
-                PropertyDefinition pdef = serviceRegistry.getDictionaryService().getProperty(qname);
+        Object body = JSONValue.parse(req.getContent().getContent());
+        if (StringUtils.isBlank(base) || !(body instanceof Map)) {
+            sendError(res, "garbage in garbage out", ERROR_IO);
+            return;
+        }
+        Map<String, Object> jsonParam = (Map<String, Object>) body;
 
-                if (xattrmode == XAttributeMode.CREATE) {
-                    if (props.containsKey(qname)) {
-                        sendError(res, "attribute already exists", ERROR_EXIST);
-                        return;
-                    }
-                } else if (xattrmode == XAttributeMode.REPLACE) {
-                    if (!props.containsKey(qname)) {
-                        sendError(res, "no such attribute", ERROR_NOATTR);
-                        return;
-                    }
-                }
-                DataTypeDefinition ddef = pdef.getDataType();
-                Serializable ser = null;
-                QName dtype = ddef.getName();
-                String value = req.getContent().getContent();
-                if (value == null) {
-                    // null is fine
-                } else if (dtype.equals(DataTypeDefinition.TEXT) || dtype.equals(DataTypeDefinition.MLTEXT)) {
-                    // TODO: handle MLTEXT
-                    // todo mltext exposure
-                    // MLPropertyInterceptor.setMLAware();
-                    ser = value;
-                } else if (dtype.equals(DataTypeDefinition.BOOLEAN)) {
-                    ser = Boolean.parseBoolean(value);
-                } else if (dtype.equals(DataTypeDefinition.INT)) {
-                    ser = Integer.parseInt(value);
-                } else if (dtype.equals(DataTypeDefinition.LONG)) {
-                    ser = Long.parseLong(value);
-                } else if (dtype.equals(DataTypeDefinition.DOUBLE)) {
-                    ser = Double.parseDouble(value);
-                } else if (dtype.equals(DataTypeDefinition.FLOAT)) {
-                    ser = Float.parseFloat(value);
-                } else if (dtype.equals(DataTypeDefinition.QNAME)) {
-                    ser = QName.resolveToQName(serviceRegistry.getNamespaceService(), value);
-                } else if (dtype.equals(DataTypeDefinition.DATE)) {
-                    // cm:created und cm:modified setzen
-                    ser = unmarshalDate(value);
-                } else if (dtype.equals(DataTypeDefinition.DATETIME)) {
-                    ser = unmarshalDateTime(value);
-                } else if (dtype.equals(DataTypeDefinition.LOCALE)) {
-                    String[] parts = StringUtils.split(value, "_");
-                    if (parts.length == 1) {
-                        ser = new Locale(parts[0]);
-                    } else if (parts.length == 2) {
-                        ser = new Locale(parts[0], parts[1]);
-                    } else if (parts.length == 3) {
-                        ser = new Locale(parts[0], parts[1], parts[2]);
-                    } else {
-                        throw new RuntimeException("invalid locale");
-                    }
-                } else {
-                    sendError(res, "property type not supported", ERROR_NOTSUP);
-                    return;
-                }
-                boolean auditableRestore = false;
-                if (qname.equals(ContentModel.PROP_MODIFIED)) {
-                    behaviourFilter.disableBehaviour(nodeRef, ContentModel.ASPECT_AUDITABLE);
-                    auditableRestore = true;
-                }
-                try {
-                    serviceRegistry.getNodeService().setProperty(nodeRef, qname, ser);
-                } finally {
-                    if (auditableRestore) {
-                        behaviourFilter.enableBehaviour(nodeRef, ContentModel.ASPECT_AUDITABLE);
-                    }
-                }
+        if (StringUtils.isNotBlank(path) || StringUtils.isNotBlank(uuid)) {
+            Map<String, Object> node = new HashMap<String, Object>();
+            node.put(PARAM_PATH, path);
+            node.put(PARAM_UUID, uuid);
+            node.put(PARAM_ATTRS, jsonParam.get(PARAM_ATTRS));
+            Map<String, Object> result = setNodeAttributes(base, node, xattrmode);
+            if (result.containsKey("errno")) {
+                Object status = result.remove("status");
+                res.setStatus(status != null ? (Integer) status : Status.STATUS_BAD_REQUEST);
             }
+            JSONValue.writeJSONString(result, res.getWriter());
+            return;
+        }
 
-        } else if (key.equals("alf.aspects")) {
-            List<QName> aspects = new ArrayList<QName>();
-            String value = req.getContent().getContent();
-            if (StringUtils.isNotBlank(value)) {
-                aspects = unmarshalAspects(value);
-            }
-            // if create add aspect if not added
-            // if replace or createoreplace do repalce
-            if (xattrmode == XAttributeMode.CREATE) {
-                for (QName fqan : aspects) {
-                    serviceRegistry.getNodeService().addAspect(nodeRef, fqan, null);
-                }
-            } else {
-                Set<QName> currentAspects = serviceRegistry.getNodeService().getAspects(nodeRef);
-                for (QName fqan : aspects) {
-                    if (!currentAspects.contains(fqan)) {
-                        serviceRegistry.getNodeService().addAspect(nodeRef, fqan, null);
-                    }
-                    currentAspects.remove(fqan);
-                }
-                for (QName fqan : currentAspects) {
-                    serviceRegistry.getNodeService().removeAspect(nodeRef, fqan);
-                }
+        List<Map<String, Object>> nodes = (List<Map<String, Object>>) jsonParam.get(PARAM_NODES);
+        if (nodes == null) {
+            sendError(res, "garbage in garbage out", ERROR_IO);
+            return;
+        }
+        List<Map<String, Object>> results = new ArrayList<Map<String, Object>>(nodes.size());
+        int failed = 0;
+        for (Map<String, Object> node : nodes) {
+            Map<String, Object> result = setNodeAttributes(base, node, xattrmode);
+            if (result.remove("status") != null) {
+                failed++;
             }
-        } else if (key.equals("alf.type")) {
-            String value = req.getContent().getContent();
-            QName type = QName.resolveToQName(serviceRegistry.getNamespaceService(), value);
-            serviceRegistry.getNodeService().setType(nodeRef, type);
-        } else {
-            sendError(res, "garbage in garbage out", ERROR_NOTSUP);
+            results.add(result);
         }
-
+        Map<String, Object> jsonResponse = new HashMap<String, Object>();
+        jsonResponse.put("results", results);
+        jsonResponse.put("failed", failed);
+        JSONValue.writeJSONString(jsonResponse, res.getWriter());
     }
 
-    public BehaviourFilter getBehaviourFilter() {
-        return behaviourFilter;
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> setNodeAttributes(final String base, Map<String, Object> node, final XAttributeMode xattrmode) {
+        final String path = (String) node.get(PARAM_PATH);
+        final String uuid = (String) node.get(PARAM_UUID);
+        Object attrsObj = node.get(PARAM_ATTRS);
+
+        final Map<String, Object> result = new HashMap<String, Object>();
+        if (path != null) {
+            result.put(PARAM_PATH, path);
+        }
+        if (uuid != null) {
+            result.put(PARAM_UUID, uuid);
+        }
+        if ((StringUtils.isBlank(path) && StringUtils.isBlank(uuid)) || !(attrsObj instanceof Map)) {
+            putError(result, new IOResourceException("garbage in garbage out", ERROR_IO));
+            return result;
+        }
+        final Map<String, String> attrs = new HashMap<String, String>();
+        for (Map.Entry<String, Object> attr : ((Map<String, Object>) attrsObj).entrySet()) {
+            attrs.put(attr.getKey(), attr.getValue() != null ? attr.getValue().toString() : null);
+        }
+
+        // setAttributes fails before its first write, so the transaction
+        // commits nothing for a node that reports an errno. Repository
+        // failures roll the node back and are reported the same way.
+        try {
+            serviceRegistry.getTransactionService().getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Void>() {
+                @Override
+                public Void execute() throws Throwable {
+                    result.remove("errno");
+                    result.remove("message");
+                    result.remove("status");
+                    NodeRef nodeRef = locateNode(base, path, uuid);
+                    try {
+                        if (nodeRef == null) {
+                            throw new IOResourceException("no such file or directory", ERROR_NOENT, Status.STATUS_NOT_FOUND);
+                        }
+                        setAttributes(nodeRef, attrs, xattrmode);
+                        result.put(PARAM_UUID, nodeRef.getId());
+                    } catch (IOResourceException e) {
+                        putError(result, e);
+                    }
+                    return null;
+                }
+            }, false, true);
+        } catch (RuntimeException e) {
+            result.put("errno", toErrno(e));
+            result.put("message", e.getMessage());
+            result.put("status", Status.STATUS_BAD_REQUEST);
+        }
+        return result;
     }
 
-    public void setBehaviourFilter(BehaviourFilter behaviourFilter) {
-        this.behaviourFilter = behaviourFilter;
+    private void putError(Map<String, Object> result, IOResourceException e) {
+        result.put("errno", e.getErrno());
+        result.put("message", e.getMessage());
+        result.put("status", e.getStatus());
     }
 }
@@ -0,0 +1,61 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * {@link BlockSignature} has a weak checksum and the md5 of every block,
+ * also when the content is longer than expected.
+ */
+public class BlockSignatureTest {
+	private static final int BLOCK_SIZE = 16;
+
+	private static byte[] content(int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) (i * 11 + 5);
+		}
+		return bytes;
+	}
+
+	private static void assertSignature(byte[] bytes, long expectedSize)
+			throws IOException, NoSuchAlgorithmException {
+		BlockSignature signature = BlockSignature.compute(
+				Channels.newChannel(new ByteArrayInputStream(bytes)),
+				BLOCK_SIZE, expectedSize);
+		int blocks = (bytes.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		assertEquals(bytes.length, signature.getSize());
+		assertEquals(blocks, signature.getBlockCount());
+		for (int i = 0; i < blocks; i++) {
+			int start = i * BLOCK_SIZE;
+			int length = Math.min(BLOCK_SIZE, bytes.length - start);
+			assertEquals(BlockSignature.weakChecksum(bytes, start, length),
+					signature.getWeak(i));
+			assertArrayEquals(MessageDigest.getInstance("MD5").digest(
+					Arrays.copyOfRange(bytes, start, start + length)),
+					signature.getStrong(i));
+		}
+	}
+
+	@Test
+	public void testExpectedSize() throws Exception {
+		assertSignature(content(0), 0);
+		assertSignature(content(5 * BLOCK_SIZE), 5 * BLOCK_SIZE);
+		assertSignature(content(5 * BLOCK_SIZE + 3), 5 * BLOCK_SIZE + 3);
+	}
+
+	@Test
+	public void testLongerThanExpected() throws Exception {
+		assertSignature(content(9 * BLOCK_SIZE + 1), 0);
+		assertSignature(content(9 * BLOCK_SIZE + 1), 2 * BLOCK_SIZE);
+	}
+}
@@ -0,0 +1,132 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * Byte exact output of {@link CborResponseWriter}, checked against the
+ * encodings of RFC 7049 appendix A.
+ */
+public class CborResponseWriterTest {
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+	private final CborResponseWriter writer = new CborResponseWriter(out);
+
+	private static byte[] bytes(int... values) {
+		byte[] bytes = new byte[values.length];
+		for (int i = 0; i < values.length; i++) {
+			bytes[i] = (byte) values[i];
+		}
+		return bytes;
+	}
+
+	private byte[] write(Object value) throws IOException {
+		out.reset();
+		writer.value(value).flush();
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testUnsignedHeaderWidths() throws IOException {
+		assertArrayEquals(bytes(0x00), write(0));
+		assertArrayEquals(bytes(0x17), write(23));
+		assertArrayEquals(bytes(0x18, 0x18), write(24));
+		assertArrayEquals(bytes(0x18, 0xff), write(255));
+		assertArrayEquals(bytes(0x19, 0x01, 0x00), write(256));
+		assertArrayEquals(bytes(0x19, 0xff, 0xff), write(65535));
+		assertArrayEquals(bytes(0x1a, 0x00, 0x01, 0x00, 0x00), write(65536));
+		assertArrayEquals(bytes(0x1a, 0xff, 0xff, 0xff, 0xff),
+				write(0xffffffffL));
+		assertArrayEquals(
+				bytes(0x1b, 0x00, 0x00, 0x00, 0x01, 0x00, 0x00, 0x00, 0x00),
+				write(1L << 32));
+		assertArrayEquals(
+				bytes(0x1b, 0x7f, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff),
+				write(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testNegativeIntegers() throws IOException {
+		assertArrayEquals(bytes(0x20), write(-1));
+		assertArrayEquals(bytes(0x29), write(-10));
+		assertArrayEquals(bytes(0x37), write(-24));
+		assertArrayEquals(bytes(0x38, 0x18), write(-25));
+		assertArrayEquals(bytes(0x38, 0x63), write(-100));
+		assertArrayEquals(bytes(0x38, 0xff), write(-256));
+		assertArrayEquals(bytes(0x39, 0x01, 0x00), write(-257));
+		assertArrayEquals(bytes(0x39, 0x03, 0xe7), write(-1000));
+		assertArrayEquals(bytes(0x3a, 0xff, 0xff, 0xff, 0xff),
+				write(-0x100000000L));
+		assertArrayEquals(
+				bytes(0x3b, 0x7f, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff),
+				write(Long.MIN_VALUE));
+	}
+
+	@Test
+	public void testSimpleValues() throws IOException {
+		assertArrayEquals(bytes(0xf4), write(false));
+		assertArrayEquals(bytes(0xf5), write(true));
+		assertArrayEquals(bytes(0xf6), write(null));
+		assertArrayEquals(
+				bytes(0xfb, 0x3f, 0xf1, 0x99, 0x99, 0x99, 0x99, 0x99, 0x9a),
+				write(1.1d));
+		assertArrayEquals(
+				bytes(0xfb, 0xc0, 0x10, 0x66, 0x66, 0x66, 0x66, 0x66, 0x66),
+				write(-4.1d));
+	}
+
+	@Test
+	public void testText() throws IOException {
+		assertArrayEquals(bytes(0x60), write(""));
+		assertArrayEquals(bytes(0x61, 0x61), write("a"));
+		assertArrayEquals(bytes(0x64, 0x49, 0x45, 0x54, 0x46), write("IETF"));
+		assertArrayEquals(bytes(0x62, 0xc3, 0xbc), write("\u00fc"));
+		assertArrayEquals(bytes(0x63, 0xe6, 0xb0, 0xb4), write("\u6c34"));
+
+		// 24 bytes need the one byte length
+		char[] chars = new char[24];
+		Arrays.fill(chars, 'x');
+		byte[] expected = new byte[26];
+		Arrays.fill(expected, (byte) 'x');
+		expected[0] = 0x78;
+		expected[1] = 24;
+		assertArrayEquals(expected, write(new String(chars)));
+	}
+
+	@Test
+	public void testDefiniteMapsAndArrays() throws IOException {
+		assertArrayEquals(bytes(0x80), write(Collections.emptyList()));
+		assertArrayEquals(bytes(0x83, 0x01, 0x02, 0x03),
+				write(Arrays.asList(1, 2, 3)));
+		assertArrayEquals(bytes(0xa0), write(Collections.emptyMap()));
+		assertArrayEquals(bytes(0xa1, 0x61, 0x61, 0x82, 0x01, 0x02),
+				write(Collections.singletonMap("a", Arrays.asList(1, 2))));
+
+		// 25 items need the one byte length
+		Integer[] items = new Integer[25];
+		Arrays.fill(items, 1);
+		byte[] expected = new byte[27];
+		Arrays.fill(expected, (byte) 0x01);
+		expected[0] = (byte) 0x98;
+		expected[1] = 25;
+		assertArrayEquals(expected, write(Arrays.asList(items)));
+	}
+
+	@Test
+	public void testIndefiniteMapsAndArrays() throws IOException {
+		writer.beginObject().member("a", 1).name("b").beginArray().value(2)
+				.value(3).end().end().flush();
+		assertArrayEquals(
+				bytes(0xbf, 0x61, 0x61, 0x01, 0x61, 0x62, 0x9f, 0x02, 0x03,
+						0xff, 0xff), out.toByteArray());
+
+		out.reset();
+		writer.beginArray().end().beginObject().end().flush();
+		assertArrayEquals(bytes(0x9f, 0xff, 0xbf, 0xff), out.toByteArray());
+	}
+}
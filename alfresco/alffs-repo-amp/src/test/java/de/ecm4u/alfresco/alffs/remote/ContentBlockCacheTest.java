@@ -0,0 +1,147 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.junit.Test;
+
+/**
+ * Windows sent through {@link ContentBlockCache} are byte exact, also when
+ * the pool has fewer buffers than a read touches blocks.
+ */
+public class ContentBlockCacheTest {
+	private static final int BLOCK_SIZE = 16;
+
+	private static byte[] content(int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) (i * 7 + 3);
+		}
+		return bytes;
+	}
+
+	private static ContentReader reader(final File file, final String url) {
+		return (ContentReader) Proxy.newProxyInstance(
+				ContentReader.class.getClassLoader(),
+				new Class<?>[] { ContentReader.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws IOException {
+						String name = method.getName();
+						if (name.equals("getContentUrl")) {
+							return url;
+						}
+						if (name.equals("getSize")) {
+							return file.length();
+						}
+						if (name.equals("getFileChannel")) {
+							return new RandomAccessFile(file, "r").getChannel();
+						}
+						return null;
+					}
+				});
+	}
+
+	private static File write(byte[] bytes) throws IOException {
+		File file = File.createTempFile("alffs-blocks-", ".bin");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static ContentBlockCache cache(int blocks) {
+		ContentBlockCache cache = new ContentBlockCache();
+		cache.setBlockSize(BLOCK_SIZE);
+		cache.setMaxBytes((long) blocks * BLOCK_SIZE);
+		cache.setMaxWindowBlocks(4);
+		cache.setPrefetchBlocks(0);
+		cache.setPrefetchThreads(1);
+		cache.init();
+		return cache;
+	}
+
+	private static byte[] send(ContentBlockCache cache, ContentReader reader,
+			long offset, long length) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertTrue(cache.send(reader, offset, length, "client",
+				Channels.newChannel(out)));
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testWindows() throws IOException {
+		byte[] bytes = content(3 * BLOCK_SIZE + 5);
+		ContentReader reader = reader(write(bytes), "store://a");
+		ContentBlockCache cache = cache(8);
+		try {
+			int[][] windows = { { 0, 1 }, { 0, BLOCK_SIZE }, { 3, 40 },
+					{ BLOCK_SIZE - 1, 2 }, { 2 * BLOCK_SIZE, 21 },
+					{ bytes.length - 1, 1 } };
+			for (int[] window : windows) {
+				assertArrayEquals(Arrays.copyOfRange(bytes, window[0],
+						window[0] + window[1]),
+						send(cache, reader, window[0], window[1]));
+			}
+		} finally {
+			cache.destroy();
+		}
+	}
+
+	@Test
+	public void testCachedBlocksAreHits() throws IOException {
+		byte[] bytes = content(2 * BLOCK_SIZE);
+		ContentReader reader = reader(write(bytes), "store://b");
+		ContentBlockCache cache = cache(8);
+		try {
+			send(cache, reader, 0, 2 * BLOCK_SIZE);
+			assertEquals(0, cache.getHits());
+			assertEquals(2, cache.getMisses());
+			assertArrayEquals(Arrays.copyOfRange(bytes, 5, 30),
+					send(cache, reader, 5, 25));
+			assertEquals(2, cache.getHits());
+			assertEquals(2, cache.getMisses());
+		} finally {
+			cache.destroy();
+		}
+	}
+
+	@Test
+	public void testSmallPool() throws IOException {
+		// two buffers, one to send from and one cached block, for windows
+		// of up to four blocks and two contents
+		byte[] first = content(4 * BLOCK_SIZE);
+		byte[] second = content(4 * BLOCK_SIZE + 1);
+		ContentReader firstReader = reader(write(first), "store://c");
+		ContentReader secondReader = reader(write(second), "store://d");
+		ContentBlockCache cache = cache(2);
+		try {
+			for (int i = 0; i < 3; i++) {
+				assertArrayEquals(first,
+						send(cache, firstReader, 0, first.length));
+				assertArrayEquals(Arrays.copyOfRange(second, 1, second.length),
+						send(cache, secondReader, 1, second.length - 1));
+			}
+		} finally {
+			cache.destroy();
+		}
+	}
+}
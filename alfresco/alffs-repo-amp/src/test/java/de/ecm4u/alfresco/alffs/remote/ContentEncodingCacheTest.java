@@ -0,0 +1,201 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.util.TempFileProvider;
+import org.junit.Test;
+
+/**
+ * Both encodings of {@link ContentEncodingCache} decode with the jdk
+ * streams, a cached copy deleted from outside is compressed again, copies
+ * stay within the byte budget and copies of an earlier run are removed.
+ */
+public class ContentEncodingCacheTest {
+	private static byte[] content() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			text.append("line ").append(i % 17).append('\n');
+		}
+		return text.toString().getBytes();
+	}
+
+	private static byte[] encode(ContentEncodingCache cache, byte[] bytes,
+			String encoding) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ContentEncodingCache.EncodingOutputStream encoded = cache.encode(out,
+				encoding);
+		try {
+			// single bytes and arrays both go through the checksum
+			encoded.write(bytes[0]);
+			encoded.write(bytes, 1, bytes.length - 1);
+			encoded.finish();
+		} finally {
+			encoded.end();
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+	private static byte[] readAll(FileChannel channel) throws IOException {
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					break;
+				}
+			}
+			return buffer.array();
+		} finally {
+			channel.close();
+		}
+	}
+
+	private static ContentReader reader(final byte[] bytes) {
+		return reader(bytes, "store://encoded");
+	}
+
+	private static ContentReader reader(final byte[] bytes, final String url) {
+		return (ContentReader) Proxy.newProxyInstance(
+				ContentReader.class.getClassLoader(),
+				new Class<?>[] { ContentReader.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						String name = method.getName();
+						if (name.equals("getContentUrl")) {
+							return url;
+						}
+						if (name.equals("getSize")) {
+							return (long) bytes.length;
+						}
+						if (name.equals("getReader")) {
+							return proxy;
+						}
+						if (name.equals("getContentInputStream")) {
+							return new ByteArrayInputStream(bytes);
+						}
+						return null;
+					}
+				});
+	}
+
+	private static ContentEncodingCache cache() {
+		ContentEncodingCache cache = new ContentEncodingCache();
+		cache.init();
+		return cache;
+	}
+
+	private static File[] copies() {
+		File[] copies = TempFileProvider.getLongLifeTempDir("alffs-encoded")
+				.listFiles();
+		assertNotNull(copies);
+		return copies;
+	}
+
+	@Test
+	public void testEncodings() throws IOException {
+		byte[] bytes = content();
+		ContentEncodingCache cache = cache();
+		try {
+			assertArrayEquals(bytes, readAll(new GZIPInputStream(
+					new ByteArrayInputStream(encode(cache, bytes,
+							ContentEncodingCache.GZIP)))));
+			assertArrayEquals(bytes, readAll(new InflaterInputStream(
+					new ByteArrayInputStream(encode(cache, bytes,
+							ContentEncodingCache.DEFLATE)))));
+		} finally {
+			cache.destroy();
+		}
+	}
+
+	@Test
+	public void testDeletedCopyIsCompressedAgain() throws IOException {
+		byte[] bytes = content();
+		ContentReader reader = reader(bytes);
+		ContentEncodingCache cache = cache();
+		try {
+			byte[] first = readAll(cache.openEncoded(reader,
+					ContentEncodingCache.GZIP));
+
+			// what a temp file cleaner would do
+			for (File copy : copies()) {
+				if (copy.getName().startsWith("alffs-encoded-")) {
+					assertTrue(copy.delete());
+				}
+			}
+
+			FileChannel channel = cache.openEncoded(reader,
+					ContentEncodingCache.GZIP);
+			assertNotNull(channel);
+			assertArrayEquals(first, readAll(channel));
+			assertArrayEquals(bytes, readAll(new GZIPInputStream(
+					new ByteArrayInputStream(first))));
+		} finally {
+			cache.destroy();
+		}
+	}
+
+	@Test
+	public void testByteBudget() throws IOException {
+		byte[] bytes = content();
+		ContentEncodingCache cache = cache();
+		try {
+			long length = readAll(cache.openEncoded(reader(bytes, "store://0"),
+					ContentEncodingCache.GZIP)).length;
+			cache.destroy();
+
+			// room for two copies
+			cache = new ContentEncodingCache();
+			cache.setMaxBytes(2 * length + length / 2);
+			cache.init();
+			for (int i = 0; i < 5; i++) {
+				readAll(cache.openEncoded(reader(bytes, "store://" + i),
+						ContentEncodingCache.GZIP));
+			}
+			assertEquals(2, copies().length);
+		} finally {
+			cache.destroy();
+		}
+	}
+
+	@Test
+	public void testInitRemovesOldCopies() throws IOException {
+		File old = File.createTempFile("alffs-encoded-", ".gzip",
+				TempFileProvider.getLongLifeTempDir("alffs-encoded"));
+		ContentEncodingCache cache = cache();
+		try {
+			assertFalse(old.exists());
+		} finally {
+			cache.destroy();
+		}
+	}
+}
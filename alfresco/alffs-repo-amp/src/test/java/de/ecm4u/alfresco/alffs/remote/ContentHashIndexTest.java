@@ -0,0 +1,100 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.attributes.AttributeService.AttributeQueryCallback;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link ContentHashIndex} prunes the entries of a user to the newest
+ * maxEntries and drops expired ones, also those written without a time.
+ */
+public class ContentHashIndexTest {
+	private static final String ATTR_KEY = "ecm4u.alffs.contentHash";
+
+	private final Map<List<Serializable>, Serializable> attributes = new LinkedHashMap<List<Serializable>, Serializable>();
+	private ContentHashIndex index;
+
+	@Before
+	public void setUp() {
+		AttributeService attributeService = (AttributeService) Proxy
+				.newProxyInstance(AttributeService.class.getClassLoader(),
+						new Class<?>[] { AttributeService.class },
+						new InvocationHandler() {
+							@Override
+							public Object invoke(Object proxy, Method method,
+									Object[] args) {
+								String name = method.getName();
+								if (name.equals("setAttribute")) {
+									attributes.put(Arrays
+											.asList((Serializable[]) args[1]),
+											(Serializable) args[0]);
+								} else if (name.equals("removeAttribute")) {
+									attributes.remove(Arrays
+											.asList((Serializable[]) args[0]));
+								} else if (name.equals("getAttributes")) {
+									query((AttributeQueryCallback) args[0],
+											(Serializable[]) args[1]);
+								}
+								return null;
+							}
+						});
+		index = new ContentHashIndex();
+		index.setAttributeService(attributeService);
+		index.setPruneInterval(1);
+	}
+
+	private void query(AttributeQueryCallback callback, Serializable[] prefix) {
+		for (Map.Entry<List<Serializable>, Serializable> entry : new ArrayList<Map.Entry<List<Serializable>, Serializable>>(
+				attributes.entrySet())) {
+			List<Serializable> keys = entry.getKey();
+			if (keys.subList(0, prefix.length).equals(Arrays.asList(prefix))) {
+				callback.handleAttribute(Long.valueOf(0), entry.getValue(),
+						keys.toArray(new Serializable[keys.size()]));
+			}
+		}
+	}
+
+	private static String hash(int i) {
+		return ContentHashIndex.HASH_PREFIX + i;
+	}
+
+	@Test
+	public void testMaxEntries() {
+		index.setMaxEntries(3);
+		for (int i = 0; i < 10; i++) {
+			index.put(hash(i), "store://" + i);
+		}
+		assertEquals(3, attributes.size());
+	}
+
+	@Test
+	public void testExpiredEntries() {
+		// an entry of an older version without a time
+		attributes.put(Arrays.<Serializable> asList(ATTR_KEY, null, hash(0)),
+				"store://0");
+		index.put(hash(1), "store://1");
+		assertEquals(1, attributes.size());
+		assertTrue(attributes.values().iterator().next().toString()
+				.endsWith(" store://1"));
+
+		index.setMaxAgeMillis(-1000L);
+		index.put(hash(2), "store://2");
+		assertFalse(attributes.containsKey(Arrays.<Serializable> asList(
+				ATTR_KEY, null, hash(1))));
+	}
+}
@@ -0,0 +1,84 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.alfresco.repo.content.filestore.FileContentReader;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.junit.Test;
+
+/**
+ * Large reads are handed to the sendfile support of the connector as a file
+ * window. The request only gets attributes, no content passes through a heap
+ * array of the servlet stream or any other call.
+ */
+public class SendfileTest {
+	private final Map<String, Object> attributes = new HashMap<String, Object>();
+	private final Map<String, Integer> calls = new HashMap<String, Integer>();
+
+	private HttpServletRequest request() {
+		return (HttpServletRequest) Proxy.newProxyInstance(
+				HttpServletRequest.class.getClassLoader(),
+				new Class<?>[] { HttpServletRequest.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						String name = method.getName();
+						Integer count = calls.get(name);
+						calls.put(name, count == null ? 1 : count + 1);
+						if (name.equals("setAttribute")) {
+							attributes.put((String) args[0], args[1]);
+						}
+						return null;
+					}
+				});
+	}
+
+	@Test
+	public void testFileWindow() throws IOException {
+		File file = File.createTempFile("alffs-sendfile-", ".bin");
+		file.deleteOnExit();
+		assertTrue(ReadResource.sendfile(request(),
+				new FileContentReader(file), 1L << 32, 1L << 30));
+		assertEquals(file.getCanonicalPath(),
+				attributes.get(ReadResource.SENDFILE_FILENAME));
+		assertEquals(Long.valueOf(1L << 32),
+				attributes.get(ReadResource.SENDFILE_START));
+		assertEquals(Long.valueOf((1L << 32) + (1L << 30)),
+				attributes.get(ReadResource.SENDFILE_END));
+		assertEquals(1, calls.size());
+		assertEquals(Integer.valueOf(3), calls.get("setAttribute"));
+	}
+
+	@Test
+	public void testNoSendfile() throws IOException {
+		File file = File.createTempFile("alffs-sendfile-", ".bin");
+		file.deleteOnExit();
+		assertFalse(ReadResource.sendfile(null, new FileContentReader(file),
+				0, 10));
+		ContentReader reader = (ContentReader) Proxy.newProxyInstance(
+				ContentReader.class.getClassLoader(),
+				new Class<?>[] { ContentReader.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						return null;
+					}
+				});
+		assertFalse(ReadResource.sendfile(request(), reader, 0, 10));
+		assertTrue(calls.isEmpty());
+	}
+}
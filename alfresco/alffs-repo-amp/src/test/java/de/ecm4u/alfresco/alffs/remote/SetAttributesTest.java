@@ -0,0 +1,219 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.dictionary.AspectDefinition;
+import org.alfresco.service.cmr.dictionary.DataTypeDefinition;
+import org.alfresco.service.cmr.dictionary.DictionaryService;
+import org.alfresco.service.cmr.dictionary.PropertyDefinition;
+import org.alfresco.service.cmr.dictionary.TypeDefinition;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link AbstractIOResource#setAttributes} checks every key, value, aspect
+ * and the type before it writes anything.
+ */
+public class SetAttributesTest {
+	private static final String CM = "http://www.alfresco.org/model/content/1.0";
+
+	private final Map<QName, Serializable> properties = new HashMap<QName, Serializable>();
+	private final List<String> writes = new ArrayList<String>();
+	private final NodeRef nodeRef = new NodeRef("workspace://SpacesStore/node");
+	private AbstractIOResource resource;
+
+	private static QName cm(String localName) {
+		return QName.createQName(CM, localName);
+	}
+
+	private static <T> T fake(Class<T> type, InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(),
+				new Class<?>[] { type }, handler));
+	}
+
+	private static PropertyDefinition property(final QName dataType) {
+		final DataTypeDefinition definition = fake(DataTypeDefinition.class,
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						return dataType;
+					}
+				});
+		return fake(PropertyDefinition.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				return definition;
+			}
+		});
+	}
+
+	@Before
+	public void setUp() {
+		properties.put(cm("name"), "a.txt");
+
+		final NodeService nodeService = fake(NodeService.class,
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						String name = method.getName();
+						if (name.equals("getProperties")) {
+							return new HashMap<QName, Serializable>(properties);
+						}
+						if (name.equals("getAspects")) {
+							return new HashSet<QName>();
+						}
+						writes.add(name);
+						return null;
+					}
+				});
+
+		final Map<QName, PropertyDefinition> definitions = new HashMap<QName, PropertyDefinition>();
+		definitions.put(cm("name"), property(DataTypeDefinition.TEXT));
+		definitions.put(cm("title"), property(DataTypeDefinition.TEXT));
+		definitions.put(cm("versionCount"), property(DataTypeDefinition.LONG));
+		final DictionaryService dictionaryService = fake(
+				DictionaryService.class, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						String name = method.getName();
+						if (name.equals("getProperty")) {
+							return definitions.get(args[0]);
+						}
+						if (name.equals("getAspect")
+								&& cm("titled").equals(args[0])) {
+							return fake(AspectDefinition.class, this);
+						}
+						if (name.equals("getType")
+								&& cm("content").equals(args[0])) {
+							return fake(TypeDefinition.class, this);
+						}
+						return null;
+					}
+				});
+
+		final NamespaceService namespaceService = fake(NamespaceService.class,
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						if (method.getName().equals("getNamespaceURI")) {
+							return "cm".equals(args[0]) ? CM : null;
+						}
+						return Collections.singleton("cm");
+					}
+				});
+
+		ServiceRegistry serviceRegistry = fake(ServiceRegistry.class,
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						String name = method.getName();
+						if (name.equals("getNodeService")) {
+							return nodeService;
+						}
+						if (name.equals("getDictionaryService")) {
+							return dictionaryService;
+						}
+						if (name.equals("getNamespaceService")) {
+							return namespaceService;
+						}
+						return null;
+					}
+				});
+		resource = new AbstractIOResource() {
+		};
+		resource.setServiceRegistry(serviceRegistry);
+	}
+
+	private Map<String, String> attrs(String... keyValues) {
+		Map<String, String> attrs = new LinkedHashMap<String, String>();
+		for (int i = 0; i < keyValues.length; i += 2) {
+			attrs.put(keyValues[i], keyValues[i + 1]);
+		}
+		return attrs;
+	}
+
+	private void assertFails(String errno, Map<String, String> attrs) {
+		try {
+			resource.setAttributes(nodeRef, attrs,
+					XAttributeMode.CREATEORREPLACE);
+			fail("expected " + errno);
+		} catch (IOResourceException e) {
+			assertEquals(errno, e.getErrno());
+		}
+		assertTrue("written " + writes, writes.isEmpty());
+	}
+
+	@Test
+	public void testUnknownProperty() {
+		assertFails(AbstractIOResource.ERROR_NOATTR,
+				attrs("alf.type", "cm:content", "alf.prop.cm:nosuch", "x"));
+	}
+
+	@Test
+	public void testUnknownPrefix() {
+		assertFails(AbstractIOResource.ERROR_INVAL,
+				attrs("alf.prop.cm:title", "x", "alf.prop.xx:title", "x"));
+	}
+
+	@Test
+	public void testUnknownAspect() {
+		assertFails(AbstractIOResource.ERROR_INVAL,
+				attrs("alf.prop.cm:title", "x", "alf.aspects",
+						"cm:titled,cm:nosuch"));
+	}
+
+	@Test
+	public void testUnknownType() {
+		assertFails(AbstractIOResource.ERROR_INVAL,
+				attrs("alf.prop.cm:title", "x", "alf.type", "cm:nosuch"));
+	}
+
+	@Test
+	public void testMalformedValue() {
+		assertFails(AbstractIOResource.ERROR_INVAL,
+				attrs("alf.prop.cm:title", "x", "alf.prop.cm:versionCount",
+						"many"));
+	}
+
+	@Test
+	public void testPartOfMissingContent() {
+		assertFails(AbstractIOResource.ERROR_NOATTR,
+				attrs("alf.prop.cm:title", "x",
+						"alf.prop.cm:content.mimetype", "text/plain"));
+	}
+
+	@Test
+	public void testValidAttributes() throws IOResourceException {
+		resource.setAttributes(nodeRef, attrs("alf.type", "cm:content",
+				"alf.aspects", "cm:titled", "alf.prop.cm:title", "x",
+				"alf.prop.cm:versionCount", "3"),
+				XAttributeMode.CREATEORREPLACE);
+		assertEquals(Arrays.asList("setType", "addAspect",
+				"addProperties"), writes);
+	}
+}
@@ -0,0 +1,108 @@
+package de.ecm4u.alfresco.alffs.remote;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+/**
+ * {@link UtcDateFormat} must print the same as the {@link SimpleDateFormat}
+ * in UTC it replaced.
+ */
+public class UtcDateFormatTest {
+	private static final String PATTERN = "yyyy-MM-dd'T'HH:mm:ss";
+
+	private static SimpleDateFormat newFormat() {
+		SimpleDateFormat format = new SimpleDateFormat(PATTERN);
+		format.getCalendar().setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format;
+	}
+
+	private static long parse(String date) throws ParseException {
+		return newFormat().parse(date).getTime();
+	}
+
+	private static void assertSame(long millis) {
+		assertEquals("millis " + millis, newFormat().format(new Date(millis)),
+				UtcDateFormat.format(millis));
+	}
+
+	/**
+	 * Checks the instant and the millis and seconds around it.
+	 */
+	private static void assertAround(long millis) {
+		for (long delta : new long[] { -1000L, -1L, 0L, 1L, 999L, 1000L }) {
+			assertSame(millis + delta);
+		}
+	}
+
+	@Test
+	public void testEpoch() {
+		assertEquals("1970-01-01T00:00:00", UtcDateFormat.format(0L));
+		assertEquals("1969-12-31T23:59:59", UtcDateFormat.format(-1L));
+		assertEquals("1970-01-01T00:00:00", UtcDateFormat.format(999L));
+		assertAround(0L);
+	}
+
+	@Test
+	public void testBefore1970() throws ParseException {
+		assertAround(parse("1969-12-31T23:59:59"));
+		assertAround(parse("1960-02-29T12:00:00"));
+		assertAround(parse("1900-01-01T00:00:00"));
+		assertAround(parse("1700-03-01T00:00:00"));
+		assertAround(parse("1600-02-29T23:59:59"));
+	}
+
+	@Test
+	public void testLeapDays() throws ParseException {
+		assertEquals("2000-02-29T00:00:00",
+				UtcDateFormat.format(parse("2000-02-29T00:00:00")));
+		assertAround(parse("2000-02-29T00:00:00"));
+		assertAround(parse("2000-03-01T00:00:00"));
+		// 1900 is not a leap year, march follows the 28th
+		assertEquals("1900-03-01T00:00:00",
+				UtcDateFormat.format(parse("1900-02-28T00:00:00") + 86400000L));
+		assertAround(parse("1900-02-28T00:00:00"));
+		assertAround(parse("1900-03-01T00:00:00"));
+		assertAround(parse("2100-03-01T00:00:00"));
+		assertAround(parse("2024-02-29T23:59:59"));
+	}
+
+	@Test
+	public void testYearBoundaries() throws ParseException {
+		assertEquals("1999-12-31T23:59:59",
+				UtcDateFormat.format(parse("2000-01-01T00:00:00") - 1L));
+		assertAround(parse("2000-01-01T00:00:00"));
+		assertAround(parse("2001-01-01T00:00:00"));
+		assertAround(parse("1901-01-01T00:00:00"));
+		assertAround(parse("2038-01-19T03:14:08"));
+		assertAround(parse("9999-12-31T23:59:59"));
+	}
+
+	@Test
+	public void testOutsideGregorianRange() throws ParseException {
+		// the julian calendar before the cutover and five digit years
+		assertAround(parse("1582-10-15T00:00:00"));
+		assertAround(parse("1582-10-04T23:59:59"));
+		assertAround(parse("1000-02-29T00:00:00"));
+		assertAround(parse("10000-01-01T00:00:00"));
+		assertSame(Long.MIN_VALUE / 2);
+		assertSame(Long.MAX_VALUE / 2);
+	}
+
+	@Test
+	public void testRandomInstants() throws ParseException {
+		long min = parse("1583-01-01T00:00:00");
+		long max = parse("9999-12-31T23:59:59");
+		Random random = new Random(42L);
+		for (int i = 0; i < 100000; i++) {
+			long millis = min + (long) (random.nextDouble() * (max - min));
+			assertSame(millis);
+		}
+	}
+}